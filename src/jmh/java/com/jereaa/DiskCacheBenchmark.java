@@ -0,0 +1,68 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Throughput of answering each stage of a repeated lookup from the {@link DiskCache}, which is what a new process
+ * does instead of requesting it.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DiskCacheBenchmark {
+
+    private static final String[] COUNTRY_FIELDS = {"name", "alpha2Code", "alpha3Code", "latlng", "timezones",
+            "currencies", "languages"};
+
+    private Path directory;
+    private DiskCache cache;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("ippi-cache");
+        cache = DiskCache.open(directory, 65536, 60000, 60000, 60000);
+        cache.putIpCountry("200.45.1.1", new JSONObject(Payloads.IP2COUNTRY_ARG));
+        cache.putCountry("ARG", JsonFieldReader.read(
+                new ByteArrayInputStream(Payloads.RESTCOUNTRIES_ARG.getBytes(StandardCharsets.UTF_8)), COUNTRY_FIELDS));
+        cache.putRate("USD_ARS", 37.65);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.close();
+        for (String file : new String[]{"ip-countries.cache", "countries.cache", "rates.cache"}) {
+            Files.deleteIfExists(directory.resolve(file));
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public JSONObject ipCountry() {
+        return cache.getIpCountry("200.45.1.1");
+    }
+
+    @Benchmark
+    public JSONObject country() {
+        return cache.getCountry("ARG");
+    }
+
+    @Benchmark
+    public double rate() {
+        return cache.getRate("USD_ARS");
+    }
+}
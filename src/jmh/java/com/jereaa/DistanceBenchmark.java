@@ -0,0 +1,60 @@
+package com.jereaa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * Throughput of {@link DistanceCalculator} from Argentina, per distance. Coordinates are read from fields so the JIT
+ * can't fold the calculation away.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DistanceBenchmark {
+
+    private static final int POINTS = 1024;
+
+    private final DistanceCalculator calculator = new DistanceCalculator(-34, -64, DistanceCalculator.Unit.KILOMETERS);
+    private double lat = 38;
+    private double lng = -97;
+    private String unit = "K";
+
+    private final double[] lats = new double[POINTS];
+    private final double[] lngs = new double[POINTS];
+    private final double[] distances = new double[POINTS];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < POINTS; i++) {
+            lats[i] = random.nextDouble() * 180 - 90;
+            lngs[i] = random.nextDouble() * 360 - 180;
+        }
+    }
+
+    @Benchmark
+    public double distance() {
+        return DistanceCalculator.distance(-34, -64, lat, lng, unit);
+    }
+
+    @Benchmark
+    public double distanceTo() {
+        return calculator.distanceTo(lat, lng);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double[] distancesTo() {
+        calculator.distancesTo(lats, lngs, distances);
+        return distances;
+    }
+}
@@ -0,0 +1,109 @@
+package com.jereaa;
+
+import com.google.common.net.InetAddresses;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * Throughput of {@link Ippi#isValidIp(String)}, per IP, over the same kind of inputs as {@code IppiTest}, compared to
+ * parsing them with Guava's {@link InetAddresses}, which the IP validation used before.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IpValidationBenchmark {
+
+    private static final String[] VALID_IPS = {
+            "216.218.222.14",
+            "209.141.45.212",
+            "192.42.116.17",
+            "185.220.101.21",
+            "100.2.209.68",
+            "93.115.86.8",
+            "000.000.000.000",
+            "::1",
+            "2001:db8::1",
+            "3ffe:0:0:0:0:0:0:1",
+            "::ffff:192.168.0.1",
+            "fe80:0:0:0:204:61ff:fe9d:f156"
+    };
+
+    private static final String[] INVALID_IPS = {
+            "",
+            "016.016.016",
+            "42.42.42.42.42",
+            "42..42.42",
+            "bogus",
+            "bogus.com",
+            "192.168.0.1.com",
+            "257.0.0.0",
+            "3ffe::1::1",
+            "::7:6:5:4:3:2:",
+            "3ffe::10000",
+            "::1.2.3.4.5"
+    };
+
+    private Ippi ippi;
+    private final long[] address = new long[2];
+
+    @Setup
+    public void setUp() {
+        ippi = new Ippi();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ippi.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void validIps(Blackhole blackhole) {
+        for (String ip : VALID_IPS) {
+            blackhole.consume(ippi.isValidIp(ip));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void invalidIps(Blackhole blackhole) {
+        for (String ip : INVALID_IPS) {
+            blackhole.consume(ippi.isValidIp(ip));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void parseValidIps(Blackhole blackhole) {
+        for (String ip : VALID_IPS) {
+            blackhole.consume(IpAddresses.parse(ip, address));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void guavaValidIps(Blackhole blackhole) {
+        for (String ip : VALID_IPS) {
+            blackhole.consume(InetAddresses.isInetAddress(ip));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void guavaInvalidIps(Blackhole blackhole) {
+        for (String ip : INVALID_IPS) {
+            blackhole.consume(InetAddresses.isInetAddress(ip));
+        }
+    }
+}
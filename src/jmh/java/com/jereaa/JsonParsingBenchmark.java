@@ -0,0 +1,58 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Throughput of parsing each upstream response into a {@link JSONObject}, as done for every request. The
+ * {@code *Bytes} benchmarks start from the response bytes, like {@link Ippi} does, to compare parsing the whole
+ * document against keeping only the fields used with {@link JsonFieldReader}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JsonParsingBenchmark {
+
+    private static final String[] COUNTRY_FIELDS = {"name", "alpha2Code", "alpha3Code", "latlng", "timezones",
+            "currencies", "languages"};
+
+    private final byte[] restcountriesBytes = Payloads.RESTCOUNTRIES_ARG.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public JSONObject ip2country() {
+        return new JSONObject(Payloads.IP2COUNTRY_ARG);
+    }
+
+    @Benchmark
+    public JSONObject restcountries() {
+        return new JSONObject(Payloads.RESTCOUNTRIES_ARG);
+    }
+
+    @Benchmark
+    public JSONObject converter() {
+        return new JSONObject(Payloads.CONVERTER_ARS);
+    }
+
+    @Benchmark
+    public JSONObject restcountriesBytes() {
+        return new JSONObject(new JSONTokener(new InputStreamReader(new ByteArrayInputStream(restcountriesBytes),
+                StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public JSONObject restcountriesBytesSelective() throws IOException {
+        return JsonFieldReader.read(new ByteArrayInputStream(restcountriesBytes), COUNTRY_FIELDS);
+    }
+}
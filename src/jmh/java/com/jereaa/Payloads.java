@@ -0,0 +1,34 @@
+package com.jereaa;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canned upstream responses used by the benchmarks, so they never touch the network.
+ */
+final class Payloads {
+
+    static final String RESTCOUNTRIES_ARG = read("/restcountries-arg.json");
+    static final String RESTCOUNTRIES_USA = read("/restcountries-usa.json");
+    static final String CONVERTER_ARS = read("/converter-ars.json");
+    static final String IP2COUNTRY_ARG = read("/ip2country-arg.json");
+
+    private Payloads() {
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = Payloads.class.getResourceAsStream(resource)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read the payload " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Throughput of compiling the fragment of a country (languages, timezones, distance and currency, see
+ * {@link CountryFragment#compile(JSONObject, DistanceCalculator, String)}), which is done once per country, of
+ * building a lookup's report from it, which is done on every lookup, of writing the report as JSON and of formatting
+ * it for the console (see {@link MainApplication#formatResult(IpReport)}). {@link IpReport#toJSON()} is measured too, since
+ * it is what {@link Ippi#investigateIp(String)} returns.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReportBenchmark {
+
+    /**
+     * Argentina has one timezone and two languages, the USA has eleven timezones
+     */
+    @Param({"ARG", "USA"})
+    public String country;
+
+    private static final DistanceCalculator ORIGIN = new DistanceCalculator(CountryFragment.DEFAULT_ORIGIN_LAT,
+            CountryFragment.DEFAULT_ORIGIN_LNG, DistanceCalculator.Unit.KILOMETERS);
+
+    private JSONObject countryInfo;
+    private CountryFragment fragment;
+    private IpReport countryReport;
+    private IpReport report;
+    private final StringBuilder buffer = new StringBuilder(1024);
+
+    @Setup
+    public void setUp() {
+        countryInfo = new JSONObject(country.equals("ARG") ? Payloads.RESTCOUNTRIES_ARG : Payloads.RESTCOUNTRIES_USA);
+        countryReport = new IpReport("200.1.1.1", countryInfo.getString("alpha3Code"), countryInfo.getString("name"));
+        fragment = compileFragment();
+        report = countryReport.withCountryInfo(fragment, Instant.now()).withRates(37.6002, 0.026595);
+    }
+
+    @Benchmark
+    public CountryFragment compileFragment() {
+        return CountryFragment.compile(countryInfo, ORIGIN, CountryFragment.DEFAULT_ORIGIN_NAME);
+    }
+
+    @Benchmark
+    public IpReport countryInfo() {
+        return countryReport.withCountryInfo(fragment, Instant.now());
+    }
+
+    @Benchmark
+    public StringBuilder writeJson() throws IOException {
+        buffer.setLength(0);
+        report.writeJson(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public JSONObject toJSON() {
+        return report.toJSON();
+    }
+
+    @Benchmark
+    public String formatResult() {
+        return MainApplication.formatResult(report);
+    }
+}
@@ -0,0 +1,235 @@
+package com.jereaa;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the three upstream providers, serving the canned responses of the benchmarks: ip2country
+ * ({@code /ip?<ip>}), restcountries ({@code /rest/v2/alpha/<code>}) and the currency converter
+ * ({@code /api/v6/convert?q=<pairs>}). IPs are answered as Argentina or the USA depending on their hash.
+ * <p>
+ * Every response is delayed by a fixed latency plus a random jitter, without blocking a thread per request. A
+ * fraction of the requests can fail with a 503 status, and another fraction can be left unanswered for a long time
+ * so the client times out.
+ */
+final class FakeUpstream implements Closeable {
+
+    /**
+     * Prefix of the names of the threads of the server, so their allocations can be told apart
+     */
+    static final String THREAD_PREFIX = "fake-upstream";
+
+    private static final long HANG_MILLIS = 60000;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService delays;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final double timeoutRate;
+    private final byte[] ipCountryArg;
+    private final byte[] ipCountryUsa;
+    private final byte[] countryArg;
+    private final byte[] countryUsa;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    private FakeUpstream(long latencyMillis, long jitterMillis, double errorRate, double timeoutRate)
+            throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+        this.timeoutRate = timeoutRate;
+
+        JSONObject ipCountry = new JSONObject(new String(read("/ip2country-arg.json"), StandardCharsets.UTF_8));
+        this.ipCountryArg = ipCountry.toString().getBytes(StandardCharsets.UTF_8);
+        ipCountry.put("countryCode", "US").put("countryCode3", "USA").put("countryName", "United States of America");
+        this.ipCountryUsa = ipCountry.toString().getBytes(StandardCharsets.UTF_8);
+        this.countryArg = read("/restcountries-arg.json");
+        this.countryUsa = read("/restcountries-usa.json");
+
+        // The headers and the body of a response are written separately, and with Nagle's algorithm the body would
+        // wait for the client's delayed ACK of the headers
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.workers = Executors.newFixedThreadPool(4, threads("worker"));
+        this.delays = Executors.newScheduledThreadPool(2, threads("delay"));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a server on a free port of the loopback interface
+     *
+     * @param latencyMillis {@code long} milliseconds every response is delayed
+     * @param jitterMillis {@code long} maximum random milliseconds added to the latency
+     * @param errorRate {@code double} fraction of the requests answered with a 503 status
+     * @param timeoutRate {@code double} fraction of the requests left unanswered for a minute
+     * @return {@link FakeUpstream} started
+     * @throws IOException in case the server can't be started
+     */
+    static FakeUpstream start(long latencyMillis, long jitterMillis, double errorRate, double timeoutRate)
+            throws IOException {
+        FakeUpstream upstream = new FakeUpstream(latencyMillis, jitterMillis, errorRate, timeoutRate);
+        upstream.server.start();
+        return upstream;
+    }
+
+    /**
+     * @return {@code String} base URL of the server, e.g. {@code "http://127.0.0.1:41234"}
+     */
+    String getUrl() {
+        return "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return {@code long} number of requests received
+     */
+    long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return {@code long} number of requests answered with an injected 503
+     */
+    long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return {@code long} number of requests left unanswered on purpose
+     */
+    long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        delays.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) {
+        requests.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double dice = random.nextDouble();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+
+        int status;
+        byte[] body;
+        if (dice < timeoutRate) {
+            timeouts.increment();
+            status = 503;
+            body = new byte[0];
+            delay = HANG_MILLIS;
+        } else if (dice < timeoutRate + errorRate) {
+            errors.increment();
+            status = 503;
+            body = new byte[0];
+        } else {
+            byte[] routed = route(exchange.getRequestURI().getPath(), exchange.getRequestURI().getRawQuery());
+            status = routed == null ? 404 : 200;
+            body = routed == null ? new byte[0] : routed;
+        }
+
+        delays.schedule(() -> respond(exchange, status, body), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private byte[] route(String path, String query) {
+        if (path.equals("/ip") && query != null) {
+            return (query.hashCode() & 1) == 0 ? ipCountryArg : ipCountryUsa;
+        }
+        if (path.startsWith("/rest/v2/alpha/")) {
+            String code = path.substring("/rest/v2/alpha/".length()).toUpperCase(Locale.ROOT);
+            if (code.equals("AR") || code.equals("ARG")) {
+                return countryArg;
+            }
+            if (code.equals("US") || code.equals("USA")) {
+                return countryUsa;
+            }
+            return null;
+        }
+        if (path.equals("/api/v6/convert") && query != null && query.startsWith("q=")) {
+            int end = query.indexOf('&');
+            JSONObject rates = new JSONObject();
+            for (String pair : query.substring(2, end < 0 ? query.length() : end).split(",")) {
+                rates.put(pair, rate(pair));
+            }
+            return rates.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return null;
+    }
+
+    /**
+     * Same rates as the canned converter response, for any currency
+     */
+    private static double rate(String pair) {
+        String[] currencies = pair.split("_");
+        if (currencies.length != 2 || currencies[0].equals(currencies[1])) {
+            return 1;
+        }
+        return currencies[0].equals("USD") ? 37.6002 : 0.026595;
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            // The client gave up on the request
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static ThreadFactory threads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, THREAD_PREFIX + "-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static byte[] read(String resource) {
+        try (InputStream in = FakeUpstream.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IOException("Resource not found");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read the payload " + resource, e);
+        }
+    }
+}
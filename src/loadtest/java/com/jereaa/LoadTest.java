@@ -0,0 +1,445 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a log of IPs through {@link Ippi} against a {@link FakeUpstream} in the same JVM, so it runs fully
+ * offline, and reports the throughput, the latency percentiles and the allocation per lookup.
+ * <p>
+ * Usage: {@code [file|-] [--mode sync|async|batch] [--concurrency <n>] [--rate <lookups per second>]
+ * [--lookups <n>] [--warmup <n>] [--latency <ms>] [--jitter <ms>] [--errors <fraction>] [--timeouts <fraction>]
+ * [--metrics <file>]}
+ * <p>
+ * The log has one IP per line. Without one, 10000 random IPv4 addresses are used. Lookups go through
+ * {@link Ippi#investigateIp(String)} ({@code sync}), {@link Ippi#investigateIpAsync(String)} ({@code async}, the
+ * default) or a {@link BatchRunner} ({@code batch}). With {@code --concurrency} (64 by default) that many lookups
+ * are kept in progress. With {@code --rate} lookups are started at a fixed rate whatever the latency, and their
+ * latency is measured from the time they should have started, so a slow lookup delaying the next ones still shows.
+ * <p>
+ * The fake upstream delays every response by {@code --latency} (20 ms by default) plus up to {@code --jitter}
+ * (10 ms by default), and answers {@code --errors} of the requests with a 503 and leaves {@code --timeouts} of them
+ * unanswered. Any {@code ippi.*} system property other than the upstream URLs applies to the lookups, e.g.
+ * {@code -Dippi.prefixCache.maxSize=0}. {@code --metrics} writes the metrics of {@link Ippi} to a file in the
+ * Prometheus format at the end.
+ */
+public class LoadTest {
+
+    enum Mode {
+        SYNC,
+        ASYNC,
+        BATCH
+    }
+
+    private final Ippi ippi;
+    private final Mode mode;
+    private final int concurrency;
+    private final double rate;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder complete = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param ippi {@link Ippi} instance used for every lookup
+     * @param mode {@link Mode} of the lookups
+     * @param concurrency {@code int} lookups in progress at once, or threads making them at a fixed rate
+     * @param rate {@code double} lookups started per second, or {@code 0} to keep {@code concurrency} in progress
+     */
+    LoadTest(Ippi ippi, Mode mode, int concurrency, double rate) {
+        this.ippi = ippi;
+        this.mode = mode;
+        this.concurrency = Math.max(1, concurrency);
+        this.rate = rate;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String file = null;
+        Mode mode = Mode.ASYNC;
+        int concurrency = 64;
+        double rate = 0;
+        int lookups = -1;
+        int warmup = -1;
+        long latencyMillis = 20;
+        long jitterMillis = 10;
+        double errorRate = 0;
+        double timeoutRate = 0;
+        String metricsFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    file = arg;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--mode": mode = Mode.valueOf(value.toUpperCase()); break;
+                    case "--concurrency": concurrency = Integer.parseInt(value); break;
+                    case "--rate": rate = Double.parseDouble(value); break;
+                    case "--lookups": lookups = Integer.parseInt(value); break;
+                    case "--warmup": warmup = Integer.parseInt(value); break;
+                    case "--latency": latencyMillis = Long.parseLong(value); break;
+                    case "--jitter": jitterMillis = Long.parseLong(value); break;
+                    case "--errors": errorRate = Double.parseDouble(value); break;
+                    case "--timeouts": timeoutRate = Double.parseDouble(value); break;
+                    case "--metrics": metricsFile = value; break;
+                    default: throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+            if (mode == Mode.BATCH && rate > 0) {
+                throw new IllegalArgumentException("The batch mode keeps its own pace, --rate can't be used with it");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Incorrect arguments. " + e.getMessage());
+            System.err.println("Usage: [file|-] [--mode sync|async|batch] [--concurrency <n>] [--rate <lookups/s>]"
+                    + " [--lookups <n>] [--warmup <n>] [--latency <ms>] [--jitter <ms>] [--errors <fraction>]"
+                    + " [--timeouts <fraction>] [--metrics <file>]");
+            return;
+        }
+
+        List<String> ips = file == null ? randomIps(10000) : readIps(file);
+        if (ips.isEmpty()) {
+            System.err.println("There are no IPs to replay.");
+            return;
+        }
+        lookups = lookups < 0 ? ips.size() : lookups;
+        warmup = warmup < 0 ? Math.min(lookups, 2000) : warmup;
+
+        try (FakeUpstream upstream = FakeUpstream.start(latencyMillis, jitterMillis, errorRate, timeoutRate)) {
+            System.setProperty(Upstream.IP_COUNTRY.property("url"), upstream.getUrl());
+            System.setProperty(Upstream.COUNTRIES.property("url"), upstream.getUrl() + "/rest/v2");
+            System.setProperty(Upstream.CURRENCY_RATES.property("url"), upstream.getUrl() + "/api/v6");
+
+            try (Ippi ippi = new Ippi()) {
+                if (warmup > 0) {
+                    System.err.println(String.format("Warming up with %d lookups...", warmup));
+                    new LoadTest(ippi, mode, concurrency, rate).run(ips, 0, warmup);
+                }
+
+                System.err.println(String.format("Replaying %d lookups...", lookups));
+                LoadTest test = new LoadTest(ippi, mode, concurrency, rate);
+                long requestsBefore = upstream.getRequests();
+                AllocationSampler allocations = new AllocationSampler();
+                long start = System.nanoTime();
+                test.run(ips, warmup, lookups);
+                long elapsed = System.nanoTime() - start;
+                long allocated = allocations.stop();
+
+                System.out.print(test.report(elapsed, allocated, upstream.getRequests() - requestsBefore,
+                        upstream.getErrors(), upstream.getTimeouts()));
+                if (metricsFile != null) {
+                    try (Writer out = Files.newBufferedWriter(Paths.get(metricsFile), StandardCharsets.UTF_8)) {
+                        ippi.getMetrics().writePrometheus(out);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a number of lookups and waits for all of them
+     *
+     * @param ips {@link List} of IPs, replayed in order and from the start again when they run out
+     * @param offset {@code int} index of the first IP looked up
+     * @param lookups {@code int} number of lookups
+     */
+    void run(List<String> ips, int offset, int lookups) throws IOException, InterruptedException {
+        switch (mode) {
+            case SYNC:
+                runSync(ips, offset, lookups);
+                break;
+            case ASYNC:
+                if (rate > 0) {
+                    runAsyncAtRate(ips, offset, lookups);
+                } else {
+                    runAsync(ips, offset, lookups);
+                }
+                break;
+            case BATCH:
+                runBatch(ips, offset, lookups);
+                break;
+        }
+    }
+
+    private void runSync(List<String> ips, int offset, int lookups) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        if (rate > 0) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                long scheduled = waitForTurn(start, i);
+                String ip = ip(ips, offset + i);
+                pool.execute(() -> record(scheduled, ippi.investigateIp(ip)));
+            }
+        } else {
+            AtomicInteger next = new AtomicInteger();
+            for (int thread = 0; thread < concurrency; thread++) {
+                pool.execute(() -> {
+                    for (int i; (i = next.getAndIncrement()) < lookups; ) {
+                        long start = System.nanoTime();
+                        record(start, ippi.investigateIp(ip(ips, offset + i)));
+                    }
+                });
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private void runAsync(List<String> ips, int offset, int lookups) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int chain = 0; chain < concurrency; chain++) {
+            continueChain(ips, offset, lookups, next, done);
+        }
+        done.await();
+    }
+
+    /**
+     * Starts lookups one after the other until there are none left. Lookups completed right away, e.g. from a cache,
+     * are handled in a loop instead of a callback, so the stack doesn't grow.
+     */
+    private void continueChain(List<String> ips, int offset, int lookups, AtomicInteger next, CountDownLatch done) {
+        for (int i; (i = next.getAndIncrement()) < lookups; ) {
+            long start = System.nanoTime();
+            CompletableFuture<JSONObject> lookup = ippi.investigateIpAsync(ip(ips, offset + i));
+            if (!lookup.isDone()) {
+                lookup.whenComplete((json, e) -> {
+                    record(start, e == null ? json : null);
+                    continueChain(ips, offset, lookups, next, done);
+                });
+                return;
+            }
+            record(start, lookup.isCompletedExceptionally() ? null : lookup.join());
+        }
+        done.countDown();
+    }
+
+    private void runAsyncAtRate(List<String> ips, int offset, int lookups) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(lookups);
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            long scheduled = waitForTurn(start, i);
+            ippi.investigateIpAsync(ip(ips, offset + i)).whenComplete((json, e) -> {
+                record(scheduled, e == null ? json : null);
+                done.countDown();
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * The batch runner writes the results itself, so they are counted from its output. Its lookups are timed by the
+     * metrics of {@link Ippi}, see {@code --metrics}.
+     */
+    private void runBatch(List<String> ips, int offset, int lookups) throws IOException {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < lookups; i++) {
+            input.append(ip(ips, offset + i)).append('\n');
+        }
+        new BatchRunner(ippi, concurrency, false).run(new BufferedReader(new StringReader(input.toString())),
+                new Writer() {
+                    private final StringBuilder line = new StringBuilder();
+
+                    @Override
+                    public void write(char[] chars, int offset, int length) {
+                        for (int i = offset; i < offset + length; i++) {
+                            if (chars[i] != '\n') {
+                                line.append(chars[i]);
+                                continue;
+                            }
+                            JSONObject json = new JSONObject(line.toString());
+                            record(-1, json.has("error") ? null : json);
+                            line.setLength(0);
+                        }
+                    }
+
+                    @Override
+                    public void flush() {
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+    }
+
+    /**
+     * Waits until a lookup is due to start
+     *
+     * @return {@code long} {@link System#nanoTime()} at which it was due
+     */
+    private long waitForTurn(long start, int index) {
+        long scheduled = start + (long) (index * 1e9 / rate);
+        for (long now; (now = System.nanoTime()) < scheduled; ) {
+            LockSupport.parkNanos(scheduled - now);
+        }
+        return scheduled;
+    }
+
+    /**
+     * @param start {@code long} {@link System#nanoTime()} at which the lookup started, or {@code -1} if it wasn't
+     *              timed
+     * @param json {@link JSONObject} the lookup returned, or {@code null} if it failed
+     */
+    private void record(long start, JSONObject json) {
+        if (start >= 0) {
+            latency.record(System.nanoTime() - start);
+        }
+        if (json == null) {
+            failed.increment();
+        } else if (json.has("currencyCode") && json.has("USD_" + json.getString("currencyCode"))) {
+            complete.increment();
+        } else {
+            partial.increment();
+        }
+    }
+
+    String report(long elapsedNanos, long allocatedBytes, long requests, long injectedErrors, long injectedTimeouts) {
+        long lookups = complete.sum() + partial.sum() + failed.sum();
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Mode: %s, %s%n", mode.name().toLowerCase(),
+                rate > 0 ? String.format("%.1f lookups per second", rate) : concurrency + " lookups at once"));
+        report.append(String.format("Lookups: %d (%d complete, %d partial, %d failed) in %.2f seconds%n",
+                lookups, complete.sum(), partial.sum(), failed.sum(), seconds));
+        report.append(String.format("Throughput: %.1f lookups per second%n", lookups / seconds));
+
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        if (snapshot.getCount() > 0) {
+            report.append(String.format("Latency (ms): p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f, mean %.2f%n",
+                    snapshot.getValueAt(0.5) / 1000.0, snapshot.getValueAt(0.9) / 1000.0,
+                    snapshot.getValueAt(0.99) / 1000.0, snapshot.getValueAt(0.999) / 1000.0,
+                    snapshot.getMax() / 1000.0, snapshot.getMean() / 1000.0));
+        } else {
+            report.append(String.format("Latency: not measured in %s mode%n", mode.name().toLowerCase()));
+        }
+        if (allocatedBytes >= 0 && lookups > 0) {
+            report.append(String.format("Allocation: %.1f KB per lookup%n", allocatedBytes / 1024.0 / lookups));
+        }
+        report.append(String.format("Upstream requests: %d (%d errors and %d timeouts injected overall)%n",
+                requests, injectedErrors, injectedTimeouts));
+        return report.toString();
+    }
+
+    private static String ip(List<String> ips, int index) {
+        return ips.get(index % ips.size());
+    }
+
+    private static List<String> readIps(String file) throws IOException {
+        List<String> ips = new ArrayList<>();
+        try (BufferedReader input = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            for (String line; (line = input.readLine()) != null; ) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    ips.add(line);
+                }
+            }
+        }
+        return ips;
+    }
+
+    /**
+     * Random public-looking IPv4 addresses, the same ones on every run
+     */
+    private static List<String> randomIps(int count) {
+        Random random = new Random(42);
+        List<String> ips = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ips.add((1 + random.nextInt(223)) + "." + random.nextInt(256) + "." + random.nextInt(256) + "."
+                    + (1 + random.nextInt(254)));
+        }
+        return ips;
+    }
+
+    /**
+     * Sums the bytes allocated by every thread but the fake upstream's ones. Threads are sampled periodically, so the
+     * allocation of the threads ending while it runs, like the batch runner's workers, is still counted.
+     */
+    private static final class AllocationSampler {
+        private static final long PERIOD_MILLIS = 50;
+
+        private final com.sun.management.ThreadMXBean threads;
+        private final Map<Long, Long> initial = new HashMap<>();
+        private final Map<Long, Long> latest = new HashMap<>();
+        private final Thread sampler;
+        private volatile boolean running = true;
+
+        private AllocationSampler() {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            threads = bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+            sample(initial);
+            sampler = new Thread(() -> {
+                while (running) {
+                    sample(latest);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(PERIOD_MILLIS));
+                }
+            }, FakeUpstream.THREAD_PREFIX + "-allocation-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        /**
+         * @return {@code long} bytes allocated since the sampler was created, or {@code -1} if the JVM can't tell
+         */
+        private long stop() throws InterruptedException {
+            running = false;
+            sampler.join();
+            if (threads == null) {
+                return -1;
+            }
+            sample(latest);
+            long total = 0;
+            for (Map.Entry<Long, Long> thread : latest.entrySet()) {
+                total += thread.getValue() - initial.getOrDefault(thread.getKey(), 0L);
+            }
+            return total;
+        }
+
+        private void sample(Map<Long, Long> into) {
+            if (threads == null) {
+                return;
+            }
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                // The HTTP server's dispatcher thread belongs to the fake upstream too
+                if (thread.getName().startsWith(FakeUpstream.THREAD_PREFIX)
+                        || thread.getName().startsWith("HTTP-Dispatcher")) {
+                    continue;
+                }
+                long bytes = threads.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0) {
+                    into.put(thread.getId(), bytes);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.jereaa;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of asynchronous tasks in progress without blocking any thread. Tasks over the limit wait in a
+ * queue and are started as soon as a running one completes.
+ */
+final class AsyncLimiter {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final int maxRunning;
+    private final int maxQueued;
+
+    /**
+     * @param maxRunning {@code int} maximum number of tasks in progress at once
+     * @param maxQueued {@code int} maximum number of tasks waiting to start, further tasks are rejected
+     */
+    AsyncLimiter(int maxRunning, int maxQueued) {
+        this.maxRunning = Math.max(1, maxRunning);
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Starts a task now if we are under the limit, or queues it otherwise
+     *
+     * @param task {@link Supplier} starting the task and returning the future of its result
+     * @return {@link CompletableFuture} completed with the result of the task. It fails with a
+     * {@link TooManyLookupsException} if the queue is full
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            result.completeExceptionally(new TooManyLookupsException("Too many lookups in progress, try again later."));
+            return result;
+        }
+
+        queue.add(() -> {
+            CompletableFuture<T> future;
+            try {
+                future = task.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, e) -> {
+                running.decrementAndGet();
+                drain();
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        drain();
+        return result;
+    }
+
+    /**
+     * @return {@code int} number of tasks in progress
+     */
+    int running() {
+        return running.get();
+    }
+
+    /**
+     * Starts queued tasks while we are under the limit. Tasks that complete right away call this method again from
+     * inside the loop, so only one thread drains at a time and the others just ask it to go through the loop again.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (!queue.isEmpty()) {
+                int current = running.get();
+                if (current >= maxRunning) {
+                    break;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                Runnable next = queue.poll();
+                if (next == null) {
+                    running.decrementAndGet();
+                    break;
+                }
+                queued.decrementAndGet();
+                next.run();
+            }
+        } while (drainRequests.decrementAndGet() != 0);
+    }
+}
@@ -0,0 +1,190 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Investigates a stream of IPs, one per line, with a pool of workers and writes one JSON object per line (NDJSON).
+ * <p>
+ * Only a window of twice the number of workers is in progress at any time, so memory stays bounded no matter how
+ * big the input is. Results are written either in the same order as the input or as soon as they are ready.
+ */
+public class BatchRunner {
+
+    private final Ippi ippi;
+    private final int workers;
+    private final boolean ordered;
+
+    private int total;
+    private final AtomicInteger invalid = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param ippi {@link Ippi} instance used for every lookup
+     * @param workers {@code int} number of lookups in progress at once
+     * @param ordered {@code true} to write results in the same order as the input, {@code false} to write them as
+     *                soon as they are ready
+     */
+    public BatchRunner(Ippi ippi, int workers, boolean ordered) {
+        this.ippi = ippi;
+        this.workers = Math.max(1, workers);
+        this.ordered = ordered;
+    }
+
+    /**
+     * Investigates every IP read from the input and writes the results to the output. Empty lines are skipped, and
+     * invalid IPs or IPs we couldn't get any info on produce an object with an {@code error} field.
+     *
+     * @param input {@link BufferedReader} with one IP per line
+     * @param output {@link Writer} to which results are written. It is flushed, but not closed, at the end
+     * @throws IOException in case the input can't be read or the output can't be written
+     */
+    public void run(BufferedReader input, Writer output) throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "ippi-batch-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int window = workers * 2;
+        total = 0;
+        invalid.set(0);
+        failed.set(0);
+
+        try {
+            if (ordered) {
+                runOrdered(input, output, pool, window);
+            } else {
+                runUnordered(input, output, pool, window);
+            }
+        } finally {
+            pool.shutdownNow();
+            output.flush();
+        }
+    }
+
+    /**
+     * @return {@code int} number of IPs read in the last run
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return {@code int} number of invalid IPs read in the last run
+     */
+    public int getInvalid() {
+        return invalid.get();
+    }
+
+    /**
+     * @return {@code int} number of valid IPs we couldn't get any info on in the last run
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    private void runOrdered(BufferedReader input, Writer output, ExecutorService pool, int window) throws IOException {
+        Deque<Future<String>> pending = new ArrayDeque<>(window);
+        String line;
+        while ((line = nextIp(input)) != null) {
+            // Write everything that is already done, and wait for the oldest lookup if the window is full
+            while (!pending.isEmpty() && (pending.size() >= window || pending.peekFirst().isDone())) {
+                write(output, pending.pollFirst());
+            }
+            String ip = line;
+            pending.addLast(pool.submit(() -> investigate(ip)));
+        }
+        while (!pending.isEmpty()) {
+            write(output, pending.pollFirst());
+        }
+    }
+
+    private void runUnordered(BufferedReader input, Writer output, ExecutorService pool, int window) throws IOException {
+        CompletionService<String> completed = new ExecutorCompletionService<>(pool);
+        int inProgress = 0;
+        String line;
+        while ((line = nextIp(input)) != null) {
+            for (Future<String> done; (done = completed.poll()) != null; inProgress--) {
+                write(output, done);
+            }
+            if (inProgress >= window) {
+                write(output, take(completed));
+                inProgress--;
+            }
+            String ip = line;
+            completed.submit(() -> investigate(ip));
+            inProgress++;
+        }
+        for (; inProgress > 0; inProgress--) {
+            write(output, take(completed));
+        }
+    }
+
+    private String nextIp(BufferedReader input) throws IOException {
+        String line;
+        while ((line = input.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                total++;
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private String investigate(String ip) {
+        if (!ippi.isValidIp(ip)) {
+            invalid.incrementAndGet();
+            return error(ip, "Invalid IP").toString();
+        }
+        IpReport report = ippi.report(ip, Ippi.Priority.BATCH);
+        if (report == null) {
+            failed.incrementAndGet();
+            return error(ip, "Couldn't get any information on the IP").toString();
+        }
+        return report.toString();
+    }
+
+    private static JSONObject error(String ip, String message) {
+        JSONObject error = new JSONObject();
+        error.put("ip", ip);
+        error.put("error", message);
+        return error;
+    }
+
+    private void write(Writer output, Future<String> result) throws IOException {
+        String json;
+        try {
+            json = result.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Lookup failed unexpectedly", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a lookup");
+        }
+        output.write(json);
+        output.write('\n');
+    }
+
+    private static Future<String> take(CompletionService<String> completed) throws IOException {
+        try {
+            return completed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a lookup");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.jereaa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker of an upstream provider, so lookups fail fast while the provider is down instead of each one
+ * waiting for its own timeout.
+ * <p>
+ * The circuit opens after a number of consecutive failures, and requests are skipped while it is open. Once the
+ * open time passes, a single trial request is let through: the circuit closes if it succeeds, and opens again if it
+ * fails. Checking and updating the circuit takes no lock.
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private volatile long openedAt;
+    private volatile boolean open;
+
+    /**
+     * @param failureThreshold {@code int} consecutive failures that open the circuit
+     * @param openMillis {@code long} milliseconds the circuit stays open before a trial request is let through
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * @return {@code true} if a request can be made, {@code false} if it must be skipped
+     */
+    boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        if (System.nanoTime() - openedAt < openNanos) {
+            return false;
+        }
+        return trial.compareAndSet(false, true);
+    }
+
+    /**
+     * Checks if requests are being skipped, without taking the trial request, e.g. to fail fast before queueing a
+     * request that {@link #allowRequest()} is asked about once it starts
+     *
+     * @return {@code true} if the circuit is open and its open time hasn't passed yet
+     */
+    boolean isRejecting() {
+        return open && System.nanoTime() - openedAt < openNanos;
+    }
+
+    /**
+     * Gives back the trial request taken by {@link #allowRequest()} for a request that was never made, so another
+     * request can be the trial. Does nothing while the circuit is closed.
+     */
+    void releaseTrial() {
+        if (open) {
+            trial.set(false);
+        }
+    }
+
+    /**
+     * Records a request answered by the provider, which closes the circuit
+     */
+    void recordSuccess() {
+        failures.set(0);
+        if (open) {
+            open = false;
+            trial.set(false);
+        }
+    }
+
+    /**
+     * Records a request the provider failed, which opens the circuit after enough of them or if it was the trial
+     */
+    void recordFailure() {
+        if (open) {
+            if (trial.compareAndSet(true, false)) {
+                openedAt = System.nanoTime();
+            }
+            return;
+        }
+        if (failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            open = true;
+        }
+    }
+
+    /**
+     * @return {@code true} if requests are being skipped, or only a trial one is let through
+     */
+    boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,95 @@
+package com.jereaa;
+
+/**
+ * Small helper to read the tool settings. Every setting is a Java system property
+ * (e.g. {@code -Dippi.ipdb=/data/ip-ranges.csv}) with a sensible default.
+ */
+final class Config {
+
+    private Config() {
+    }
+
+    /**
+     * Reads a {@code String} setting
+     *
+     * @param key name of the system property
+     * @param defaultValue value to use when the property is not set
+     * @return {@code String} value of the setting
+     */
+    static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Reads an {@code int} setting
+     *
+     * @param key name of the system property
+     * @param defaultValue value to use when the property is not set or is not a number
+     * @return {@code int} value of the setting
+     */
+    static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println(String.format("Invalid value for setting %s: %s. Using %d instead.", key, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a {@code long} setting
+     *
+     * @param key name of the system property
+     * @param defaultValue value to use when the property is not set or is not a number
+     * @return {@code long} value of the setting
+     */
+    static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println(String.format("Invalid value for setting %s: %s. Using %d instead.", key, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a {@code double} setting
+     *
+     * @param key name of the system property
+     * @param defaultValue value to use when the property is not set or is not a number
+     * @return {@code double} value of the setting
+     */
+    static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println(String.format("Invalid value for setting %s: %s. Using %s instead.", key, value, defaultValue));
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Reads a {@code boolean} setting
+     *
+     * @param key name of the system property
+     * @param defaultValue value to use when the property is not set
+     * @return {@code boolean} value of the setting
+     */
+    static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,249 @@
+package com.jereaa;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache of country information, keyed by ISO code (both 2 and 3 lettered codes).
+ * <p>
+ * Entries older than the TTL are still served, while a single background refresh per entry fetches a fresh copy.
+ * Only lookups of countries not in the cache wait for the upstream request, and they do it asynchronously.
+ * <p>
+ * Each entry also keeps the {@link CountryFragment} of its country, compiled the first time a lookup needs it.
+ */
+public final class CountryCache {
+
+    /**
+     * Fetches the information of a country from the upstream provider
+     */
+    public interface Loader {
+
+        /**
+         * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+         * @return {@link CompletableFuture} completed with the {@link JSONObject} with the information of the country.
+         * It fails with an {@link IOException} in case a bad request was made (invalid country code), or with an
+         * {@link UnirestException} in case of connection timeouts, no internet access or response parsing errors
+         */
+        CompletableFuture<JSONObject> load(String countryCode);
+    }
+
+    private static final class Entry {
+        private final JSONObject country;
+        private final long loadedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        // Compiled by the first lookup that needs it. Compiling it twice at once is harmless.
+        private volatile CountryFragment fragment;
+
+        private Entry(JSONObject country, long loadedAt) {
+            this.country = country;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Loader loader;
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Function<JSONObject, CountryFragment> compiler;
+
+    /**
+     * @param loader {@link Loader} used to fetch countries not in the cache or stale
+     * @param ttlMillis {@code long} milliseconds after which an entry is refreshed
+     * @param maxSize {@code int} maximum number of keys kept (each country is stored under its 2 and 3 lettered codes)
+     */
+    public CountryCache(Loader loader, long ttlMillis, int maxSize) {
+        this(loader, ttlMillis, maxSize, country -> CountryFragment.compile(country, new DistanceCalculator(
+                CountryFragment.DEFAULT_ORIGIN_LAT, CountryFragment.DEFAULT_ORIGIN_LNG,
+                DistanceCalculator.Unit.KILOMETERS), CountryFragment.DEFAULT_ORIGIN_NAME));
+    }
+
+    /**
+     * @param loader {@link Loader} used to fetch countries not in the cache or stale
+     * @param ttlMillis {@code long} milliseconds after which an entry is refreshed
+     * @param maxSize {@code int} maximum number of keys kept (each country is stored under its 2 and 3 lettered codes)
+     * @param compiler {@link Function} compiling the {@link CountryFragment} of a country
+     */
+    CountryCache(Loader loader, long ttlMillis, int maxSize, Function<JSONObject, CountryFragment> compiler) {
+        this.loader = loader;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = maxSize;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Gets the information of a country, requesting it only if it isn't cached yet
+     *
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @return {@link JSONObject} with the information of the country. It is shared, so it must not be modified
+     * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
+     * @throws IOException in case a bad request was made (invalid country code)
+     */
+    public JSONObject get(String countryCode) throws UnirestException, IOException {
+        return Futures.await(getAsync(countryCode));
+    }
+
+    /**
+     * Gets the information of a country without blocking, requesting it only if it isn't cached yet
+     *
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @return {@link CompletableFuture} completed with the {@link JSONObject} with the information of the country,
+     * right away if it is cached. The {@link JSONObject} is shared, so it must not be modified
+     */
+    public CompletableFuture<JSONObject> getAsync(String countryCode) {
+        return getEntryAsync(countryCode).thenApply(entry -> entry.country);
+    }
+
+    /**
+     * Gets the compiled fragment of a country, requesting the country only if it isn't cached yet. The fragment is
+     * compiled once per cached copy of the country.
+     *
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @return {@link CountryFragment} of the country
+     * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
+     * @throws IOException in case a bad request was made (invalid country code)
+     */
+    CountryFragment getFragment(String countryCode) throws UnirestException, IOException {
+        return Futures.await(getFragmentAsync(countryCode));
+    }
+
+    /**
+     * Same as {@link #getFragment(String)}, without blocking
+     *
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @return {@link CompletableFuture} completed with the {@link CountryFragment} of the country, right away if it
+     * is cached
+     */
+    CompletableFuture<CountryFragment> getFragmentAsync(String countryCode) {
+        return getEntryAsync(countryCode).thenApply(this::fragment);
+    }
+
+    /**
+     * Adds countries from a snapshot: a JSON array of country documents with the same format as the upstream ones.
+     * Countries added this way are fresh until the TTL passes from when they were added, so lookups answered from
+     * them don't make any request, e.g. the single lookup of the console application.
+     *
+     * @param snapshot {@link InputStream} with the UTF-8 encoded snapshot
+     * @return {@code int} number of countries added
+     */
+    public int warm(InputStream snapshot) {
+        long loadedAt = System.nanoTime();
+        Reader reader = new InputStreamReader(snapshot, StandardCharsets.UTF_8);
+        JSONArray countries = new JSONArray(new JSONTokener(reader));
+
+        for (int i = 0; i < countries.length(); i++) {
+            put(null, countries.getJSONObject(i), loadedAt);
+        }
+        return countries.length();
+    }
+
+    /**
+     * @return {@code int} number of keys in the cache
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return {@code long} number of lookups answered from the cache, stale entries included
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return {@code long} number of lookups that had to wait for the loader
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private CompletableFuture<Entry> getEntryAsync(String countryCode) {
+        String key = countryCode.toUpperCase(Locale.ROOT);
+        Entry entry = entries.get(key);
+
+        if (entry != null) {
+            hits.increment();
+            if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+                refresh(key, entry);
+            }
+            return CompletableFuture.completedFuture(entry);
+        }
+
+        misses.increment();
+        return loader.load(countryCode).thenApply(country -> put(key, country, System.nanoTime()));
+    }
+
+    private CountryFragment fragment(Entry entry) {
+        CountryFragment fragment = entry.fragment;
+        if (fragment == null) {
+            fragment = entry.fragment = compiler.apply(entry.country);
+        }
+        return fragment;
+    }
+
+    private void refresh(String key, Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        loader.load(key).whenComplete((country, e) -> {
+            if (e == null) {
+                put(key, country, System.nanoTime());
+            } else {
+                // Keep serving the stale entry, the next lookup will try again
+                entry.refreshing.set(false);
+            }
+        });
+    }
+
+    private Entry put(String key, JSONObject country, long loadedAt) {
+        Entry entry = new Entry(country, loadedAt);
+        if (key != null) {
+            entries.put(key, entry);
+        }
+        if (country.has("alpha2Code")) {
+            entries.put(country.getString("alpha2Code").toUpperCase(Locale.ROOT), entry);
+        }
+        if (country.has("alpha3Code")) {
+            entries.put(country.getString("alpha3Code").toUpperCase(Locale.ROOT), entry);
+        }
+
+        while (entries.size() > maxSize) {
+            evictOldest();
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entry that was loaded the longest time ago. The cache holds a few hundred entries at most, so a
+     * scan is cheaper than keeping them ordered on every lookup.
+     */
+    private void evictOldest() {
+        Entry oldest = null;
+        for (Entry entry : entries.values()) {
+            if (oldest == null || entry.loadedAt - oldest.loadedAt < 0) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null) {
+            entries.values().remove(oldest);
+        }
+    }
+}
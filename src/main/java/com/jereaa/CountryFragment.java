@@ -0,0 +1,210 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Part of the reports of a country that is the same for every lookup: its languages, the distance from the origin and
+ * its currency, plus its timezones with their offsets already parsed.
+ * <p>
+ * A fragment is compiled once per country, so a lookup only has to format the local times. The languages are also
+ * kept as JSON, ready to be copied into the reports written as JSON.
+ */
+final class CountryFragment {
+
+    static final String DEFAULT_ORIGIN_NAME = "Argentina";
+    static final double DEFAULT_ORIGIN_LAT = -34;
+    static final double DEFAULT_ORIGIN_LNG = -64;
+
+    private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private final JSONObject country;
+    private final List<IpReport.Language> languages;
+    private final String languagesJson;
+    private final int[] offsets;
+    private final char[][] times;
+    private final double distance;
+    private final String currencyCode;
+    private final String origin;
+
+    /**
+     * @param country {@link JSONObject} the fragment was compiled from, or {@code null}
+     * @param languages {@link List} of languages spoken in the country
+     * @param timezones {@link List} of the country's timezones, e.g. {@code "UTC-03:00"}. Timezones that can't be
+     *                  parsed are left out
+     * @param distance {@code double} distance from the origin to the country, in kilometers
+     * @param currencyCode {@code String} containing the code of the country's currency
+     * @param origin {@code String} containing the name of the place distances are measured from
+     */
+    CountryFragment(JSONObject country, List<IpReport.Language> languages, List<String> timezones, double distance,
+                    String currencyCode, String origin) {
+        this.country = country;
+        this.languages = Collections.unmodifiableList(new ArrayList<>(languages));
+        this.languagesJson = toJson(languages);
+        this.distance = distance;
+        this.currencyCode = currencyCode;
+        this.origin = origin;
+
+        int[] offsets = new int[timezones.size()];
+        char[][] times = new char[timezones.size()][];
+        int parsed = 0;
+        for (String timezone : timezones) {
+            try {
+                offsets[parsed] = offsetSeconds(timezone);
+            } catch (DateTimeException e) {
+                continue;
+            }
+            times[parsed++] = ("00:00:00(" + timezone + ")").toCharArray();
+        }
+        this.offsets = Arrays.copyOf(offsets, parsed);
+        this.times = Arrays.copyOf(times, parsed);
+    }
+
+    /**
+     * Compiles the fragment of a country
+     *
+     * @param country {@link JSONObject} with the information of the country, as returned by the countries provider
+     * @param origin {@link DistanceCalculator} measuring the distance from the origin, in kilometers
+     * @param originName {@code String} containing the name of the origin, e.g. {@code "Argentina"}
+     * @return {@link CountryFragment} of the country
+     * @throws org.json.JSONException in case the information of the country lacks any of the fields needed
+     */
+    static CountryFragment compile(JSONObject country, DistanceCalculator origin, String originName) {
+        JSONArray languagesJson = country.getJSONArray("languages");
+        List<IpReport.Language> languages = new ArrayList<>(languagesJson.length());
+        for (int i = 0; i < languagesJson.length(); i++) {
+            JSONObject language = languagesJson.getJSONObject(i);
+            languages.add(new IpReport.Language(language.getString("name"), language.getString("iso639_1")));
+        }
+
+        JSONArray timezonesJson = country.getJSONArray("timezones");
+        List<String> timezones = new ArrayList<>(timezonesJson.length());
+        for (int i = 0; i < timezonesJson.length(); i++) {
+            timezones.add(timezonesJson.getString(i));
+        }
+
+        JSONArray latlng = country.getJSONArray("latlng");
+        double distance = origin.distanceTo(latlng.getDouble(0), latlng.getDouble(1));
+
+        return new CountryFragment(country, languages, timezones, Math.round(distance * 100) / (double) 100,
+                country.getJSONArray("currencies").getJSONObject(0).getString("code"), originName);
+    }
+
+    /**
+     * @return {@link JSONObject} the fragment was compiled from, or {@code null} if it was built from its parts. It
+     * is shared, so it must not be modified
+     */
+    JSONObject getCountry() {
+        return country;
+    }
+
+    /**
+     * @return {@link List} of languages spoken in the country
+     */
+    List<IpReport.Language> getLanguages() {
+        return languages;
+    }
+
+    /**
+     * @return {@code String} with the languages as a JSON array, in the format of {@link IpReport#toJSON()}
+     */
+    String getLanguagesJson() {
+        return languagesJson;
+    }
+
+    /**
+     * @return {@code double} distance from the origin to the country, in kilometers
+     */
+    double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return {@code String} containing the code of the country's currency
+     */
+    String getCurrencyCode() {
+        return currencyCode;
+    }
+
+    /**
+     * @return {@code String} containing the name of the place distances are measured from
+     */
+    String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Formats the local time in each timezone of the country
+     *
+     * @param now {@link Instant} to format
+     * @return {@link List} of the local times, formatted as {@code HH:mm:ss(timezone)}
+     */
+    List<String> times(Instant now) {
+        String[] formatted = new String[times.length];
+        long epochSecond = now.getEpochSecond();
+        for (int i = 0; i < times.length; i++) {
+            int second = (int) Math.floorMod(epochSecond + offsets[i], (long) SECONDS_PER_DAY);
+            char[] time = times[i].clone();
+            digits(second / 3600, time, 0);
+            digits(second / 60 % 60, time, 3);
+            digits(second % 60, time, 6);
+            formatted[i] = new String(time);
+        }
+        return Arrays.asList(formatted);
+    }
+
+    /**
+     * Parses the offset of a timezone written the way the countries provider does, e.g. {@code "UTC-03:00"}, or
+     * just {@code "UTC"}
+     *
+     * @param timezone {@code String} containing the timezone
+     * @return {@code int} seconds the timezone is ahead of UTC
+     * @throws DateTimeException in case the timezone isn't in that format
+     */
+    static int offsetSeconds(String timezone) {
+        if (!timezone.startsWith("UTC")) {
+            throw new DateTimeException("Invalid timezone: " + timezone);
+        }
+        if (timezone.length() == 3) {
+            return 0;
+        }
+        return ZoneOffset.of(timezone.substring(3)).getTotalSeconds();
+    }
+
+    private static void digits(int value, char[] out, int offset) {
+        out[offset] = (char) ('0' + value / 10);
+        out[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static String toJson(List<IpReport.Language> languages) {
+        StringBuilder sb = new StringBuilder(32 * languages.size() + 2);
+        try {
+            sb.append('[');
+            for (int i = 0; i < languages.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                IpReport.Language language = languages.get(i);
+                sb.append("{\"name\":");
+                IpReport.quote(language.getName(), sb);
+                sb.append(",\"code\":");
+                IpReport.quote(language.getCode(), sb);
+                sb.append('}');
+            }
+            sb.append(']');
+        } catch (IOException e) {
+            // StringBuilder never fails
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,251 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage statistics per country: how many lookups resolved to each country and how far it is from the origin.
+ * <p>
+ * Recording a lookup only increments a {@link LongAdder}, which spreads concurrent updates over several cells, so
+ * the lookup path never takes a lock. The nearest and farthest countries and the average distance are computed when
+ * a snapshot is taken.
+ */
+public final class CountryStats {
+
+    private static final class Counter {
+        private final String code;
+        private volatile String name;
+        private volatile double distance;
+        private final LongAdder lookups = new LongAdder();
+
+        private Counter(String code, String name, double distance) {
+            this.code = code;
+            this.name = name;
+            this.distance = distance;
+        }
+    }
+
+    private final Map<String, Counter> countries = new ConcurrentHashMap<>();
+
+    /**
+     * Records a lookup that resolved to a country
+     *
+     * @param countryCode {@code String} containing the country's code
+     * @param countryName {@code String} containing the country's name
+     * @param distance {@code double} distance from the origin to the country, in kilometers
+     */
+    public void record(String countryCode, String countryName, double distance) {
+        Counter counter = countries.get(countryCode);
+        if (counter == null) {
+            counter = countries.computeIfAbsent(countryCode, code -> new Counter(code, countryName, distance));
+        }
+        // Only written when they change, e.g. with another origin, so lookups of the same country don't keep writing
+        // the same cache line
+        if (!Objects.equals(countryName, counter.name)) {
+            counter.name = countryName;
+        }
+        if (Double.compare(counter.distance, distance) != 0) {
+            counter.distance = distance;
+        }
+        counter.lookups.increment();
+    }
+
+    /**
+     * Takes a snapshot of the statistics. Lookups recorded while the snapshot is taken may or may not be included.
+     *
+     * @return {@link Snapshot} of the statistics
+     */
+    public Snapshot snapshot() {
+        List<CountrySnapshot> snapshot = new ArrayList<>(countries.size());
+        for (Counter counter : countries.values()) {
+            long lookups = counter.lookups.sum();
+            if (lookups > 0) {
+                snapshot.add(new CountrySnapshot(counter.code, counter.name, counter.distance, lookups));
+            }
+        }
+        snapshot.sort((a, b) -> Long.compare(b.lookups, a.lookups));
+        return new Snapshot(snapshot);
+    }
+
+    /**
+     * Statistics of a single country
+     */
+    public static final class CountrySnapshot {
+        private final String code;
+        private final String name;
+        private final double distance;
+        private final long lookups;
+
+        private CountrySnapshot(String code, String name, double distance, long lookups) {
+            this.code = code;
+            this.name = name;
+            this.distance = distance;
+            this.lookups = lookups;
+        }
+
+        /**
+         * @return {@code String} containing the country's code
+         */
+        public String getCode() {
+            return code;
+        }
+
+        /**
+         * @return {@code String} containing the country's name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return {@code double} distance from the origin to the country, in kilometers
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        /**
+         * @return {@code long} number of lookups that resolved to the country
+         */
+        public long getLookups() {
+            return lookups;
+        }
+
+        private JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("code", code);
+            json.put("name", name);
+            json.put("distance", distance);
+            json.put("lookups", lookups);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%s) - %s km", name, code, distance);
+        }
+    }
+
+    /**
+     * Statistics of every country at a given moment
+     */
+    public static final class Snapshot {
+        private final List<CountrySnapshot> countries;
+        private final long lookups;
+        private final CountrySnapshot nearest;
+        private final CountrySnapshot farthest;
+        private final double averageDistance;
+
+        private Snapshot(List<CountrySnapshot> countries) {
+            this.countries = Collections.unmodifiableList(countries);
+
+            long lookups = 0;
+            double weightedDistance = 0;
+            CountrySnapshot nearest = null;
+            CountrySnapshot farthest = null;
+            for (CountrySnapshot country : countries) {
+                lookups += country.lookups;
+                weightedDistance += country.distance * country.lookups;
+                if (nearest == null || country.distance < nearest.distance) {
+                    nearest = country;
+                }
+                if (farthest == null || country.distance > farthest.distance) {
+                    farthest = country;
+                }
+            }
+
+            this.lookups = lookups;
+            this.nearest = nearest;
+            this.farthest = farthest;
+            this.averageDistance = lookups == 0 ? 0 : Math.round(weightedDistance / lookups * 100) / (double) 100;
+        }
+
+        /**
+         * @return {@link List} of countries, the most looked up first
+         */
+        public List<CountrySnapshot> getCountries() {
+            return countries;
+        }
+
+        /**
+         * @return {@code long} total number of lookups recorded
+         */
+        public long getLookups() {
+            return lookups;
+        }
+
+        /**
+         * @return {@link CountrySnapshot} of the nearest country looked up, or {@code null} if there are no lookups
+         */
+        public CountrySnapshot getNearest() {
+            return nearest;
+        }
+
+        /**
+         * @return {@link CountrySnapshot} of the farthest country looked up, or {@code null} if there are no lookups
+         */
+        public CountrySnapshot getFarthest() {
+            return farthest;
+        }
+
+        /**
+         * @return {@code double} average distance of the lookups, weighted by the number of lookups of each country
+         */
+        public double getAverageDistance() {
+            return averageDistance;
+        }
+
+        /**
+         * @return {@link JSONObject} with all the statistics
+         */
+        public JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("lookups", lookups);
+            json.put("averageDistance", averageDistance);
+            if (nearest != null) {
+                json.put("nearest", nearest.toJSON());
+                json.put("farthest", farthest.toJSON());
+            }
+            JSONArray array = new JSONArray();
+            countries.forEach(country -> array.put(country.toJSON()));
+            json.put("countries", array);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Lookups: ");
+            sb.append(lookups);
+
+            if (nearest != null) {
+                sb.append("\nNearest country: ");
+                sb.append(nearest);
+                sb.append("\nFarthest country: ");
+                sb.append(farthest);
+                sb.append("\nAverage distance: ");
+                sb.append(averageDistance);
+                sb.append(" km");
+
+                sb.append("\nLookups per country:");
+                for (CountrySnapshot country : countries) {
+                    sb.append("\n  ");
+                    sb.append(country.name);
+                    sb.append(" (");
+                    sb.append(country.code);
+                    sb.append("): ");
+                    sb.append(country.lookups);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.jereaa;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Shared store of currency rates from and to USD.
+ * <p>
+ * Currencies that lookups are waiting on are queued and a single dispatcher thread batches them together, packing
+ * as many currencies as the provider allows in one request. The dispatcher doesn't wait for a request to finish
+ * before sending the next one, so a slow provider doesn't hold back other currencies. Known rates are served for as
+ * long as they are fresh, refreshed periodically in the background, and served stale while a refresh is pending.
+ * Rates older than their TTL, e.g. because the provider is down, are marked as stale, and so are the old rates the
+ * fetcher falls back to; those are requested again on their next lookup.
+ * <p>
+ * The dispatcher and the background refresh run until the store is closed.
+ */
+public final class CurrencyRates implements Closeable {
+
+    /**
+     * Requests a set of currency pairs from the upstream provider
+     */
+    public interface Fetcher {
+
+        /**
+         * Starts a request without blocking the dispatcher
+         *
+         * @param pairs {@link List} of pairs to request, e.g. {@code "USD_ARS"} and {@code "ARS_USD"}
+         * @return {@link CompletableFuture} completed with a {@link JSONObject} with the rate of each pair the
+         * provider knows, keyed by pair. If it also has {@code "stale": true}, the rates were kept from an earlier
+         * request and may be outdated. It fails with an {@link UnirestException} in case of connection timeouts, no
+         * internet access or response parsing errors, or with an {@link IOException} in case a bad request was made
+         */
+        CompletableFuture<JSONObject> fetch(List<String> pairs);
+    }
+
+    /**
+     * Rates of a currency. Both rates are {@code NaN} if the provider doesn't know the currency.
+     */
+    public static final class Rate {
+        private final double fromUsd;
+        private final double toUsd;
+        private final long fetchedAt;
+        private final boolean stale;
+
+        private Rate(double fromUsd, double toUsd, long fetchedAt, boolean stale) {
+            this.fromUsd = fromUsd;
+            this.toUsd = toUsd;
+            this.fetchedAt = fetchedAt;
+            this.stale = stale;
+        }
+
+        /**
+         * @return {@code double} amount of the currency that 1 USD buys
+         */
+        public double getFromUsd() {
+            return fromUsd;
+        }
+
+        /**
+         * @return {@code double} amount of USD that 1 unit of the currency buys
+         */
+        public double getToUsd() {
+            return toUsd;
+        }
+
+        /**
+         * @return {@code true} if the provider knows the currency
+         */
+        public boolean isKnown() {
+            return !Double.isNaN(fromUsd) && !Double.isNaN(toUsd);
+        }
+
+        /**
+         * @return {@code true} if the rates are older than their TTL, so they may be outdated
+         */
+        public boolean isStale() {
+            return stale;
+        }
+    }
+
+    private final Map<String, Rate> rates = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Rate>> pending = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+
+    private final Fetcher fetcher;
+    private final long ttlNanos;
+    private final long refreshNanos;
+    private final long batchWindowMillis;
+    private final long waitMillis;
+    private final int currenciesPerRequest;
+    private final Thread dispatcher;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    /**
+     * @param fetcher {@link Fetcher} used to request rates
+     * @param ttlMillis {@code long} milliseconds during which a rate is considered fresh
+     * @param refreshMillis {@code long} interval in milliseconds of the background refresh of known rates
+     * @param batchWindowMillis {@code long} milliseconds to wait for more currencies before sending a request
+     * @param waitMillis {@code long} maximum milliseconds a lookup waits for a rate it doesn't have
+     * @param maxPairs {@code int} maximum number of pairs the provider accepts in one request (2 per currency)
+     */
+    public CurrencyRates(Fetcher fetcher, long ttlMillis, long refreshMillis, long batchWindowMillis,
+                         long waitMillis, int maxPairs) {
+        this.fetcher = fetcher;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.batchWindowMillis = batchWindowMillis;
+        this.waitMillis = waitMillis;
+        this.currenciesPerRequest = Math.max(1, maxPairs / 2);
+
+        this.dispatcher = new Thread(this::dispatch, "ippi-currency-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ippi-currency-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshKnown, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the rates of a currency, waiting for them only if they aren't known yet
+     *
+     * @param currencyCode {@code String} containing the currency code, e.g. {@code "ARS"}
+     * @return {@link Rate} of the currency
+     * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
+     * @throws IOException in case a bad request was made or the rates took too long
+     */
+    public Rate get(String currencyCode) throws UnirestException, IOException {
+        return Futures.await(Futures.withTimeout(getAsync(currencyCode), waitMillis, "currency rates of " + currencyCode));
+    }
+
+    /**
+     * Gets the rates of a currency without blocking
+     *
+     * @param currencyCode {@code String} containing the currency code, e.g. {@code "ARS"}
+     * @return {@link CompletableFuture} completed with the {@link Rate} of the currency, right away if it is known
+     */
+    public CompletableFuture<Rate> getAsync(String currencyCode) {
+        String key = currencyCode.toUpperCase(Locale.ROOT);
+        Rate rate = rates.get(key);
+
+        if (rate != null) {
+            hits.increment();
+            if (System.nanoTime() - rate.fetchedAt > ttlNanos) {
+                request(key);
+                if (!rate.stale && rate.isKnown()) {
+                    rate = new Rate(rate.fromUsd, rate.toUsd, rate.fetchedAt, true);
+                }
+            }
+            return CompletableFuture.completedFuture(rate);
+        }
+
+        misses.increment();
+
+        // Callers get their own future, so they can't complete the one shared by all the lookups waiting for it
+        return request(key).thenApply(Function.identity());
+    }
+
+    /**
+     * @return {@code long} number of lookups answered with known rates, stale ones included
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return {@code long} number of lookups that had to wait for a request
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Stops the dispatcher and the background refresh. Lookups waiting for rates, and lookups of rates that aren't
+     * known, fail with an {@link IOException}; known rates are still served.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        scheduler.shutdownNow();
+        for (String key : pending.keySet()) {
+            CompletableFuture<Rate> future = pending.remove(key);
+            if (future != null) {
+                future.completeExceptionally(new IOException("The currency rates are closed."));
+            }
+        }
+    }
+
+    /**
+     * Queues a currency for the next request, unless it is already queued
+     *
+     * @param key {@code String} with the upper case currency code
+     * @return {@link CompletableFuture} completed when the rates of the currency arrive
+     */
+    private CompletableFuture<Rate> request(String key) {
+        if (closed) {
+            CompletableFuture<Rate> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("The currency rates are closed."));
+            return failed;
+        }
+        CompletableFuture<Rate> future = pending.computeIfAbsent(key, k -> {
+            queue.add(k);
+            return new CompletableFuture<>();
+        });
+        // If the store was closed meanwhile, close() may have missed the future, so nothing else would complete it
+        if (closed) {
+            pending.remove(key, future);
+            future.completeExceptionally(new IOException("The currency rates are closed."));
+        }
+        return future;
+    }
+
+    /**
+     * Queues a refresh of every known rate that wasn't fetched during the last refresh interval
+     */
+    private void refreshKnown() {
+        long now = System.nanoTime();
+        rates.forEach((key, rate) -> {
+            if (rate.isKnown() && now - rate.fetchedAt >= refreshNanos) {
+                request(key);
+            }
+        });
+    }
+
+    /**
+     * Dispatcher loop: waits for a queued currency, gives concurrent lookups a short window to queue theirs, and
+     * starts a request for them all together
+     */
+    private void dispatch() {
+        while (true) {
+            List<String> batch = new ArrayList<>(currenciesPerRequest);
+            try {
+                batch.add(queue.take());
+                if (batchWindowMillis > 0 && currenciesPerRequest > 1) {
+                    Thread.sleep(batchWindowMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, currenciesPerRequest - 1);
+            fetch(batch);
+        }
+    }
+
+    private void fetch(List<String> batch) {
+        List<String> pairs = new ArrayList<>(batch.size() * 2);
+        for (String key : batch) {
+            pairs.add("USD_" + key);
+            pairs.add(key + "_USD");
+        }
+
+        CompletableFuture<JSONObject> response;
+        try {
+            response = fetcher.fetch(pairs);
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((json, e) -> {
+            if (e != null) {
+                fail(batch, Futures.unwrap(e));
+            } else {
+                store(batch, json);
+            }
+        });
+    }
+
+    private void fail(List<String> batch, Throwable e) {
+        for (String key : batch) {
+            CompletableFuture<Rate> future = pending.remove(key);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void store(List<String> batch, JSONObject response) {
+        long now = System.nanoTime();
+        boolean stale = response.optBoolean("stale");
+        for (String key : batch) {
+            Rate rate;
+            Rate previous = rates.get(key);
+            if (stale && previous != null && previous.isKnown()) {
+                // The provider failed, so the rates we have are kept, and requested again once they expire
+                rate = now - previous.fetchedAt > ttlNanos
+                        ? new Rate(previous.fromUsd, previous.toUsd, previous.fetchedAt, true) : previous;
+            } else {
+                // If the currency was invalid the response doesn't have its pairs, we store it as unknown. Stale
+                // rates are stored as expired, so they are requested again on their next lookup
+                rate = new Rate(response.optDouble("USD_" + key, Double.NaN),
+                        response.optDouble(key + "_USD", Double.NaN), stale ? now - ttlNanos - 1 : now, stale);
+                rates.put(key, rate);
+            }
+            CompletableFuture<Rate> future = pending.remove(key);
+            if (future != null) {
+                future.complete(rate);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of upstream results kept on disk, so it outlives the process and is shared by every process using the same
+ * directory, e.g. one CLI invocation per IP.
+ * <p>
+ * The countries of IPs, the information of countries and currency rates are each stored in a {@link MappedTable}
+ * file. Values are stored in a compact binary encoding of their JSON, so reading them back is a few array reads
+ * instead of parsing text.
+ */
+final class DiskCache implements Closeable {
+
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INTEGER = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte ARRAY = 6;
+    private static final byte OBJECT = 7;
+
+    private final MappedTable ipCountries;
+    private final MappedTable countries;
+    private final MappedTable rates;
+    private final long ipCountryTtlMillis;
+    private final long countryTtlMillis;
+    private final long rateTtlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private DiskCache(MappedTable ipCountries, MappedTable countries, MappedTable rates, long ipCountryTtlMillis,
+                      long countryTtlMillis, long rateTtlMillis) {
+        this.ipCountries = ipCountries;
+        this.countries = countries;
+        this.rates = rates;
+        this.ipCountryTtlMillis = ipCountryTtlMillis;
+        this.countryTtlMillis = countryTtlMillis;
+        this.rateTtlMillis = rateTtlMillis;
+    }
+
+    /**
+     * Opens the cache files in a directory, creating them if they don't exist
+     *
+     * @param directory {@link Path} of the directory, created if it doesn't exist
+     * @param ipSlots {@code int} number of IPs kept
+     * @param ipCountryTtlMillis {@code long} milliseconds the country of an IP is kept
+     * @param countryTtlMillis {@code long} milliseconds the information of a country is kept
+     * @param rateTtlMillis {@code long} milliseconds a currency rate is kept
+     * @return {@link DiskCache} opened
+     * @throws IOException in case the directory or the files can't be created or mapped
+     */
+    static DiskCache open(Path directory, int ipSlots, long ipCountryTtlMillis, long countryTtlMillis,
+                          long rateTtlMillis) throws IOException {
+        Files.createDirectories(directory);
+        MappedTable ipCountries = MappedTable.open(directory.resolve("ip-countries.cache"), ipSlots, 128);
+        try {
+            // Both codes of each country, with room to spare, and up to 4KB per country
+            MappedTable countries = MappedTable.open(directory.resolve("countries.cache"), 1024, 4096);
+            try {
+                MappedTable rates = MappedTable.open(directory.resolve("rates.cache"), 1024, 32);
+                return new DiskCache(ipCountries, countries, rates, ipCountryTtlMillis, countryTtlMillis, rateTtlMillis);
+            } catch (IOException | RuntimeException e) {
+                countries.close();
+                throw e;
+            }
+        } catch (IOException | RuntimeException e) {
+            ipCountries.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param ip {@code String} containing the IP address
+     * @return {@link JSONObject} with the country of the IP, as returned by the provider, or {@code null} if it isn't
+     * cached
+     */
+    JSONObject getIpCountry(String ip) {
+        return getJson(ipCountries, ip, false);
+    }
+
+    /**
+     * Same as {@link #getIpCountry(String)}, but also returns it if it expired, to fall back to when the country
+     * can't be requested. It isn't counted as a hit or miss.
+     *
+     * @param ip {@code String} containing the IP address
+     * @return {@link JSONObject} with the country of the IP, or {@code null} if it was never cached
+     */
+    JSONObject getExpiredIpCountry(String ip) {
+        return getJson(ipCountries, ip, true);
+    }
+
+    /**
+     * @param ip {@code String} containing the IP address
+     * @param ipCountry {@link JSONObject} with the country of the IP, as returned by the provider
+     */
+    void putIpCountry(String ip, JSONObject ipCountry) {
+        putJson(ipCountries, ip, ipCountry, ipCountryTtlMillis);
+    }
+
+    /**
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @return {@link JSONObject} with the information of the country, or {@code null} if it isn't cached
+     */
+    JSONObject getCountry(String countryCode) {
+        return getJson(countries, countryCode.toUpperCase(Locale.ROOT), false);
+    }
+
+    /**
+     * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
+     * @param country {@link JSONObject} with the information of the country
+     */
+    void putCountry(String countryCode, JSONObject country) {
+        putJson(countries, countryCode.toUpperCase(Locale.ROOT), country, countryTtlMillis);
+    }
+
+    /**
+     * @param pair {@code String} containing a currency pair, e.g. {@code "USD_ARS"}
+     * @return {@code double} rate of the pair, or {@code NaN} if it isn't cached
+     */
+    double getRate(String pair) {
+        byte[] value = rates.get(pair);
+        count(value != null);
+        return value == null ? Double.NaN : ByteBuffer.wrap(value).getDouble();
+    }
+
+    /**
+     * Same as {@link #getRate(String)}, but also returns it if it expired, to fall back to when the rates can't be
+     * requested. It isn't counted as a hit or miss.
+     *
+     * @param pair {@code String} containing a currency pair, e.g. {@code "USD_ARS"}
+     * @return {@code double} rate of the pair, or {@code NaN} if it was never cached
+     */
+    double getExpiredRate(String pair) {
+        byte[] value = rates.get(pair, true);
+        return value == null ? Double.NaN : ByteBuffer.wrap(value).getDouble();
+    }
+
+    /**
+     * @param pair {@code String} containing a currency pair, e.g. {@code "USD_ARS"}
+     * @param rate {@code double} rate of the pair
+     */
+    void putRate(String pair, double rate) {
+        try {
+            rates.put(pair, ByteBuffer.allocate(8).putDouble(rate).array(), rateTtlMillis);
+        } catch (IOException e) {
+            System.err.println("Couldn't write to the disk cache. " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return {@code long} number of lookups answered from the disk
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return {@code long} number of lookups not found on the disk, or expired
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            ipCountries.close();
+            countries.close();
+        } finally {
+            rates.close();
+        }
+    }
+
+    private JSONObject getJson(MappedTable table, String key, boolean expired) {
+        byte[] value = table.get(key, expired);
+        if (!expired) {
+            count(value != null);
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            return (JSONObject) decode(new DataInputStream(new ByteArrayInputStream(value)));
+        } catch (IOException | ClassCastException e) {
+            // Written by an incompatible version, treated as missing
+            return null;
+        }
+    }
+
+    private void putJson(MappedTable table, String key, JSONObject value, long ttlMillis) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            encode(value, new DataOutputStream(bytes));
+            table.put(key, bytes.toByteArray(), ttlMillis);
+        } catch (IOException e) {
+            System.err.println("Couldn't write to the disk cache. " + e.getMessage());
+        }
+    }
+
+    private void count(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    /**
+     * Writes a JSON value as a type byte followed by its contents
+     */
+    private static void encode(Object value, DataOutputStream out) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Long) {
+            out.writeByte(INTEGER);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            out.writeByte(ARRAY);
+            out.writeShort(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                encode(array.get(i), out);
+            }
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            out.writeByte(OBJECT);
+            out.writeShort(object.length());
+            for (String key : object.keySet()) {
+                out.writeUTF(key);
+                encode(object.get(key), out);
+            }
+        } else {
+            out.writeByte(STRING);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static Object decode(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return JSONObject.NULL;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INTEGER:
+                long value = in.readLong();
+                // Same types JSONObject parses numbers into
+                return value == (int) value ? (Object) (int) value : (Object) value;
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return in.readUTF();
+            case ARRAY:
+                int length = in.readUnsignedShort();
+                JSONArray array = new JSONArray();
+                for (int i = 0; i < length; i++) {
+                    array.put(decode(in));
+                }
+                return array;
+            case OBJECT:
+                int fields = in.readUnsignedShort();
+                JSONObject object = new JSONObject();
+                for (int i = 0; i < fields; i++) {
+                    String key = in.readUTF();
+                    object.put(key, decode(in));
+                }
+                return object;
+            default:
+                throw new IOException("Invalid value type " + type);
+        }
+    }
+}
@@ -1,35 +1,121 @@
-package com.jereaa;/*::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::
-::                                                                         :
-::  This routine calculates the distance between two points (given the     :
-::  latitude/longitude of those points). It is being used to calculate     :
-::  the distance between two locations using GeoDataSource (TM) prodducts  :
-::                                                                         :
-::  Definitions:                                                           :
-::    South latitudes are negative, east longitudes are positive           :
-::                                                                         :
-::  Passed to function:                                                    :
-::    lat1, lon1 = Latitude and Longitude of point 1 (in decimal degrees)  :
-::    lat2, lon2 = Latitude and Longitude of point 2 (in decimal degrees)  :
-::    unit = the unit you desire for results                               :
-::           where: 'M' is statute miles (default)                         :
-::                  'K' is kilometers                                      :
-::                  'N' is nautical miles                                  :
-::  Worldwide cities and other features databases with latitude longitude  :
-::  are available at https://www.geodatasource.com                         :
-::                                                                         :
-::  For enquiries, please contact sales@geodatasource.com                  :
-::                                                                         :
-::  Official Web site: https://www.geodatasource.com                       :
-::                                                                         :
-::           GeoDataSource.com (C) All Rights Reserved 2018                :
-::                                                                         :
-::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::::*/
+package com.jereaa;
 
+/**
+ * Calculates distances over the surface of the Earth, from a fixed origin to other points.
+ * <p>
+ * It uses the haversine formula, which stays accurate for points very close to each other, where the spherical law
+ * of cosines loses precision. Everything that only depends on the origin is computed once, when the calculator is
+ * created, so each distance costs a few trigonometric calls and no allocation.
+ */
 public class DistanceCalculator {
 
+    /**
+     * Statute miles per degree of a great circle, the value distances have always been calculated with
+     */
+    private static final double MILES_PER_DEGREE = 60 * 1.1515;
+
+    /**
+     * Units in which distances can be expressed
+     */
+    public enum Unit {
+        KILOMETERS(1.609344),
+        MILES(1),
+        NAUTICAL_MILES(0.8684);
+
+        private final double earthRadius;
+
+        Unit(double milesToUnit) {
+            this.earthRadius = Math.toDegrees(MILES_PER_DEGREE) * milesToUnit;
+        }
+
+        /**
+         * @return {@code double} radius of the Earth expressed in this unit
+         */
+        public double getEarthRadius() {
+            return earthRadius;
+        }
+
+        /**
+         * @param code {@code String} containing the letter representing the unit (K: Kilometers, M: Miles,
+         *             N: Nautical Miles)
+         * @return {@link Unit} represented by the letter, {@link #MILES} if it isn't a known letter
+         */
+        public static Unit fromCode(String code) {
+            if ("K".equals(code)) {
+                return KILOMETERS;
+            } else if ("N".equals(code)) {
+                return NAUTICAL_MILES;
+            }
+            return MILES;
+        }
+    }
+
+    private final double originLat;
+    private final double originLng;
+    private final double cosOriginLat;
+    private final double earthRadius;
+
+    /**
+     * @param originLat {@code double} number representing latitude value of the origin, in degrees
+     * @param originLng {@code double} number representing longitude value of the origin, in degrees
+     * @param unit {@link Unit} in which distances are expressed
+     */
+    public DistanceCalculator(double originLat, double originLng, Unit unit) {
+        this.originLat = Math.toRadians(originLat);
+        this.originLng = Math.toRadians(originLng);
+        this.cosOriginLat = Math.cos(this.originLat);
+        this.earthRadius = unit.getEarthRadius();
+    }
+
+    /**
+     * Calculates the distance from the origin to a point
+     *
+     * @param lat {@code double} number representing latitude value of the point, in degrees
+     * @param lng {@code double} number representing longitude value of the point, in degrees
+     * @return {@code double} number representing the distance between the origin and the point
+     */
+    public double distanceTo(double lat, double lng) {
+        return haversine(originLat, cosOriginLat, originLng, Math.toRadians(lat), Math.toRadians(lng)) * earthRadius;
+    }
+
+    /**
+     * Calculates the distances from the origin to many points at once. The points are held in two arrays, one with
+     * the latitudes and one with the longitudes, and the distance to each point is written at the same index of the
+     * output array.
+     *
+     * @param lats {@code double[]} latitudes of the points, in degrees
+     * @param lngs {@code double[]} longitudes of the points, in degrees
+     * @param distances {@code double[]} array to which distances are written. It may be one of the input arrays
+     * @throws IllegalArgumentException in case the arrays don't have the same length
+     */
+    public void distancesTo(double[] lats, double[] lngs, double[] distances) {
+        if (lats.length != lngs.length || lats.length != distances.length) {
+            throw new IllegalArgumentException(String.format("Arrays of different lengths: %d latitudes, %d longitudes and %d distances",
+                    lats.length, lngs.length, distances.length));
+        }
+        for (int i = 0; i < lats.length; i++) {
+            distances[i] = haversine(originLat, cosOriginLat, originLng, Math.toRadians(lats[i]), Math.toRadians(lngs[i])) * earthRadius;
+        }
+    }
+
+    /**
+     * Calculates the distance between 2 points in the map, using latitude and longitude.
+     *
+     * @param lat1 {@code double} number representing latitude value of point 1
+     * @param lon1 {@code double} number representing longitude value of point 1
+     * @param lat2 {@code double} number representing latitude value of point 2
+     * @param lon2 {@code double} number representing longitude value of point 2
+     * @param unit {@link Unit} in which the distance is expressed
+     * @return {@code double} number representing the distance between the 2 points
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2, Unit unit) {
+        double lat1Rad = Math.toRadians(lat1);
+        return haversine(lat1Rad, Math.cos(lat1Rad), Math.toRadians(lon1), Math.toRadians(lat2), Math.toRadians(lon2))
+                * unit.getEarthRadius();
+    }
+
     /**
      * Calculates the distance between 2 points in the map, using latitude and longitude.
-     * Code from https://www.geodatasource.com/developers/java
      *
      * @param lat1 {@code double} number representing latitude value of point 1
      * @param lon1 {@code double} number representing longitude value of point 1
@@ -39,21 +125,16 @@ public class DistanceCalculator {
      * @return {@code double} number representing the distance between the 2 points
      */
     public static double distance(double lat1, double lon1, double lat2, double lon2, String unit) {
-        if ((lat1 == lat2) && (lon1 == lon2)) {
-            return 0;
-        }
-        else {
-            double theta = lon1 - lon2;
-            double dist = Math.sin(Math.toRadians(lat1)) * Math.sin(Math.toRadians(lat2)) + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.cos(Math.toRadians(theta));
-            dist = Math.acos(dist);
-            dist = Math.toDegrees(dist);
-            dist = dist * 60 * 1.1515;
-            if (unit == "K") {
-                dist = dist * 1.609344;
-            } else if (unit == "N") {
-                dist = dist * 0.8684;
-            }
-            return (dist);
-        }
+        return distance(lat1, lon1, lat2, lon2, Unit.fromCode(unit));
+    }
+
+    /**
+     * @return {@code double} central angle between the 2 points, in radians. Coordinates are in radians
+     */
+    private static double haversine(double lat1, double cosLat1, double lng1, double lat2, double lng2) {
+        double sinDLat = Math.sin((lat2 - lat1) / 2);
+        double sinDLng = Math.sin((lng2 - lng1) / 2);
+        double a = sinDLat * sinDLat + cosLat1 * Math.cos(lat2) * sinDLng * sinDLng;
+        return 2 * Math.asin(Math.sqrt(Math.min(1, a)));
     }
-}
\ No newline at end of file
+}
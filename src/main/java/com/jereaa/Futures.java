@@ -0,0 +1,125 @@
+package com.jereaa;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Helpers to work with {@link CompletableFuture}s of upstream requests
+ */
+final class Futures {
+
+    private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "ippi-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Most timeouts are cancelled because the request finished, don't keep them queued
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private Futures() {
+    }
+
+    /**
+     * Creates a future that fails with a {@link TimeoutException} if the given one doesn't complete in time.
+     * The given future is left untouched, so it may be shared with other callers.
+     *
+     * @param future {@link CompletableFuture} to wait for
+     * @param millis {@code long} maximum milliseconds to wait, or {@code 0} to wait forever
+     * @param what {@code String} describing what we wait for, used in the timeout message
+     * @return {@link CompletableFuture} completed like the given one, or with a {@link TimeoutException}
+     */
+    static <T> CompletableFuture<T> withTimeout(CompletableFuture<T> future, long millis, String what) {
+        if (millis <= 0 || future.isDone()) {
+            return future;
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = TIMER.schedule(
+                () -> result.completeExceptionally(new TimeoutException("Timed out waiting for " + what)),
+                millis, TimeUnit.MILLISECONDS);
+
+        future.whenComplete((value, e) -> {
+            timeout.cancel(false);
+            if (e != null) {
+                result.completeExceptionally(unwrap(e));
+            } else {
+                result.complete(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Schedules a task on the shared timer thread. The task must be short and must not block.
+     *
+     * @param task {@link Runnable} to run
+     * @param millis {@code long} delay in milliseconds
+     * @return {@link ScheduledFuture} that can be used to cancel the task
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long millis) {
+        return TIMER.schedule(task, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a future, rethrowing the exception it failed with
+     *
+     * @param future {@link CompletableFuture} to wait for
+     * @return value of the future
+     * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
+     * @throws IOException in case a bad request was made or we timed out waiting
+     */
+    static <T> T await(CompletableFuture<T> future) throws UnirestException, IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the request to finish.");
+        }
+    }
+
+    /**
+     * Removes the wrappers {@link CompletableFuture} adds around the exception a stage failed with
+     *
+     * @param e {@link Throwable} a future failed with
+     * @return {@link Throwable} that caused the failure
+     */
+    static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static IOException rethrow(Throwable e) throws UnirestException {
+        e = unwrap(e);
+        if (e instanceof UnirestException) {
+            throw (UnirestException) e;
+        }
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        if (e instanceof TimeoutException) {
+            return new IOException(e.getMessage(), e);
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IOException(e);
+    }
+}
@@ -0,0 +1,54 @@
+package com.jereaa;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Makes the HTTP requests to the upstream providers. Implementations decide how connections are pooled and reused,
+ * and how long to wait for each provider.
+ */
+public interface HttpTransport extends Closeable {
+
+    /**
+     * Response of a request
+     */
+    final class Response {
+        private final int status;
+        private final InputStream body;
+
+        /**
+         * @param status {@code int} status code of the response
+         * @param body {@link InputStream} with the body of the response, already decompressed
+         */
+        public Response(int status, InputStream body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        /**
+         * @return {@code int} status code of the response
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return {@link InputStream} with the body of the response, already decompressed
+         */
+        public InputStream getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Makes a GET request without blocking
+     *
+     * @param upstream {@link Upstream} the URL belongs to
+     * @param url {@code String} containing the URL we will be requesting
+     * @return {@link CompletableFuture} completed with the {@link Response}, whatever its status code is. It fails
+     * with an {@link java.io.IOException} in case no response was received (connection timeouts, read timeouts, no
+     * internet access, etc.)
+     */
+    CompletableFuture<Response> get(Upstream upstream, String url);
+}
@@ -0,0 +1,230 @@
+package com.jereaa;
+
+/**
+ * Parses IPv4 and IPv6 string literals without allocating anything, into primitive values the caches and the IP
+ * database use directly.
+ * <p>
+ * An address is kept as its 128 bits, in two {@code long}s. IPv4 addresses are stored as IPv4-mapped IPv6 addresses
+ * ({@code ::ffff:a.b.c.d}), so an IPv4-mapped IPv6 literal is the same address as its IPv4 one, like
+ * {@link java.net.InetAddress} does. The literals accepted are the same as Guava's
+ * {@code InetAddresses.forString}: dotted quads of decimal octets without leading zeros, and IPv6 addresses with at
+ * most one {@code ::} and optionally an IPv4 address as their last 32 bits. Unlike it, hextets of more than 4 digits
+ * and non-ASCII digits are rejected, as RFC 4291 requires.
+ */
+final class IpAddresses {
+
+    private static final long MAPPED_PREFIX = 0xFFFFL << 32;
+
+    private IpAddresses() {
+    }
+
+    /**
+     * @param ip {@link CharSequence} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or
+     *           {@code "2001:db8::1"}
+     * @return {@code true} if it is a valid IP address
+     */
+    static boolean isValid(CharSequence ip) {
+        return parse(ip, null);
+    }
+
+    /**
+     * Parses an IP address
+     *
+     * @param ip {@link CharSequence} containing an IPv4 or IPv6 string literal
+     * @param address {@code long[]} of length 2 in which the upper and lower 64 bits of the address are stored, or
+     *                {@code null} to only validate the literal. It is left untouched if the literal is invalid
+     * @return {@code true} if it is a valid IP address
+     */
+    static boolean parse(CharSequence ip, long[] address) {
+        int length = ip.length();
+        for (int i = 0; i < length; i++) {
+            if (ip.charAt(i) == ':') {
+                return parseV6(ip, length, address);
+            }
+        }
+        long v4 = parseV4(ip, 0, length);
+        if (v4 < 0) {
+            return false;
+        }
+        if (address != null) {
+            address[0] = 0;
+            address[1] = MAPPED_PREFIX | v4;
+        }
+        return true;
+    }
+
+    /**
+     * Parses an IPv4 dotted quad, e.g. to look up IPv4 addresses without a {@code long[]}
+     *
+     * @param ip {@link CharSequence} containing an IPv4 string literal
+     * @return {@code long} with the 32 bits of the address, or {@code -1} if it isn't a valid IPv4 literal
+     */
+    static long parseV4(CharSequence ip) {
+        return parseV4(ip, 0, ip.length());
+    }
+
+    /**
+     * @param address {@code long[]} with an address parsed by {@link #parse(CharSequence, long[])}
+     * @return {@code true} if it is an IPv4 address, whose 32 bits are the lower ones of {@code address[1]}
+     */
+    static boolean isV4(long[] address) {
+        return isV4(address[0], address[1]);
+    }
+
+    /**
+     * @param hi {@code long} with the upper 64 bits of an address
+     * @param lo {@code long} with the lower 64 bits of an address
+     * @return {@code true} if it is an IPv4 address, whose 32 bits are the lower ones of {@code lo}
+     */
+    static boolean isV4(long hi, long lo) {
+        return hi == 0 && (lo & 0xFFFFFFFF00000000L) == MAPPED_PREFIX;
+    }
+
+    /**
+     * @return {@code long} with the 32 bits of the dotted quad between {@code from} and {@code to}, or {@code -1} if
+     * it isn't one
+     */
+    private static long parseV4(CharSequence ip, int from, int to) {
+        long address = 0;
+        int i = from;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (i >= to || ip.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+            int start = i;
+            int octet = 0;
+            for (; i < to && i - start < 4; i++) {
+                char c = ip.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            int digits = i - start;
+            // Leading zeros are rejected, since there is no standard on whether they mean octal
+            if (digits == 0 || digits > 3 || octet > 255 || (digits > 1 && ip.charAt(start) == '0')) {
+                return -1;
+            }
+            address = address << 8 | octet;
+        }
+        return i == to ? address : -1;
+    }
+
+    private static boolean parseV6(CharSequence ip, int length, long[] address) {
+        // Hextets before and after the "::", each shifted in as they are read
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int hextets = 0;
+        int skipAt = -1;
+
+        int i = 0;
+        if (length >= 2 && ip.charAt(0) == ':' && ip.charAt(1) == ':') {
+            skipAt = 0;
+            i = 2;
+        } else if (length > 0 && ip.charAt(0) == ':') {
+            // A leading ':' must be part of "::"
+            return false;
+        }
+
+        while (i < length) {
+            int start = i;
+            int hextet = 0;
+            for (; i < length && i - start < 5; i++) {
+                int digit = hexDigit(ip.charAt(i));
+                if (digit < 0) {
+                    break;
+                }
+                hextet = hextet << 4 | digit;
+            }
+
+            if (i < length && ip.charAt(i) == '.') {
+                // An IPv4 address can only be the last 32 bits
+                long v4 = parseV4(ip, start, length);
+                if (v4 < 0 || hextets > 6) {
+                    return false;
+                }
+                if (skipAt < 0) {
+                    headHi = headHi << 32 | headLo >>> 32;
+                    headLo = headLo << 32 | v4;
+                } else {
+                    tailHi = tailHi << 32 | tailLo >>> 32;
+                    tailLo = tailLo << 32 | v4;
+                }
+                hextets += 2;
+                i = length;
+                break;
+            }
+
+            int digits = i - start;
+            if (digits == 0 || digits > 4 || ++hextets > 8) {
+                return false;
+            }
+            if (skipAt < 0) {
+                headHi = headHi << 16 | headLo >>> 48;
+                headLo = headLo << 16 | hextet;
+            } else {
+                tailHi = tailHi << 16 | tailLo >>> 48;
+                tailLo = tailLo << 16 | hextet;
+            }
+
+            if (i == length) {
+                break;
+            }
+            if (ip.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < length && ip.charAt(i) == ':') {
+                if (skipAt >= 0) {
+                    return false;
+                }
+                skipAt = hextets;
+                i++;
+            } else if (i == length) {
+                // A trailing ':' must be part of "::"
+                return false;
+            }
+        }
+
+        // "::" stands for at least one hextet of zeros
+        if (skipAt < 0 ? hextets != 8 : hextets > 7) {
+            return false;
+        }
+        if (address != null) {
+            long hi = headHi;
+            long lo = headLo;
+            if (skipAt >= 0) {
+                // Move the hextets before the "::" to the top, the ones after it are already at the bottom
+                int shift = 16 * (8 - skipAt);
+                if (shift >= 64) {
+                    hi = shift == 128 ? 0 : headLo << (shift - 64);
+                    lo = 0;
+                } else {
+                    hi = headHi << shift | headLo >>> (64 - shift);
+                    lo = headLo << shift;
+                }
+            }
+            address[0] = hi | tailHi;
+            address[1] = lo | tailLo;
+        }
+        return true;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,500 @@
+package com.jereaa;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+
+/**
+ * Offline IP to country index built from a CSV range database.
+ * <p>
+ * Each line of the database holds {@code start,end,countryCode[,countryName]}, where {@code start} and {@code end}
+ * are either IP literals or their decimal numeric value. Empty lines, lines starting with {@code #} and a header
+ * line are ignored. Fields may be double quoted, so they can hold commas, with {@code ""} standing for a quote inside
+ * them. Country codes are stored as ISO 3166-1 alpha-3 codes, like the remote provider returns them, so 2-letter
+ * codes are turned into their 3-letter equivalent.
+ * <p>
+ * Ranges are kept in sorted primitive arrays (IPv4 as {@code int}, IPv6 as pairs of {@code long}) and looked up with
+ * a binary search, so the index holds no object per range. Addresses are stored with their sign bit flipped, which
+ * lets us compare unsigned addresses with plain signed comparisons.
+ */
+public final class IpRangeIndex {
+
+    private static final BigInteger MAX_IPV4 = BigInteger.valueOf(0xFFFFFFFFL);
+    private static final BigInteger LONG_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final int[] v4Start;
+    private final int[] v4End;
+    private final short[] v4Country;
+
+    private final long[] v6StartHi;
+    private final long[] v6StartLo;
+    private final long[] v6EndHi;
+    private final long[] v6EndLo;
+    private final short[] v6Country;
+
+    private final String[] countryCodes;
+    private final String[] countryNames;
+
+    private IpRangeIndex(Builder builder) {
+        int[] v4Order = builder.v4Order();
+        v4Start = new int[builder.v4Size];
+        v4End = new int[builder.v4Size];
+        v4Country = new short[builder.v4Size];
+        for (int i = 0; i < v4Order.length; i++) {
+            int j = v4Order[i];
+            v4Start[i] = builder.v4Start[j];
+            v4End[i] = builder.v4End[j];
+            v4Country[i] = builder.v4Country[j];
+        }
+
+        int[] v6Order = builder.v6Order();
+        v6StartHi = new long[builder.v6Size];
+        v6StartLo = new long[builder.v6Size];
+        v6EndHi = new long[builder.v6Size];
+        v6EndLo = new long[builder.v6Size];
+        v6Country = new short[builder.v6Size];
+        for (int i = 0; i < v6Order.length; i++) {
+            int j = v6Order[i];
+            v6StartHi[i] = builder.v6StartHi[j];
+            v6StartLo[i] = builder.v6StartLo[j];
+            v6EndHi[i] = builder.v6EndHi[j];
+            v6EndLo[i] = builder.v6EndLo[j];
+            v6Country[i] = builder.v6Country[j];
+        }
+
+        countryCodes = builder.countryCodes.toArray(new String[0]);
+        countryNames = builder.countryNames.toArray(new String[0]);
+    }
+
+    /**
+     * Loads an index from a CSV range database file
+     *
+     * @param file {@link Path} of the CSV file
+     * @return {@link IpRangeIndex} with all the ranges in the file
+     * @throws IOException in case the file can't be read or contains an invalid range
+     */
+    public static IpRangeIndex load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Loads an index from CSV range database contents
+     *
+     * @param reader {@link Reader} with the CSV contents
+     * @return {@link IpRangeIndex} with all the ranges read
+     * @throws IOException in case the contents can't be read or contain an invalid range
+     */
+    public static IpRangeIndex load(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        Builder builder = new Builder();
+        String[] fields = new String[4];
+        String line;
+        int lineNumber = 0;
+
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            int count = splitCsv(line, fields);
+            if (count < 3) {
+                throw new IOException("Invalid IP range at line " + lineNumber + ": " + line);
+            }
+
+            try {
+                builder.add(fields[0], fields[1], fields[2], count > 3 ? fields[3] : "");
+            } catch (IllegalArgumentException e) {
+                // The first line is allowed to be a header
+                if (lineNumber == 1) {
+                    continue;
+                }
+                throw new IOException("Invalid IP range at line " + lineNumber + ": " + line, e);
+            }
+        }
+        return new IpRangeIndex(builder);
+    }
+
+    /**
+     * Finds the country of an IP address
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @return country index to use with {@link #countryCode(int)} and {@link #countryName(int)}, or {@code -1} if the
+     * IP is invalid or not in any range
+     */
+    public int lookup(String ip) {
+        long v4 = IpAddresses.parseV4(ip);
+        if (v4 >= 0) {
+            return lookupV4((int) v4);
+        }
+
+        long[] address = new long[2];
+        if (!IpAddresses.parse(ip, address)) {
+            return -1;
+        }
+        if (IpAddresses.isV4(address)) {
+            return lookupV4((int) address[1]);
+        }
+        return lookupV6(address[0], address[1]);
+    }
+
+    /**
+     * Finds the country of an IPv4 address
+     *
+     * @param ip {@code int} value of the IPv4 address
+     * @return country index, or {@code -1} if the IP is not in any range
+     */
+    public int lookupV4(int ip) {
+        int key = ip ^ Integer.MIN_VALUE;
+        int i = Arrays.binarySearch(v4Start, key);
+        if (i < 0) {
+            // Take the range starting right before the IP
+            i = -i - 2;
+        }
+        if (i < 0 || key > v4End[i]) {
+            return -1;
+        }
+        return v4Country[i];
+    }
+
+    /**
+     * Finds the country of an IPv6 address
+     *
+     * @param hi {@code long} value of the upper 64 bits of the IPv6 address
+     * @param lo {@code long} value of the lower 64 bits of the IPv6 address
+     * @return country index, or {@code -1} if the IP is not in any range
+     */
+    public int lookupV6(long hi, long lo) {
+        long keyHi = hi ^ Long.MIN_VALUE;
+        long keyLo = lo ^ Long.MIN_VALUE;
+
+        // Find the last range whose start is lower than or equal to the IP
+        int low = 0;
+        int high = v6StartHi.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(v6StartHi[mid], v6StartLo[mid], keyHi, keyLo) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        if (found < 0 || compare(keyHi, keyLo, v6EndHi[found], v6EndLo[found]) > 0) {
+            return -1;
+        }
+        return v6Country[found];
+    }
+
+    /**
+     * @param country country index returned by one of the lookup methods
+     * @return {@code String} with the ISO 3166-1 alpha-3 country code of the range, e.g. {@code "ARG"}. Codes with no
+     * alpha-3 equivalent, e.g. {@code "EU"}, are returned upper cased as written in the database
+     */
+    public String countryCode(int country) {
+        return countryCodes[country];
+    }
+
+    /**
+     * @param country country index returned by one of the lookup methods
+     * @return {@code String} with the country name of the range, or its code if the database has no names
+     */
+    public String countryName(int country) {
+        return countryNames[country];
+    }
+
+    /**
+     * @return {@code int} number of ranges in the index
+     */
+    public int size() {
+        return v4Start.length + v6StartHi.length;
+    }
+
+    private static int compare(long hi1, long lo1, long hi2, long lo2) {
+        if (hi1 != hi2) {
+            return hi1 < hi2 ? -1 : 1;
+        }
+        return Long.compare(lo1, lo2);
+    }
+
+    /**
+     * Splits a CSV line into the given array. Quoted fields may contain commas and quotes written as {@code ""}, and
+     * their surrounding quotes are removed.
+     *
+     * @return {@code int} number of fields found (only the first {@code fields.length} are stored), or {@code -1} if
+     * a quoted field isn't closed or is followed by anything but a comma
+     */
+    private static int splitCsv(String line, String[] fields) {
+        StringBuilder field = new StringBuilder();
+        int count = 0;
+        int i = 0;
+        int length = line.length();
+        while (true) {
+            field.setLength(0);
+            while (i < length && line.charAt(i) == ' ') {
+                i++;
+            }
+            if (i < length && line.charAt(i) == '"') {
+                for (i++; ; i++) {
+                    if (i >= length) {
+                        return -1;
+                    }
+                    char c = line.charAt(i);
+                    if (c == '"') {
+                        if (i + 1 < length && line.charAt(i + 1) == '"') {
+                            i++;
+                        } else {
+                            break;
+                        }
+                    }
+                    field.append(c);
+                }
+                i++;
+                while (i < length && line.charAt(i) == ' ') {
+                    i++;
+                }
+                if (i < length && line.charAt(i) != ',') {
+                    return -1;
+                }
+            } else {
+                int end = line.indexOf(',', i);
+                if (end < 0) {
+                    end = length;
+                }
+                field.append(line, i, end);
+                i = end;
+            }
+
+            if (count < fields.length) {
+                fields[count] = field.toString().trim();
+            }
+            count++;
+            if (i >= length) {
+                return count;
+            }
+            // Skip the comma
+            i++;
+        }
+    }
+
+    /**
+     * Accumulates ranges in growable primitive arrays while the database is being read
+     */
+    private static final class Builder {
+
+        private int[] v4Start = new int[1024];
+        private int[] v4End = new int[1024];
+        private short[] v4Country = new short[1024];
+        private int v4Size;
+
+        private long[] v6StartHi = new long[256];
+        private long[] v6StartLo = new long[256];
+        private long[] v6EndHi = new long[256];
+        private long[] v6EndLo = new long[256];
+        private short[] v6Country = new short[256];
+        private int v6Size;
+
+        private final Map<String, Integer> countries = new HashMap<>();
+        private final List<String> countryCodes = new ArrayList<>();
+        private final List<String> countryNames = new ArrayList<>();
+
+        // Scratch values for the address being parsed
+        private final long[] parsed = new long[2];
+        private boolean parsedV4;
+        private long parsedHi;
+        private long parsedLo;
+
+        void add(String start, String end, String countryCode, String countryName) {
+            if (countryCode.isEmpty()) {
+                throw new IllegalArgumentException("Missing country code");
+            }
+
+            parse(start);
+            boolean startV4 = parsedV4;
+            long startHi = parsedHi;
+            long startLo = parsedLo;
+            parse(end);
+            if (startV4 != parsedV4) {
+                throw new IllegalArgumentException("Range mixes IPv4 and IPv6 addresses");
+            }
+            // Lookups need ranges that don't end before they start
+            if (compare(startHi ^ Long.MIN_VALUE, startLo ^ Long.MIN_VALUE,
+                    parsedHi ^ Long.MIN_VALUE, parsedLo ^ Long.MIN_VALUE) > 0) {
+                throw new IllegalArgumentException(String.format("The range starts after its end: %s > %s", start, end));
+            }
+
+            short country = country(countryCode, countryName);
+            if (startV4) {
+                if (v4Size == v4Start.length) {
+                    int capacity = v4Size * 2;
+                    v4Start = Arrays.copyOf(v4Start, capacity);
+                    v4End = Arrays.copyOf(v4End, capacity);
+                    v4Country = Arrays.copyOf(v4Country, capacity);
+                }
+                v4Start[v4Size] = (int) startLo ^ Integer.MIN_VALUE;
+                v4End[v4Size] = (int) parsedLo ^ Integer.MIN_VALUE;
+                v4Country[v4Size] = country;
+                v4Size++;
+            } else {
+                if (v6Size == v6StartHi.length) {
+                    int capacity = v6Size * 2;
+                    v6StartHi = Arrays.copyOf(v6StartHi, capacity);
+                    v6StartLo = Arrays.copyOf(v6StartLo, capacity);
+                    v6EndHi = Arrays.copyOf(v6EndHi, capacity);
+                    v6EndLo = Arrays.copyOf(v6EndLo, capacity);
+                    v6Country = Arrays.copyOf(v6Country, capacity);
+                }
+                v6StartHi[v6Size] = startHi ^ Long.MIN_VALUE;
+                v6StartLo[v6Size] = startLo ^ Long.MIN_VALUE;
+                v6EndHi[v6Size] = parsedHi ^ Long.MIN_VALUE;
+                v6EndLo[v6Size] = parsedLo ^ Long.MIN_VALUE;
+                v6Country[v6Size] = country;
+                v6Size++;
+            }
+        }
+
+        private short country(String code, String name) {
+            Integer index = countries.get(code);
+            if (index == null) {
+                if (countryCodes.size() > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many countries in IP database");
+                }
+                String alpha3 = alpha3(code);
+                index = countryCodes.size();
+                countries.put(code, index);
+                countryCodes.add(alpha3);
+                countryNames.add(name.isEmpty() ? alpha3 : name);
+            }
+            return index.shortValue();
+        }
+
+        /**
+         * @return {@code String} with the ISO 3166-1 alpha-3 code of a 2 or 3-letter country code, or the code upper
+         * cased if it has none
+         */
+        private static String alpha3(String code) {
+            String upper = code.toUpperCase(Locale.ROOT);
+            if (upper.length() != 2) {
+                return upper;
+            }
+            try {
+                String alpha3 = new Locale("", upper).getISO3Country();
+                return alpha3.isEmpty() ? upper : alpha3;
+            } catch (MissingResourceException e) {
+                return upper;
+            }
+        }
+
+        /**
+         * Parses an IP literal or its decimal value into the scratch values
+         */
+        private void parse(String value) {
+            if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                BigInteger number = new BigInteger(value);
+                if (number.bitLength() > 128) {
+                    throw new IllegalArgumentException("Address out of range: " + value);
+                }
+                parsedV4 = number.compareTo(MAX_IPV4) <= 0;
+                parsedHi = number.shiftRight(64).longValue();
+                parsedLo = number.and(LONG_MASK).longValue();
+            } else {
+                if (!IpAddresses.parse(value, parsed)) {
+                    throw new IllegalArgumentException(String.format("'%s' is not an IP string literal.", value));
+                }
+                // IPv4 addresses are parsed as IPv4-mapped ones, which are turned back into IPv4 below
+                parsedHi = parsed[0];
+                parsedLo = parsed[1];
+                parsedV4 = false;
+            }
+
+            // IPv4-mapped IPv6 addresses (::ffff:0:0/96) are looked up as IPv4
+            if (!parsedV4 && parsedHi == 0 && (parsedLo >>> 32) == 0xFFFFL) {
+                parsedV4 = true;
+                parsedLo &= 0xFFFFFFFFL;
+            }
+        }
+
+        /**
+         * @return {@code int[]} with the order in which the IPv4 ranges must be stored so they are sorted by start
+         */
+        int[] v4Order() {
+            int[] order = identity(v4Size);
+            boolean sorted = true;
+            for (int i = 1; i < v4Size && sorted; i++) {
+                sorted = v4Start[i - 1] <= v4Start[i];
+            }
+            if (!sorted) {
+                // Pack start and position in a single long so we can sort them with Arrays.sort
+                long[] keys = new long[v4Size];
+                for (int i = 0; i < v4Size; i++) {
+                    keys[i] = (long) v4Start[i] << 32 | i;
+                }
+                Arrays.sort(keys);
+                for (int i = 0; i < v4Size; i++) {
+                    order[i] = (int) keys[i];
+                }
+            }
+            return order;
+        }
+
+        /**
+         * @return {@code int[]} with the order in which the IPv6 ranges must be stored so they are sorted by start
+         */
+        int[] v6Order() {
+            int[] order = identity(v6Size);
+            boolean sorted = true;
+            for (int i = 1; i < v6Size && sorted; i++) {
+                sorted = compare(v6StartHi[i - 1], v6StartLo[i - 1], v6StartHi[i], v6StartLo[i]) <= 0;
+            }
+            if (!sorted) {
+                mergeSort(order, new int[v6Size], 0, v6Size);
+            }
+            return order;
+        }
+
+        private void mergeSort(int[] order, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(order, scratch, from, mid);
+            mergeSort(order, scratch, mid, to);
+
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right >= to || (left < mid && compare(v6StartHi[order[left]], v6StartLo[order[left]],
+                        v6StartHi[order[right]], v6StartLo[order[right]]) <= 0)) {
+                    scratch[i] = order[left++];
+                } else {
+                    scratch[i] = order[right++];
+                }
+            }
+            System.arraycopy(scratch, from, order, from, to - from);
+        }
+
+        private static int[] identity(int size) {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything a lookup found out about an IP address: its country, the country's languages and local times, the
+ * distance to it and the rates of its currency.
+ * <p>
+ * Reports are immutable, so a single report can be shared by every lookup of the same IP. Each stage of a lookup
+ * creates a new report with the information it adds. Reports are written straight to any {@link Appendable}, either
+ * as JSON or as the text shown in the console, without going through an intermediate {@link JSONObject}.
+ * <p>
+ * A report built from information kept from earlier lookups, because a provider couldn't be reached, is marked as
+ * stale.
+ */
+public final class IpReport {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /**
+     * A language spoken in a country
+     */
+    public static final class Language {
+        private final String name;
+        private final String code;
+
+        /**
+         * @param name {@code String} containing the language's name
+         * @param code {@code String} containing the language's ISO 639-1 code
+         */
+        public Language(String name, String code) {
+            this.name = name;
+            this.code = code;
+        }
+
+        /**
+         * @return {@code String} containing the language's name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return {@code String} containing the language's ISO 639-1 code
+         */
+        public String getCode() {
+            return code;
+        }
+    }
+
+    private final String ip;
+    private final String countryCode;
+    private final String countryName;
+    private final CountryFragment country;
+    private final List<String> times;
+    private final double fromUsd;
+    private final double toUsd;
+    private final boolean stale;
+
+    /**
+     * Creates a report with only the country of the IP
+     *
+     * @param ip {@code String} containing the IP address
+     * @param countryCode {@code String} containing the country's 3 lettered code
+     * @param countryName {@code String} containing the country's name
+     */
+    IpReport(String ip, String countryCode, String countryName) {
+        this(ip, countryCode, countryName, null, null, Double.NaN, Double.NaN, false);
+    }
+
+    private IpReport(String ip, String countryCode, String countryName, CountryFragment country, List<String> times,
+                     double fromUsd, double toUsd, boolean stale) {
+        this.ip = ip;
+        this.countryCode = countryCode;
+        this.countryName = countryName;
+        this.country = country;
+        this.times = times;
+        this.fromUsd = fromUsd;
+        this.toUsd = toUsd;
+        this.stale = stale;
+    }
+
+    /**
+     * @param country {@link CountryFragment} of the country
+     * @param now {@link Instant} at which the local times of the country are taken
+     * @return {@link IpReport} with the same information as this one plus the country's information
+     */
+    IpReport withCountryInfo(CountryFragment country, Instant now) {
+        return new IpReport(ip, countryCode, countryName, country, country.times(now), fromUsd, toUsd, stale);
+    }
+
+    /**
+     * @param fromUsd {@code double} value of 1 USD in the country's currency
+     * @param toUsd {@code double} value of 1 unit of the country's currency in USD
+     * @return {@link IpReport} with the same information as this one plus the currency rates
+     */
+    IpReport withRates(double fromUsd, double toUsd) {
+        return new IpReport(ip, countryCode, countryName, country, times, fromUsd, toUsd, stale);
+    }
+
+    /**
+     * @return {@link IpReport} with the same information as this one, marked as stale
+     */
+    IpReport asStale() {
+        return stale ? this : new IpReport(ip, countryCode, countryName, country, times, fromUsd, toUsd, true);
+    }
+
+    /**
+     * @return {@code String} containing the IP address
+     */
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * @return {@code String} containing the country's 3 lettered code
+     */
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    /**
+     * @return {@code String} containing the country's name
+     */
+    public String getCountryName() {
+        return countryName;
+    }
+
+    /**
+     * @return {@code true} if the report has the country's languages, times, distance and currency
+     */
+    public boolean hasCountryInfo() {
+        return country != null;
+    }
+
+    /**
+     * @return {@link List} of languages spoken in the country, empty if the report doesn't have the country's info
+     */
+    public List<Language> getLanguages() {
+        return country == null ? Collections.emptyList() : country.getLanguages();
+    }
+
+    /**
+     * @return {@link List} of the local times in each timezone of the country, formatted as {@code HH:mm:ss(timezone)}.
+     * Empty if the report doesn't have the country's info
+     */
+    public List<String> getTimes() {
+        return times == null ? Collections.emptyList() : times;
+    }
+
+    /**
+     * @return {@code double} distance from the origin to the country, in kilometers, or {@code NaN} if the report
+     * doesn't have the country's info
+     */
+    public double getDistance() {
+        return country == null ? Double.NaN : country.getDistance();
+    }
+
+    /**
+     * @return {@code String} containing the code of the country's currency, or {@code null} if the report doesn't
+     * have the country's info
+     */
+    public String getCurrencyCode() {
+        return country == null ? null : country.getCurrencyCode();
+    }
+
+    /**
+     * @return {@code true} if the report has the rates of the country's currency
+     */
+    public boolean hasRates() {
+        return !Double.isNaN(fromUsd);
+    }
+
+    /**
+     * @return {@code double} value of 1 USD in the country's currency, or {@code NaN} if the rates are unknown
+     */
+    public double getFromUsd() {
+        return fromUsd;
+    }
+
+    /**
+     * @return {@code double} value of 1 unit of the country's currency in USD, or {@code NaN} if the rates are unknown
+     */
+    public double getToUsd() {
+        return toUsd;
+    }
+
+    /**
+     * @return {@code true} if some of the information was kept from earlier lookups because a provider couldn't be
+     * reached, so it may be outdated
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Writes the report as a JSON object, with the same fields as {@link #toJSON()}
+     *
+     * @param out {@link Appendable} to which the JSON is written
+     * @throws IOException in case the output can't be written
+     */
+    public void writeJson(Appendable out) throws IOException {
+        out.append("{\"ip\":");
+        quote(ip, out);
+        out.append(",\"countryCode\":");
+        quote(countryCode, out);
+        out.append(",\"countryName\":");
+        quote(countryName, out);
+
+        if (hasCountryInfo()) {
+            String currencyCode = country.getCurrencyCode();
+            out.append(",\"languages\":");
+            out.append(country.getLanguagesJson());
+
+            out.append(",\"times\":[");
+            for (int i = 0; i < times.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                quote(times.get(i), out);
+            }
+
+            out.append("],\"distance\":");
+            number(country.getDistance(), out);
+            out.append(",\"currencyCode\":");
+            quote(currencyCode, out);
+
+            if (hasRates()) {
+                // The currency code comes from the provider, so it is escaped inside the keys too
+                out.append(",\"USD_");
+                escape(currencyCode, out);
+                out.append("\":");
+                number(fromUsd, out);
+                // Both pairs are the same key for the dollar itself, like in toJSON()
+                if (!currencyCode.equals("USD")) {
+                    out.append(",\"");
+                    escape(currencyCode, out);
+                    out.append("_USD\":");
+                    number(toUsd, out);
+                }
+            }
+        }
+        if (stale) {
+            out.append(",\"stale\":true");
+        }
+        out.append('}');
+    }
+
+    /**
+     * Writes the report as the text shown in the console
+     *
+     * @param out {@link Appendable} to which the text is written
+     * @throws IOException in case the output can't be written
+     */
+    public void writeText(Appendable out) throws IOException {
+        // IP to investigate
+        out.append("IP to investigate: ");
+        out.append(ip);
+
+        // Current time
+        out.append("\nCurrent local time: ");
+        TIME_FORMAT.formatTo(LocalTime.now(), out);
+
+        // IP's Country info
+        out.append("\nCountry: ");
+        out.append(countryName);
+        out.append("\nISO Code: ");
+        out.append(countryCode);
+
+        if (hasCountryInfo()) {
+            List<Language> languages = country.getLanguages();
+            String currencyCode = country.getCurrencyCode();
+
+            // Languages
+            out.append("\nLanguages: ");
+            for (int i = 0; i < languages.size(); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                Language language = languages.get(i);
+                out.append(language.name);
+                out.append(" (");
+                out.append(language.code);
+                out.append(')');
+            }
+
+            // Local times
+            out.append("\nLocal times: ");
+            for (int i = 0; i < times.size(); i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(times.get(i));
+            }
+
+            // Estimated distance from the origin
+            out.append("\nEstimated distance from ");
+            out.append(country.getOrigin());
+            out.append(": ");
+            out.append(Double.toString(country.getDistance()));
+            out.append(" km");
+
+            // Currency
+            out.append("\nCurrency: ");
+            out.append(currencyCode);
+
+            if (hasRates()) {
+                out.append(" (1 ");
+                out.append(currencyCode);
+                out.append(" = ");
+                out.append(Double.toString(toUsd));
+                out.append(" --- 1 USD = ");
+                out.append(Double.toString(fromUsd));
+                out.append(' ');
+                out.append(currencyCode);
+                out.append(')');
+            }
+        }
+
+        if (stale) {
+            out.append("\nSome providers couldn't be reached, so part of this information may be outdated.");
+        }
+
+        out.append('\n');
+    }
+
+    /**
+     * @return {@link JSONObject} with all the information in the report, in the format returned by
+     * {@link Ippi#investigateIp(String)}
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("ip", ip);
+        json.put("countryCode", countryCode);
+        json.put("countryName", countryName);
+
+        if (hasCountryInfo()) {
+            String currencyCode = country.getCurrencyCode();
+            JSONArray languages = new JSONArray();
+            for (Language language : country.getLanguages()) {
+                JSONObject languageJson = new JSONObject();
+                languageJson.put("name", language.name);
+                languageJson.put("code", language.code);
+                languages.put(languageJson);
+            }
+            json.put("languages", languages);
+            json.put("times", new JSONArray(times));
+            json.put("distance", country.getDistance());
+            json.put("currencyCode", currencyCode);
+
+            if (hasRates()) {
+                json.put("USD_" + currencyCode, fromUsd);
+                json.put(currencyCode + "_USD", toUsd);
+            }
+        }
+        if (stale) {
+            json.put("stale", true);
+        }
+        return json;
+    }
+
+    /**
+     * @return {@code String} with the report as JSON
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(256);
+        try {
+            writeJson(sb);
+        } catch (IOException e) {
+            // StringBuilder never fails
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a JSON string, escaping the characters JSON doesn't allow unescaped
+     */
+    static void quote(String value, Appendable out) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        escape(value, out);
+        out.append('"');
+    }
+
+    /**
+     * Writes the contents of a JSON string, without its quotes, escaping the characters JSON doesn't allow unescaped
+     */
+    private static void escape(String value, Appendable out) throws IOException {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        out.append(value, start, value.length());
+    }
+
+    /**
+     * Writes a JSON number. Whole numbers are written without decimals, like {@link JSONObject} does.
+     */
+    private static void number(double value, Appendable out) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else if (value == (long) value) {
+            out.append(Long.toString((long) value));
+        } else {
+            out.append(Double.toString(value));
+        }
+    }
+}
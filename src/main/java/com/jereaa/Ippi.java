@@ -1,70 +1,353 @@
 package com.jereaa;
 
-import com.google.common.net.InetAddresses;
-import com.mashape.unirest.http.HttpResponse;
-import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import org.apache.http.conn.ConnectTimeoutException;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
-public class Ippi {
+public class Ippi implements Closeable {
 
-    private static final int Lat = -34;
-    private static final int Lng = -64;
+    /**
+     * Priority of a lookup's requests when a provider's quota is used up. Interactive requests are always sent before
+     * batch ones waiting for the same provider.
+     */
+    public enum Priority {
+        INTERACTIVE,
+        BATCH
+    }
+
+    private static final String STALE = "stale";
+
+    /**
+     * Fields of the upstream responses we use, the rest of each response is skipped while it is read
+     */
+    private static final String[] IP_COUNTRY_FIELDS = {"countryCode3", "countryName"};
+    private static final String[] COUNTRY_FIELDS = {"name", "alpha2Code", "alpha3Code", "latlng", "timezones",
+            "currencies", "languages"};
+
+    private final HttpTransport transport;
+    private final String ipCountryUrl;
+    private final String countriesUrl;
+    private final String ratesUrl;
+    private final IpRangeIndex ipRangeIndex;
+    private final boolean remoteCountryFallback;
+    private final PrefixCache prefixCache;
+    private final DiskCache diskCache;
+    private final CountryCache countryCache;
+    private final CurrencyRates currencyRates;
+    private final AsyncLimiter limiter;
+    private final SingleFlight<String, IpReport> ipFlights = new SingleFlight<>();
+    private final SingleFlight<String, JSONObject> urlFlights = new SingleFlight<>();
+    private final CountryStats stats = new CountryStats();
+    private final Metrics metrics = new Metrics();
+    private final LongAdder ipDatabaseHits = new LongAdder();
+    private final LongAdder ipDatabaseMisses = new LongAdder();
+    private final Map<Upstream, CircuitBreaker> breakers = new EnumMap<>(Upstream.class);
+    private final Map<Upstream, UpstreamScheduler> schedulers = new EnumMap<>(Upstream.class);
+    private final Map<Upstream, Long> hedgeDelays = new EnumMap<>(Upstream.class);
+    private final Map<Upstream, Long> staleBudgets = new EnumMap<>(Upstream.class);
+    private final long ipCountryTimeout;
+    private final long countryInfoTimeout;
+    private final long currencyTimeout;
 
+    /**
+     * Creates an instance configured from the system properties. If {@code ippi.ipdb} points to a CSV range
+     * database, countries are resolved offline from it, falling back to the remote provider for IPs not found
+     * unless {@code ippi.ipdb.remoteFallback} is {@code false}.
+     * <p>
+     * Country information is cached for {@code ippi.countries.ttlMs} milliseconds (1 day by default), and the cache
+     * is warmed from the snapshot in {@code ippi.countries.snapshot} or from the bundled one.
+     * <p>
+     * Currency rates are shared between lookups and considered fresh for {@code ippi.rates.ttlMs} milliseconds
+     * (1 hour by default). Known rates are refreshed every {@code ippi.rates.refreshMs} milliseconds (10 minutes by
+     * default), and currencies requested together are sent in a single request of up to {@code ippi.rates.maxPairs}
+     * pairs (2 by default, the limit of the free plan).
+     * <p>
+     * {@link #investigateIpAsync(String)} runs up to {@code ippi.async.maxConcurrency} lookups at once (256 by
+     * default), queueing up to {@code ippi.async.maxQueued} more, and each of its stages times out after
+     * {@code ippi.timeout.ipCountryMs}, {@code ippi.timeout.countryInfoMs} and {@code ippi.timeout.currencyMs}
+     * milliseconds (5 seconds by default).
+     * <p>
+     * The countries of IP networks are cached by prefix, so neighbouring IPs are resolved without a request: IPv4
+     * addresses by their first {@code ippi.prefixCache.v4PrefixLength} bits (24 by default) and IPv6 addresses by
+     * their first {@code ippi.prefixCache.v6PrefixLength} bits (48 by default). Up to
+     * {@code ippi.prefixCache.maxSize} networks are kept (65536 by default, 0 disables the cache), each one for
+     * {@code ippi.prefixCache.ttlMs} milliseconds (1 day by default).
+     * <p>
+     * If {@code ippi.cache.dir} points to a directory, the results of the upstream requests are also kept there, see
+     * {@link DiskCache}, and shared with every other process using it. The countries of IPs are kept for
+     * {@code ippi.cache.ipTtlMs} milliseconds (1 day by default), up to {@code ippi.cache.ipSlots} of them (65536 by
+     * default), countries for the same time they are fresh in memory, and rates until they would be refreshed.
+     * <p>
+     * Requests are made with a {@link PooledHttpTransport}, and each provider's URL can be changed with
+     * {@code ippi.upstream.<name>.url}, see {@link Upstream}. A request taking longer than
+     * {@code ippi.upstream.<name>.hedgeDelayMs} milliseconds is sent again (1 second by default, 0 disables it), and
+     * after {@code ippi.upstream.<name>.breakerFailures} consecutive failures (5 by default) the provider is skipped
+     * for {@code ippi.upstream.<name>.breakerOpenMs} milliseconds (30 seconds by default).
+     * <p>
+     * Requests to a provider can be limited to {@code ippi.upstream.<name>.ratePerSecond} (unlimited by default),
+     * with bursts of up to {@code ippi.upstream.<name>.burst}. Requests over the limit wait for their turn, up to
+     * {@code ippi.upstream.<name>.maxQueueWaitMs} milliseconds (5 seconds by default) and
+     * {@code ippi.upstream.<name>.maxQueued} requests (1000 by default), see {@link UpstreamScheduler}.
+     */
     public Ippi() {
-        Unirest.setTimeouts(5000, 0);
+        this(loadIpRangeIndex(Config.getString("ippi.ipdb", null)),
+                Config.getBoolean("ippi.ipdb.remoteFallback", true));
+    }
+
+    /**
+     * @param ipRangeIndex {@link IpRangeIndex} used to resolve countries offline, or {@code null} to always use the remote provider
+     * @param remoteCountryFallback {@code true} to ask the remote provider for IPs not found in the index
+     */
+    public Ippi(IpRangeIndex ipRangeIndex, boolean remoteCountryFallback) {
+        this(ipRangeIndex, remoteCountryFallback, new PooledHttpTransport());
+    }
+
+    /**
+     * @param ipRangeIndex {@link IpRangeIndex} used to resolve countries offline, or {@code null} to always use the remote provider
+     * @param remoteCountryFallback {@code true} to ask the remote provider for IPs not found in the index
+     * @param transport {@link HttpTransport} used for every request. It is closed when this instance is closed
+     */
+    public Ippi(IpRangeIndex ipRangeIndex, boolean remoteCountryFallback, HttpTransport transport) {
+        this.transport = transport;
+        this.ipCountryUrl = Upstream.IP_COUNTRY.getBaseUrl() + "/ip?";
+        this.countriesUrl = Upstream.COUNTRIES.getBaseUrl() + "/alpha/";
+        this.ratesUrl = Upstream.CURRENCY_RATES.getBaseUrl() + "/convert?q=";
+        this.ipRangeIndex = ipRangeIndex;
+        this.remoteCountryFallback = remoteCountryFallback;
+
+        for (Upstream upstream : Upstream.values()) {
+            CircuitBreaker breaker = new CircuitBreaker(Config.getInt(upstream.property("breakerFailures"), 5),
+                    Config.getLong(upstream.property("breakerOpenMs"), 30000));
+            breakers.put(upstream, breaker);
+            metrics.addCircuitBreaker(upstream, breaker);
+            hedgeDelays.put(upstream, Config.getLong(upstream.property("hedgeDelayMs"), 1000));
+            staleBudgets.put(upstream, Config.getLong(upstream.property("staleAfterMs"), 3000));
+
+            double rate = Config.getDouble(upstream.property("ratePerSecond"), 0);
+            UpstreamScheduler scheduler = new UpstreamScheduler(upstream.getKey(), rate,
+                    Config.getInt(upstream.property("burst"), (int) Math.max(1, Math.ceil(rate))),
+                    Config.getLong(upstream.property("maxQueueWaitMs"), 5000),
+                    Config.getInt(upstream.property("maxQueued"), 1000));
+            schedulers.put(upstream, scheduler);
+            metrics.addScheduler(upstream, scheduler);
+        }
+
+        long countryTtl = Config.getLong("ippi.countries.ttlMs", 24 * 60 * 60 * 1000L);
+        long ratesRefresh = Config.getLong("ippi.rates.refreshMs", 10 * 60 * 1000L);
+        int prefixCacheSize = Config.getInt("ippi.prefixCache.maxSize", 65536);
+        this.prefixCache = prefixCacheSize <= 0 ? null : new PrefixCache(
+                Config.getInt("ippi.prefixCache.v4PrefixLength", 24),
+                Config.getInt("ippi.prefixCache.v6PrefixLength", 48),
+                prefixCacheSize,
+                Config.getLong("ippi.prefixCache.ttlMs", 24 * 60 * 60 * 1000L));
+        this.diskCache = openDiskCache(Config.getString("ippi.cache.dir", null), countryTtl, ratesRefresh);
+
+        DistanceCalculator origin = new DistanceCalculator(
+                Config.getDouble("ippi.origin.lat", CountryFragment.DEFAULT_ORIGIN_LAT),
+                Config.getDouble("ippi.origin.lng", CountryFragment.DEFAULT_ORIGIN_LNG),
+                DistanceCalculator.Unit.KILOMETERS);
+        String originName = Config.getString("ippi.origin.name", CountryFragment.DEFAULT_ORIGIN_NAME);
+        this.countryCache = new CountryCache(this::loadCountry, countryTtl,
+                Config.getInt("ippi.countries.maxSize", 600),
+                country -> CountryFragment.compile(country, origin, originName));
+        warmCountryCache(Config.getString("ippi.countries.snapshot", null));
+
+        this.currencyRates = new CurrencyRates(
+                this::fetchRates,
+                Config.getLong("ippi.rates.ttlMs", 60 * 60 * 1000L),
+                ratesRefresh,
+                Config.getLong("ippi.rates.batchWindowMs", 5),
+                Config.getLong("ippi.rates.waitMs", 10000),
+                Config.getInt("ippi.rates.maxPairs", 2));
+
+        this.limiter = new AsyncLimiter(Config.getInt("ippi.async.maxConcurrency", 256),
+                Config.getInt("ippi.async.maxQueued", 10000));
+        this.ipCountryTimeout = Config.getLong("ippi.timeout.ipCountryMs", 5000);
+        this.countryInfoTimeout = Config.getLong("ippi.timeout.countryInfoMs", 5000);
+        this.currencyTimeout = Config.getLong("ippi.timeout.currencyMs", 5000);
+
+        metrics.addCache("countries", countryCache::getHits, countryCache::getMisses);
+        metrics.addCache("rates", currencyRates::getHits, currencyRates::getMisses);
+        if (ipRangeIndex != null) {
+            metrics.addCache("ipdb", ipDatabaseHits::sum, ipDatabaseMisses::sum);
+        }
+        if (prefixCache != null) {
+            metrics.addCache("prefix", prefixCache::getHits, prefixCache::getMisses);
+        }
+        if (diskCache != null) {
+            metrics.addCache("disk", diskCache::getHits, diskCache::getMisses);
+        }
     }
 
     /**
-     * Tries to request all the information possible on the specified IP address
+     * Tries to request all the information possible on the specified IP address. Concurrent lookups of the same IP
+     * share a single lookup.
      *
      * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
-     * @return {@link JSONObject} with all the information obtained from the IP address
+     * @return {@link JSONObject} with all the information obtained from the IP address, in the format of
+     * {@link IpReport#toJSON()}
      */
     public JSONObject investigateIp(String ip) {
+        IpReport report = report(ip);
+        return report == null ? null : report.toJSON();
+    }
+
+    /**
+     * Same as {@link #investigateIp(String)}, but without blocking the calling thread. The stages are chained
+     * asynchronously, each one with its own timeout, and the number of lookups in progress is capped. Concurrent
+     * lookups of the same IP, either synchronous or not, share a single lookup.
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @return {@link CompletableFuture} completed with the same {@link JSONObject} {@link #investigateIp(String)}
+     * returns, or with {@code null} if the IP is invalid or we couldn't get any info on it
+     */
+    public CompletableFuture<JSONObject> investigateIpAsync(String ip) {
+        return reportAsync(ip).thenApply(report -> report == null ? null : report.toJSON());
+    }
+
+    /**
+     * Tries to request all the information possible on the specified IP address. Concurrent lookups of the same IP
+     * share a single lookup, and its report.
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @return {@link IpReport} with all the information obtained from the IP address, or {@code null} if the IP is
+     * invalid or we couldn't get any info on it
+     */
+    public IpReport report(String ip) {
+        return report(ip, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Same as {@link #report(String)}, with the given priority for the requests of the lookup if a provider's quota
+     * is used up
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @param priority {@link Priority} of the lookup, e.g. {@link Priority#BATCH} for lookups nobody is waiting for
+     * @return {@link IpReport} with all the information obtained from the IP address, or {@code null} if the IP is
+     * invalid or we couldn't get any info on it
+     */
+    public IpReport report(String ip, Priority priority) {
         if(!isValidIp(ip)) {
             return null;
         }
+        long start = System.nanoTime();
+        IpReport report = ipFlights.run(ip, key -> CompletableFuture.completedFuture(lookup(key, priority))).join();
+        metrics.recordLookup(System.nanoTime() - start, report);
+        recordStats(report);
+        return report;
+    }
 
-        JSONObject result = new JSONObject();
-        result.put("ip", ip);
+    private IpReport lookup(String ip, Priority priority) {
+        IpReport report = null;
 
         try {
-            getCountryFromIP(ip, result);
-            String countryCode = result.getString("countryCode");
+            report = addCountryFromIP(ip, Futures.await(getCountryFromIPAsync(ip, priority)));
+            report = report.withCountryInfo(countryCache.getFragment(report.getCountryCode()), Instant.now());
+            return addCurrency(report, currencyRates.get(report.getCurrencyCode()));
+
+        } catch (Exception e) {
+            reportError(e);
+
+            // If we could get at least some info on the IP, we return it
+            return report;
+        }
+    }
+
+    /**
+     * Same as {@link #report(String)}, but without blocking the calling thread, like
+     * {@link #investigateIpAsync(String)}.
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @return {@link CompletableFuture} completed with the {@link IpReport} with all the information obtained from
+     * the IP address, or with {@code null} if the IP is invalid or we couldn't get any info on it
+     */
+    public CompletableFuture<IpReport> reportAsync(String ip) {
+        return reportAsync(ip, Priority.INTERACTIVE);
+    }
 
-            getCountryInfo(countryCode, result);
-            String currencyCode = result.getString("currencyCode");
+    /**
+     * Same as {@link #reportAsync(String)}, with the given priority for the requests of the lookup if a provider's
+     * quota is used up
+     *
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
+     * @param priority {@link Priority} of the lookup, e.g. {@link Priority#BATCH} for lookups nobody is waiting for
+     * @return {@link CompletableFuture} completed with the {@link IpReport} with all the information obtained from
+     * the IP address, or with {@code null} if the IP is invalid or we couldn't get any info on it
+     */
+    public CompletableFuture<IpReport> reportAsync(String ip, Priority priority) {
+        if (!isValidIp(ip)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long start = System.nanoTime();
+        return ipFlights.run(ip, key -> limiter.submit(() -> investigate(key, priority))).thenApply(report -> {
+            metrics.recordLookup(System.nanoTime() - start, report);
+            recordStats(report);
+            return report;
+        });
+    }
 
-            getCurrencyInUSD(currencyCode, result);
+    private CompletableFuture<IpReport> investigate(String ip, Priority priority) {
+        // Latest report built, so a lookup failing halfway still returns what it got
+        IpReport[] partial = new IpReport[1];
 
-            return result;
+        return Futures.withTimeout(getCountryFromIPAsync(ip, priority), ipCountryTimeout, "country of IP " + ip)
+                .thenCompose(ipCountry -> {
+                    IpReport report = partial[0] = addCountryFromIP(ip, ipCountry);
+                    return Futures.withTimeout(countryCache.getFragmentAsync(report.getCountryCode()), countryInfoTimeout,
+                            "info of country " + report.getCountryCode());
+                })
+                .thenCompose(country -> {
+                    IpReport report = partial[0] = partial[0].withCountryInfo(country, Instant.now());
+                    return Futures.withTimeout(currencyRates.getAsync(report.getCurrencyCode()), currencyTimeout,
+                            "currency rates of " + report.getCurrencyCode());
+                })
+                .handle((rate, e) -> {
+                    if (e == null) {
+                        return addCurrency(partial[0], rate);
+                    }
+                    reportError(Futures.unwrap(e));
 
-        } catch (Exception e) {
-            if (e.getCause() instanceof ConnectTimeoutException) {
-                System.err.println("Request timed out and couldn't get all the required data.");
-            } else if (e.getCause() instanceof UnknownHostException) {
-                System.err.println("Couldn't make the request to the server. Make sure you have internet access.");
-            } else if (e instanceof IOException) {
-                System.err.println(e.getMessage());
-            } else {
-                System.err.println("Unhandled exception: " + e.toString());
-            }
+                    // If we could get at least some info on the IP, we return it
+                    return partial[0];
+                });
+    }
 
-            // If we could get at least some info on the IP, we return it
-            if (result.has("countryCode")) {
-                return result;
-            }
+    /**
+     * @return {@link CountryStats} with the countries of every lookup made by this instance
+     */
+    public CountryStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return {@link Metrics} with the latencies and outcomes of the lookups and requests made by this instance
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    private void recordStats(IpReport report) {
+        if (report != null && report.hasCountryInfo()) {
+            stats.record(report.getCountryCode(), report.getCountryName(), report.getDistance());
         }
-        return null;
     }
 
     /**
@@ -74,111 +357,532 @@ public class Ippi {
      * @return {@code true} if IP Address is valid, {@code false} otherwise
      */
     public boolean isValidIp(String ip) {
-        return InetAddresses.isInetAddress(ip);
+        return IpAddresses.isValid(ip);
     }
 
     /**
-     * Requests country associated with a certain IP address
+     * Requests country associated with a certain IP address. If a local IP database is loaded the country is
+     * resolved from it, without making any request.
      *
      * @param ip {@code String} containing an IPv4 or IPv6 string literal, e.g. {@code "192.168.0.1"} or {@code "2001:db8::1"}
      * @param result {@link JSONObject} to which we would like to add the information we need
-     * @return {@link JSONObject} obtained from the request made.
+     * @return {@link JSONObject} obtained from the request made, or built from the local IP database.
      * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
-     * @throws IOException in case a bad request was made (invalid IP)
+     * @throws IOException in case a bad request was made (invalid IP) or the IP isn't in the local IP database
+     * and the remote fallback is disabled
      */
     public JSONObject getCountryFromIP(String ip, JSONObject result) throws UnirestException, IOException {
-        JSONObject ipCountry = getData("https://api.ip2country.info/ip?" + ip);
+        JSONObject ipCountry = Futures.await(getCountryFromIPAsync(ip, Priority.INTERACTIVE));
+        addCountryFromIP(ipCountry, result);
+        return ipCountry;
+    }
 
+    private CompletableFuture<JSONObject> getCountryFromIPAsync(String ip, Priority priority) {
+        if (ipRangeIndex != null) {
+            int country = ipRangeIndex.lookup(ip);
+            if (country >= 0) {
+                ipDatabaseHits.increment();
+                return CompletableFuture.completedFuture(
+                        ipCountry(ipRangeIndex.countryCode(country), ipRangeIndex.countryName(country)));
+            }
+            ipDatabaseMisses.increment();
+            if (!remoteCountryFallback) {
+                CompletableFuture<JSONObject> notFound = new CompletableFuture<>();
+                notFound.completeExceptionally(new IOException("Couldn't find IP in the local IP database. IP: " + ip));
+                return notFound;
+            }
+        }
+
+        long[] address = prefixCache == null ? null : toAddress(ip);
+        if (address != null) {
+            int country = prefixCache.lookup(address);
+            if (country >= 0) {
+                return CompletableFuture.completedFuture(
+                        ipCountry(prefixCache.countryCode(country), prefixCache.countryName(country)));
+            }
+        }
+
+        CompletableFuture<JSONObject> ipCountry;
+        if (diskCache == null) {
+            ipCountry = getDataAsync(Upstream.IP_COUNTRY, priority, ipCountryUrl + ip, IP_COUNTRY_FIELDS);
+        } else {
+            JSONObject cached = diskCache.getIpCountry(ip);
+            ipCountry = cached != null ? CompletableFuture.completedFuture(cached)
+                    : getDataAsync(Upstream.IP_COUNTRY, priority, ipCountryUrl + ip, IP_COUNTRY_FIELDS).thenApply(fetched -> {
+                        diskCache.putIpCountry(ip, fetched);
+                        return fetched;
+                    });
+        }
+        if (address != null) {
+            ipCountry = ipCountry.thenApply(fetched -> {
+                if (fetched.has("countryCode3") && fetched.has("countryName")) {
+                    prefixCache.put(address, fetched.getString("countryCode3"), fetched.getString("countryName"));
+                }
+                return fetched;
+            });
+        }
+        if (prefixCache == null && diskCache == null) {
+            return ipCountry;
+        }
+        return orStale(ipCountry, Upstream.IP_COUNTRY, "country of IP " + ip, () -> getStaleIpCountry(ip, address));
+    }
+
+    /**
+     * @param ip {@code String} containing the IP address
+     * @param address {@code long[]} with the parsed address, or {@code null} if there is no prefix cache
+     * @return {@link JSONObject} with the last known country of the IP, marked as stale, or {@code null} if it was
+     * never looked up
+     */
+    private JSONObject getStaleIpCountry(String ip, long[] address) {
+        JSONObject stale = null;
+        if (address != null) {
+            int country = prefixCache.lookupExpired(address);
+            if (country >= 0) {
+                stale = ipCountry(prefixCache.countryCode(country), prefixCache.countryName(country));
+            }
+        }
+        if (stale == null && diskCache != null) {
+            stale = diskCache.getExpiredIpCountry(ip);
+        }
+        return stale == null ? null : stale.put(STALE, true);
+    }
+
+    private static JSONObject ipCountry(String countryCode, String countryName) {
+        JSONObject ipCountry = new JSONObject();
+        ipCountry.put("countryCode3", countryCode);
+        ipCountry.put("countryName", countryName);
+        return ipCountry;
+    }
+
+    /**
+     * @param ip {@code String} containing an IPv4 or IPv6 string literal
+     * @return {@code long[]} with the parsed address, or {@code null} if it isn't a valid IP
+     */
+    private static long[] toAddress(String ip) {
+        long[] address = new long[2];
+        return IpAddresses.parse(ip, address) ? address : null;
+    }
+
+    private static void addCountryFromIP(JSONObject ipCountry, JSONObject result) {
         if (result != null) {
             result.put("countryCode", ipCountry.getString("countryCode3"));
             result.put("countryName", ipCountry.getString("countryName"));
         }
-        return ipCountry;
+    }
+
+    private static IpReport addCountryFromIP(String ip, JSONObject ipCountry) {
+        IpReport report = new IpReport(ip, ipCountry.getString("countryCode3"), ipCountry.getString("countryName"));
+        return ipCountry.optBoolean(STALE) ? report.asStale() : report;
     }
 
     /**
-     * Requests all info about a certain country
+     * Requests all info about a certain country. Countries already requested are answered from the country cache.
      *
      * @param countryCode {@code String} containing a country's code, either 2 or 3 lettered code
      * @param result {@link JSONObject} to which we would like to add the information we need
      * @return {@link JSONObject} obtained from the request made. JSON format here: https://restcountries.eu/#api-endpoints-response-example
+     * It is shared with other lookups of the same country, so it must not be modified.
      * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
      * @throws IOException in case a bad request was made (invalid country code)
      */
     public JSONObject getCountryInfo(String countryCode, JSONObject result) throws UnirestException, IOException {
-        JSONObject countryInfo = getData("https://restcountries.eu/rest/v2/alpha/" + countryCode);
-
-        if (result != null) {
-            JSONArray languages = new JSONArray();
-            countryInfo.getJSONArray("languages").forEach(lang -> {
-                JSONObject langJson = (JSONObject) lang;
-                JSONObject language = new JSONObject();
-                language.put("name", langJson.getString("name"));
-                language.put("code", langJson.getString("iso639_1"));
-                languages.put(language);
-            });
-            result.put("languages", languages);
-
-            JSONArray times = new JSONArray();
-            countryInfo.getJSONArray("timezones").forEach(tz -> {
-                String timezone = (String) tz;
-                ZonedDateTime time = ZonedDateTime.now().withZoneSameInstant(ZoneOffset.of(timezone.substring(3)));
-                times.put(time.toLocalTime().format(DateTimeFormatter.ofPattern("HH:mm:ss")) + String.format("(%s)", timezone));
-            });
-            result.put("times", times);
+        CountryFragment country = countryCache.getFragment(countryCode);
+        addCountryInfo(country, result);
+        return country.getCountry();
+    }
 
-            JSONArray latlng = countryInfo.getJSONArray("latlng");
-            double dist = DistanceCalculator.distance(Lat, Lng, latlng.getDouble(0), latlng.getDouble(1), "K");
-            result.put("distance", Math.round(dist * 100) / (double) 100);
+    /**
+     * Loads the information of a country not in the country cache, from the disk cache if possible. Countries are
+     * shared by every lookup, so they are requested as interactive whatever lookup asked for them first.
+     */
+    private CompletableFuture<JSONObject> loadCountry(String countryCode) {
+        String url = countriesUrl + countryCode;
+        if (diskCache == null) {
+            return getDataAsync(Upstream.COUNTRIES, Priority.INTERACTIVE, url, COUNTRY_FIELDS);
+        }
 
-            result.put("currencyCode", countryInfo.getJSONArray("currencies").getJSONObject(0).getString("code"));
+        JSONObject cached = diskCache.getCountry(countryCode);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
+        return getDataAsync(Upstream.COUNTRIES, Priority.INTERACTIVE, url, COUNTRY_FIELDS).thenApply(country -> {
+            diskCache.putCountry(countryCode, country);
+            return country;
+        });
+    }
 
-        return countryInfo;
+    private static void addCountryInfo(CountryFragment country, JSONObject result) {
+        if (result != null) {
+            JSONObject info = new IpReport(null, null, null).withCountryInfo(country, Instant.now()).toJSON();
+            for (String key : info.keySet()) {
+                result.put(key, info.get(key));
+            }
+        }
     }
 
     /**
-     * Requests currency rates from and to USD
+     * Requests currency rates from and to USD. Rates are shared between lookups, so only currencies without known
+     * rates wait for a request.
      *
      * @param currencyCode {@code String} containing the currency code representing the currency we want to find exchange rates for
      * @param result {@link JSONObject} to which we would like to add the information we need
-     * @return {@link JSONObject} obtained from the request made. JSON format here: https://www.currencyconverterapi.com/docs
+     * @return {@link JSONObject} with the rates, same as the ones obtained from the request. JSON format here: https://www.currencyconverterapi.com/docs
      * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
      * @throws IOException in case a bad request was made (invalid country code)
      */
     public JSONObject getCurrencyInUSD(String currencyCode, JSONObject result) throws UnirestException, IOException {
         String currencyCodeUpper = currencyCode.toUpperCase();
-        String fromUSD = "USD_" + currencyCodeUpper;
-        String toUSD = currencyCodeUpper + "_USD";
-
-        JSONObject currencyInfo = getData(String.format(
-                "https://free.currencyconverterapi.com/api/v6/convert?q=%s,%s&compact=ultra", fromUSD, toUSD));
+        CurrencyRates.Rate rate = currencyRates.get(currencyCodeUpper);
 
         // If currency was invalid, we get an empty JSON in return
         // so we have to check it
-        if (result != null && currencyInfo.has(fromUSD)) {
-            result.put(fromUSD, currencyInfo.getDouble(fromUSD));
-            result.put(toUSD, currencyInfo.getDouble(toUSD));
+        JSONObject currencyInfo = new JSONObject();
+        addCurrency(currencyCodeUpper, rate, currencyInfo);
+        addCurrency(currencyCodeUpper, rate, result);
+        return currencyInfo;
+    }
+
+    private static void addCurrency(String currencyCode, CurrencyRates.Rate rate, JSONObject result) {
+        if (result != null && rate.isKnown()) {
+            String currencyCodeUpper = currencyCode.toUpperCase();
+            result.put("USD_" + currencyCodeUpper, rate.getFromUsd());
+            result.put(currencyCodeUpper + "_USD", rate.getToUsd());
         }
+    }
 
-        return currencyInfo;
+    private static IpReport addCurrency(IpReport report, CurrencyRates.Rate rate) {
+        IpReport withRates = rate.isKnown() ? report.withRates(rate.getFromUsd(), rate.getToUsd()) : report;
+        return rate.isStale() ? withRates.asStale() : withRates;
+    }
+
+    /**
+     * Requests a set of currency pairs, unless all of them are in the disk cache. If the provider is unavailable,
+     * falls back to the expired rates in the disk cache. Rates are shared by every lookup, so they are requested as
+     * interactive.
+     */
+    private CompletableFuture<JSONObject> fetchRates(List<String> pairs) {
+        if (diskCache != null) {
+            JSONObject cached = new JSONObject();
+            for (String pair : pairs) {
+                double rate = diskCache.getRate(pair);
+                if (Double.isNaN(rate)) {
+                    cached = null;
+                    break;
+                }
+                cached.put(pair, rate);
+            }
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        CompletableFuture<JSONObject> request = getDataAsync(Upstream.CURRENCY_RATES, Priority.INTERACTIVE,
+                ratesUrl + String.join(",", pairs) + "&compact=ultra");
+        if (diskCache == null) {
+            return request;
+        }
+
+        return orStale(request, Upstream.CURRENCY_RATES, "currency rates " + pairs, () -> getStaleRates(pairs))
+                .thenApply(rates -> {
+                    if (!rates.optBoolean(STALE)) {
+                        for (String pair : pairs) {
+                            // Pairs of invalid currencies are missing from the response
+                            if (rates.has(pair)) {
+                                diskCache.putRate(pair, rates.getDouble(pair));
+                            }
+                        }
+                    }
+                    return rates;
+                });
+    }
+
+    /**
+     * @param pairs {@link List} of currency pairs
+     * @return {@link JSONObject} with the last known rate of every pair, marked as stale, or {@code null} if any of
+     * them was never requested
+     */
+    private JSONObject getStaleRates(List<String> pairs) {
+        JSONObject rates = new JSONObject();
+        for (String pair : pairs) {
+            double rate = diskCache.getExpiredRate(pair);
+            if (Double.isNaN(rate)) {
+                return null;
+            }
+            rates.put(pair, rate);
+        }
+        return rates.put(STALE, true);
+    }
+
+    /**
+     * Falls back to the information got by earlier lookups if a provider is unavailable: when the request fails on
+     * the provider's side, its circuit is open, or it doesn't answer within the provider's stale budget
+     * ({@code ippi.upstream.<name>.staleAfterMs}). Without anything to fall back to, the request is waited for as
+     * usual.
+     *
+     * @param future {@link CompletableFuture} of the request
+     * @param upstream {@link Upstream} the request was made to
+     * @param what {@code String} describing what we wait for, used in the timeout message
+     * @param stale {@link Supplier} of the information to fall back to, or of {@code null} if there is none
+     * @return {@link CompletableFuture} completed with the result of the request, or with the stale information
+     */
+    private <T> CompletableFuture<T> orStale(CompletableFuture<T> future, Upstream upstream, String what,
+                                             Supplier<T> stale) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Futures.withTimeout(future, staleBudgets.get(upstream), what).whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = Futures.unwrap(e);
+            // A bad request fails the same way every time, so it isn't answered with old information
+            T fallback = cause instanceof IOException && !(cause instanceof UpstreamUnavailableException)
+                    ? null : stale.get();
+            if (fallback != null) {
+                result.complete(fallback);
+                return;
+            }
+            future.whenComplete((late, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(Futures.unwrap(error));
+                } else {
+                    result.complete(late);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Stops the threads of the currency rates, and closes the {@link HttpTransport} used for the requests, whose
+     * threads would otherwise keep the JVM running, and the disk cache.
+     *
+     * @throws IOException in case the transport or the disk cache couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        currencyRates.close();
+        try {
+            transport.close();
+        } finally {
+            if (diskCache != null) {
+                diskCache.close();
+            }
+        }
+    }
+
+    /**
+     * Prints the reason why a lookup couldn't get all the required data
+     *
+     * @param e {@link Throwable} the lookup failed with
+     */
+    private static void reportError(Throwable e) {
+        if (e.getCause() instanceof ConnectTimeoutException || e.getCause() instanceof SocketTimeoutException
+                || e instanceof TimeoutException) {
+            System.err.println("Request timed out and couldn't get all the required data.");
+        } else if (e.getCause() instanceof UnknownHostException) {
+            System.err.println("Couldn't make the request to the server. Make sure you have internet access.");
+        } else if (e instanceof IOException) {
+            System.err.println(e.getMessage());
+        } else {
+            System.err.println("Unhandled exception: " + e.toString());
+        }
+    }
+
+    /**
+     * Loads the local IP database, if configured
+     *
+     * @param path {@code String} with the path of the CSV range database, or {@code null}
+     * @return {@link IpRangeIndex} loaded, or {@code null} if there is no database or it couldn't be loaded
+     */
+    private static IpRangeIndex loadIpRangeIndex(String path) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return IpRangeIndex.load(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Couldn't load IP database, using remote provider instead. " + e.getMessage());
+            return null;
+        }
     }
 
     /**
-     * Makes a request to a certain URL and returns the result as a {@link JSONObject}
+     * Opens the disk cache, if configured
      *
+     * @param path {@code String} with the path of the cache directory, or {@code null}
+     * @param countryTtl {@code long} milliseconds the information of a country is kept
+     * @param ratesTtl {@code long} milliseconds a currency rate is kept. Rates are refreshed from the disk, so it
+     *                 must not be longer than the refresh interval
+     * @return {@link DiskCache} opened, or {@code null} if there is no directory or the cache couldn't be opened
+     */
+    private static DiskCache openDiskCache(String path, long countryTtl, long ratesTtl) {
+        if (path == null) {
+            return null;
+        }
+        try {
+            return DiskCache.open(Paths.get(path), Config.getInt("ippi.cache.ipSlots", 65536),
+                    Config.getLong("ippi.cache.ipTtlMs", 24 * 60 * 60 * 1000L), countryTtl, ratesTtl);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't open the disk cache, using the providers instead. " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Warms the country cache from a snapshot file, or from the bundled snapshot if there is none
+     *
+     * @param path {@code String} with the path of the snapshot file, or {@code null} to use the bundled one
+     */
+    private void warmCountryCache(String path) {
+        try (InputStream snapshot = path == null
+                ? Ippi.class.getResourceAsStream("/countries.json")
+                : Files.newInputStream(Paths.get(path))) {
+            if (snapshot != null) {
+                countryCache.warm(snapshot);
+            }
+        } catch (Exception e) {
+            System.err.println("Couldn't load countries snapshot. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes a request to a certain URL without blocking. Concurrent requests to the same URL share a single request,
+     * so the result must not be modified. The body is parsed as it is read, keeping only the fields asked for.
+     *
+     * @param upstream {@link Upstream} the URL belongs to
+     * @param priority {@link Priority} of the request if the provider's quota is used up
      * @param url {@code String} containing the URL we will be requesting
-     * @return {@link JSONObject} parsed from the body of the response we got
-     * @throws UnirestException in case of connection timeouts, no internet access or response parsing errors
-     * @throws IOException in case we got a response with status greater than or equal to 400
+     * @param fields {@code String} names of the fields of the response to keep, or none to keep them all. Every
+     *               request to the same URL must ask for the same fields
+     * @return {@link CompletableFuture} completed with the {@link JSONObject} parsed from the body of the response
+     * we got. It fails with an {@link UnirestException} in case of connection timeouts, no internet access or
+     * response parsing errors, or with an {@link IOException} in case we got a response with status greater than or
+     * equal to 400
      */
-    private JSONObject getData(String url) throws UnirestException, IOException {
-        HttpResponse<String> response = Unirest.get(url).asString();
+    private CompletableFuture<JSONObject> getDataAsync(Upstream upstream, Priority priority, String url,
+                                                       String... fields) {
+        return urlFlights.run(url, key -> request(upstream, priority, key, fields));
+    }
 
-        // If we receive a bad response code, then we throw an exception
-        if (response.getStatus() >= 400) {
-            throw new IOException("Server responded with error. Check if URL is correct. URL: " + url);
+    /**
+     * Requests a URL once the provider's quota allows it, unless the circuit of the provider is open. If the provider
+     * doesn't answer within its hedge delay ({@code ippi.upstream.<name>.hedgeDelayMs}), a second request is made
+     * if the quota allows it right away, and the first answer is used.
+     */
+    private CompletableFuture<JSONObject> request(Upstream upstream, Priority priority, String url, String[] fields) {
+        if (breakers.get(upstream).isRejecting()) {
+            return shortCircuit(upstream, url);
+        }
+        return schedulers.get(upstream).submit(priority, () -> send(upstream, url, fields));
+    }
+
+    /**
+     * Sends a request the provider's quota allows. The circuit is checked again here, since the request may have
+     * waited for its turn while the circuit opened, and this is when the trial request is taken: a request failing
+     * before it starts never takes it.
+     */
+    private CompletableFuture<JSONObject> send(Upstream upstream, String url, String[] fields) {
+        CircuitBreaker breaker = breakers.get(upstream);
+        if (!breaker.allowRequest()) {
+            return shortCircuit(upstream, url);
+        }
+        CompletableFuture<JSONObject> data = new CompletableFuture<>();
+
+        // Attempts whose failure is still to come. The request fails when the last of them fails
+        AtomicInteger attempts = new AtomicInteger(1);
+        attempt(upstream, url, fields, data, attempts);
+
+        long hedgeDelay = hedgeDelays.get(upstream);
+        if (hedgeDelay > 0) {
+            ScheduledFuture<?> hedge = Futures.schedule(() -> {
+                // The quota is checked first, so the trial request isn't taken for an attempt that isn't made
+                if (data.isDone() || !schedulers.get(upstream).tryAcquire() || !breaker.allowRequest()) {
+                    return;
+                }
+                if (!addAttempt(attempts)) {
+                    breaker.releaseTrial();
+                    return;
+                }
+                metrics.recordHedge(upstream);
+                attempt(upstream, url, fields, data, attempts);
+            }, hedgeDelay);
+            data.whenComplete((json, e) -> hedge.cancel(false));
+        }
+        return data;
+    }
+
+    private CompletableFuture<JSONObject> shortCircuit(Upstream upstream, String url) {
+        metrics.recordShortCircuit(upstream);
+        CompletableFuture<JSONObject> data = new CompletableFuture<>();
+        data.completeExceptionally(new UpstreamUnavailableException(String.format(
+                "The %s provider is failing, so the request was skipped. URL: %s", upstream.getKey(), url)));
+        return data;
+    }
+
+    private void attempt(Upstream upstream, String url, String[] fields, CompletableFuture<JSONObject> data,
+                         AtomicInteger attempts) {
+        CircuitBreaker breaker = breakers.get(upstream);
+        long start = System.nanoTime();
+
+        transport.get(upstream, url).whenComplete((response, e) -> {
+            long elapsed = System.nanoTime() - start;
+            if (e != null) {
+                Throwable cause = Futures.unwrap(e);
+                metrics.recordFailure(upstream, elapsed, cause);
+                breaker.recordFailure();
+                fail(data, attempts, cause instanceof Exception ? new UnirestException((Exception) cause) : cause);
+                return;
+            }
+
+            // If we receive a bad response code, then we fail with an exception
+            if (response.getStatus() >= 500) {
+                metrics.recordResponse(upstream, elapsed, response.getStatus());
+                breaker.recordFailure();
+                fail(data, attempts, new UpstreamUnavailableException(
+                        "Server responded with error. Check if URL is correct. URL: " + url));
+                return;
+            }
+            if (response.getStatus() >= 400) {
+                // The provider works, but would answer the same to any other attempt
+                metrics.recordResponse(upstream, elapsed, response.getStatus());
+                breaker.recordSuccess();
+                data.completeExceptionally(new IOException(
+                        "Server responded with error. Check if URL is correct. URL: " + url));
+                return;
+            }
+            try (InputStream body = response.getBody()) {
+                JSONObject json = JsonFieldReader.read(body, fields);
+                metrics.recordResponse(upstream, System.nanoTime() - start, response.getStatus());
+                breaker.recordSuccess();
+                data.complete(json);
+            } catch (RuntimeException | IOException parseError) {
+                metrics.recordFailure(upstream, System.nanoTime() - start, parseError);
+                breaker.recordFailure();
+                fail(data, attempts, new UnirestException(parseError));
+            }
+        });
+    }
+
+    /**
+     * Counts a hedged attempt, unless every attempt already failed
+     */
+    private static boolean addAttempt(AtomicInteger attempts) {
+        int pending;
+        do {
+            pending = attempts.get();
+            if (pending == 0) {
+                return false;
+            }
+        } while (!attempts.compareAndSet(pending, pending + 1));
+        return true;
+    }
+
+    /**
+     * Fails the request with the error of an attempt, unless another attempt may still succeed
+     */
+    private static void fail(CompletableFuture<JSONObject> data, AtomicInteger attempts, Throwable e) {
+        if (attempts.decrementAndGet() == 0) {
+            data.completeExceptionally(e);
         }
-        return new JSONObject(response.getBody());
     }
 }
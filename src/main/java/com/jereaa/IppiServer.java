@@ -0,0 +1,160 @@
+package com.jereaa;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-running HTTP server answering lookups with a single warm {@link Ippi} instance.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>{@code GET /ip/{ip}}: JSON with all the information obtained from the IP address, same as
+ *     {@link Ippi#investigateIp(String)}. If too many lookups are in progress it answers 503, with a
+ *     {@code Retry-After} of {@code ippi.server.retryAfterSeconds} (1 by default)</li>
+ *     <li>{@code GET /stats}: JSON with the lookups per country, see {@link CountryStats}</li>
+ *     <li>{@code GET /metrics}: latencies, outcomes and cache hit ratios in the Prometheus text format, see
+ *     {@link Metrics}</li>
+ * </ul>
+ * It only uses the HTTP server bundled with the JDK. Connections are kept alive between requests, since every
+ * response is sent with its length.
+ */
+public class IppiServer {
+
+    private static final String IP_PATH = "/ip/";
+
+    private final Ippi ippi;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final String retryAfter;
+
+    /**
+     * @param ippi {@link Ippi} instance used for every lookup
+     * @param port {@code int} port to listen on
+     * @param workers {@code int} number of threads handling requests
+     * @throws IOException in case the server can't listen on the port
+     */
+    public IppiServer(Ippi ippi, int port, int workers) throws IOException {
+        this.ippi = ippi;
+        this.retryAfter = String.valueOf(Config.getInt("ippi.server.retryAfterSeconds", 1));
+        this.server = HttpServer.create(new InetSocketAddress(port), Config.getInt("ippi.server.backlog", 1024));
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    // The dispatcher thread of the server keeps the process alive, the workers mustn't once it stops
+                    Thread thread = new Thread(runnable, "ippi-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        server.setExecutor(this.workers);
+        server.createContext(IP_PATH, this::handleIp);
+        server.createContext("/stats", exchange -> send(exchange, 200, ippi.getStats().snapshot().toJSON().toString()));
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/", exchange -> sendError(exchange, 404,
+                "Not found. Use GET " + IP_PATH + "{ip}, GET /stats or GET /metrics"));
+    }
+
+    /**
+     * Starts listening for requests in the background
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, waiting up to the given time for the requests in progress to finish
+     *
+     * @param delaySeconds {@code int} maximum seconds to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        workers.shutdown();
+    }
+
+    /**
+     * @return {@code int} port the server is listening on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleIp(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            sendError(exchange, 405, "Method not allowed. Use GET " + IP_PATH + "{ip}");
+            return;
+        }
+
+        String ip;
+        try {
+            ip = URLDecoder.decode(exchange.getRequestURI().getRawPath().substring(IP_PATH.length()), "UTF-8");
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "Invalid IP. The IP is not correctly encoded.");
+            return;
+        }
+        if (!ippi.isValidIp(ip)) {
+            sendError(exchange, 400, String.format("Invalid IP. The IP %s is not a valid IP address.", ip));
+            return;
+        }
+
+        // The lookup doesn't block the worker, the response is sent from the pool once it is done
+        ippi.reportAsync(ip).whenCompleteAsync((report, e) -> {
+            try {
+                if (e != null && Futures.unwrap(e) instanceof TooManyLookupsException) {
+                    // Overloaded: clients and load balancers should back off instead of retrying right away
+                    exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                    sendError(exchange, 503, Futures.unwrap(e).getMessage());
+                } else if (report == null) {
+                    sendError(exchange, 502, "Couldn't get any information on the IP " + ip);
+                } else {
+                    send(exchange, 200, report.toString());
+                }
+            } catch (IOException ignored) {
+                // The client went away, nothing else to do
+                exchange.close();
+            } catch (RuntimeException unexpected) {
+                System.err.println("Couldn't send the information on the IP " + ip + ". " + unexpected);
+                // Without a response, closing the exchange is the only way to not leave the client waiting
+                exchange.close();
+            }
+        }, workers);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        StringBuilder metrics = new StringBuilder(4096);
+        ippi.getMetrics().writePrometheus(metrics);
+        send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", metrics.toString());
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JSONObject error = new JSONObject();
+        error.put("error", message);
+        send(exchange, status, error.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", body);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader of JSON objects that only keeps some of their fields.
+ * <p>
+ * Upstream responses are read straight from their UTF-8 bytes, and only the values of the fields asked for are
+ * decoded into {@link JSONObject}s, {@link JSONArray}s and strings. Every other value is skipped byte by byte, without
+ * allocating anything, so big documents of which only a few fields are used cost little more than reading their
+ * bytes. Skipped values are only checked to be balanced, not to be fully valid JSON.
+ */
+final class JsonFieldReader {
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[1024];
+    private int position;
+    private int limit;
+    private long offset;
+
+    /**
+     * Holds the field names and strings being read, reused for all of them
+     */
+    private final StringBuilder text = new StringBuilder(64);
+
+    private JsonFieldReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads a JSON object, keeping only some of its fields
+     *
+     * @param in {@link InputStream} with the UTF-8 encoded JSON object. It is read up to its end, but not closed
+     * @param fields {@code String} names of the fields to keep. If there are none, every field is kept
+     * @return {@link JSONObject} with the fields kept. Fields not present in the input are not present in it either
+     * @throws JSONException in case the input isn't a JSON object
+     * @throws IOException in case the input can't be read
+     */
+    static JSONObject read(InputStream in, String... fields) throws IOException {
+        JsonFieldReader reader = new JsonFieldReader(in);
+        if (reader.nextClean() != '{') {
+            throw reader.syntaxError("A JSON object must begin with '{'");
+        }
+        JSONObject object = reader.readObject(fields.length == 0 ? null : fields);
+        if (reader.nextClean() != -1) {
+            throw reader.syntaxError("Unexpected content after the JSON object");
+        }
+        return object;
+    }
+
+    /**
+     * Reads the rest of an object, after its opening brace
+     */
+    private JSONObject readObject(String[] fields) throws IOException {
+        JSONObject object = new JSONObject();
+        int c = nextClean();
+        if (c == '}') {
+            return object;
+        }
+        while (true) {
+            if (c != '"') {
+                throw syntaxError("Expected a field name");
+            }
+            readString();
+            if (nextClean() != ':') {
+                throw syntaxError("Expected ':' after a field name");
+            }
+
+            String field = fields == null ? text.toString() : match(fields);
+            if (field == null) {
+                skipValue(nextClean());
+            } else {
+                object.put(field, readValue(nextClean()));
+            }
+
+            c = nextClean();
+            if (c == '}') {
+                return object;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+            c = nextClean();
+        }
+    }
+
+    /**
+     * Reads the rest of an array, after its opening bracket
+     */
+    private JSONArray readArray() throws IOException {
+        JSONArray array = new JSONArray();
+        int c = nextClean();
+        if (c == ']') {
+            return array;
+        }
+        while (true) {
+            array.put(readValue(c));
+
+            c = nextClean();
+            if (c == ']') {
+                return array;
+            }
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+            c = nextClean();
+        }
+    }
+
+    /**
+     * Reads a value whose first character was already read
+     */
+    private Object readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return readObject(null);
+            case '[':
+                return readArray();
+            case '"':
+                readString();
+                return text.toString();
+            default:
+                readLiteral(c);
+                Object value = JSONObject.stringToValue(text.toString());
+                if (value instanceof String) {
+                    throw syntaxError("Invalid value " + value);
+                }
+                return value;
+        }
+    }
+
+    /**
+     * Skips a value whose first character was already read
+     */
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = read();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c == -1) {
+                    throw syntaxError("Unterminated object or array");
+                }
+            }
+        } else {
+            while (!isDelimiter(c)) {
+                c = read();
+            }
+            back(c);
+        }
+    }
+
+    /**
+     * Reads the rest of a string, after its opening quote, into {@link #text}
+     */
+    private void readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        text.append((char) (hex() << 12 | hex() << 8 | hex() << 4 | hex()));
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) c);
+                        break;
+                    default:
+                        throw syntaxError("Invalid escape sequence");
+                }
+            } else if (c < ' ') {
+                throw syntaxError(c == -1 ? "Unterminated string" : "Unescaped control character in string");
+            } else if (c < 0x80) {
+                text.append((char) c);
+            } else if (c >= 0xC2 && c < 0xE0) {
+                text.append((char) ((c & 0x1F) << 6 | continuation()));
+            } else if (c >= 0xE0 && c < 0xF0) {
+                text.append((char) ((c & 0x0F) << 12 | continuation() << 6 | continuation()));
+            } else if (c >= 0xF0 && c < 0xF5) {
+                text.appendCodePoint((c & 0x07) << 18 | continuation() << 12 | continuation() << 6 | continuation());
+            } else {
+                throw syntaxError("Invalid UTF-8 byte in string");
+            }
+        }
+    }
+
+    /**
+     * Reads a continuation byte of a multi-byte UTF-8 sequence
+     *
+     * @return {@code int} with the 6 bits the byte carries
+     */
+    private int continuation() throws IOException {
+        int c = read();
+        if ((c & 0xC0) != 0x80) {
+            throw syntaxError("Invalid UTF-8 sequence in string");
+        }
+        return c & 0x3F;
+    }
+
+    /**
+     * Skips the rest of a string, after its opening quote. Bytes of multi-byte UTF-8 sequences are never quotes or
+     * backslashes, so they are skipped like any other byte.
+     */
+    private void skipString() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                c = read();
+            }
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Reads a number, {@code true}, {@code false} or {@code null} into {@link #text}
+     */
+    private void readLiteral(int c) throws IOException {
+        text.setLength(0);
+        while (!isDelimiter(c)) {
+            text.append((char) c);
+            c = read();
+        }
+        back(c);
+        if (text.length() == 0) {
+            throw syntaxError("Expected a value");
+        }
+    }
+
+    private int hex() throws IOException {
+        int c = read();
+        int digit = Character.digit(c, 16);
+        if (c == -1 || digit < 0) {
+            throw syntaxError("Invalid unicode escape sequence");
+        }
+        return digit;
+    }
+
+    /**
+     * @return {@code String} of the fields to keep equal to the field name in {@link #text}, or {@code null} if it
+     * isn't one of them
+     */
+    private String match(String[] fields) {
+        for (String field : fields) {
+            if (field.contentEquals(text)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == -1;
+    }
+
+    private int nextClean() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            int read = in.read(buffer);
+            if (read <= 0) {
+                return -1;
+            }
+            offset += limit;
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Steps back the byte just read, so it is read again. The end of the input doesn't need it.
+     */
+    private void back(int c) {
+        if (c != -1) {
+            position--;
+        }
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte " + (offset + position));
+    }
+}
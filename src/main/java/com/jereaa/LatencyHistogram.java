@@ -0,0 +1,142 @@
+package com.jereaa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies, in microseconds, with buckets that grow exponentially: each power of two is split in 16
+ * buckets, so any percentile is off by at most 1/16 (about 6%) of its value, from one microsecond to centuries.
+ * <p>
+ * Recording a latency increments a single bucket of a fixed array, so it takes no lock and allocates nothing.
+ * Percentiles are calculated when a {@link Snapshot} is taken.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency
+     *
+     * @param nanos {@code long} latency in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(index(micros));
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Takes a snapshot of the histogram. Latencies recorded while the snapshot is taken may or may not be included.
+     *
+     * @return {@link Snapshot} of the histogram
+     */
+    Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        return new Snapshot(snapshot, count, sum.sum(), max.get());
+    }
+
+    /**
+     * @param micros {@code long} non-negative latency in microseconds
+     * @return {@code int} index of the bucket the latency belongs to
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index {@code int} index of a bucket
+     * @return {@code long} highest latency, in microseconds, that belongs to the bucket
+     */
+    static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Latencies recorded at a given moment
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @param quantile {@code double} between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return {@code long} latency in microseconds below which the given fraction of the latencies are, or 0 if
+         * there are none
+         */
+        long getValueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return {@code long} number of latencies recorded
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return {@code long} sum of the latencies recorded, in microseconds
+         */
+        long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return {@code long} highest latency recorded, in microseconds
+         */
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @return {@code double} average latency, in microseconds, or 0 if there are none
+         */
+        double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Adds the country of the client to every line of a log file, e.g. an access log with the IP in its first column.
+ * <p>
+ * The file is memory-mapped and split into chunks that end at a line break. Chunks are parsed and formatted in
+ * parallel by a {@link ForkJoinPool} with one thread per core, and each distinct IP of a chunk is looked up only once
+ * by a separate pool of workers, so the cores are never blocked waiting for the providers. Only a window of twice the
+ * number of threads is in progress at any time, so memory stays bounded no matter how big the file is, and chunks are
+ * written in the same order as the file.
+ */
+public class LogEnricher {
+
+    /**
+     * Format of the enriched lines
+     */
+    public enum Format {
+        /**
+         * The original line followed by the country code, country name, currency code and distance in kilometers,
+         * separated by the separator of the log. Lines we couldn't get any info on get empty fields.
+         */
+        CSV,
+        /**
+         * One JSON object per line, with the fields of {@link IpReport#toJSON()} and the original line in
+         * {@code line}. Lines we couldn't get any info on get an {@code error} field instead.
+         */
+        NDJSON
+    }
+
+    private static final class Chunk {
+        private final ByteBuffer data;
+        private int[] starts = new int[256];
+        private int[] ends = new int[256];
+        private String[] ips = new String[256];
+        private int lines;
+        private final Map<String, CompletableFuture<IpReport>> lookups = new HashMap<>();
+
+        private Chunk(ByteBuffer data) {
+            this.data = data;
+        }
+
+        private void add(int start, int end, String ip) {
+            if (lines == starts.length) {
+                starts = Arrays.copyOf(starts, lines * 2);
+                ends = Arrays.copyOf(ends, lines * 2);
+                ips = Arrays.copyOf(ips, lines * 2);
+            }
+            starts[lines] = start;
+            ends[lines] = end;
+            ips[lines] = ip;
+            lines++;
+        }
+    }
+
+    private final Predicate<String> validIp;
+    private final Function<String, IpReport> lookup;
+    private final int column;
+    private final byte separator;
+    private final Format format;
+    private final int chunkBytes;
+    private final int threads;
+    private final int workers;
+
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+
+    /**
+     * @param ippi {@link Ippi} instance used for every lookup
+     * @param column {@code int} index of the column with the IP, starting at {@code 0}
+     * @param separator {@code char} separating the columns of the log, e.g. {@code ' '} or {@code ','}
+     * @param format {@link Format} of the enriched lines
+     * @param chunkBytes {@code int} approximate size of the chunks the file is split into
+     * @param threads {@code int} number of threads parsing and formatting chunks
+     * @param workers {@code int} number of lookups in progress at once
+     */
+    public LogEnricher(Ippi ippi, int column, char separator, Format format, int chunkBytes, int threads,
+                       int workers) {
+        this(ippi::isValidIp, ip -> ippi.report(ip, Ippi.Priority.BATCH), column, separator, format, chunkBytes,
+                threads, workers);
+    }
+
+    LogEnricher(Predicate<String> validIp, Function<String, IpReport> lookup, int column, char separator,
+                Format format, int chunkBytes, int threads, int workers) {
+        if (column < 0) {
+            throw new IllegalArgumentException("Invalid column: " + column);
+        }
+        if (separator == 0 || separator > 0x7F || separator == '\n' || separator == '\r' || separator == '"') {
+            throw new IllegalArgumentException("Invalid separator: " + separator);
+        }
+        this.validIp = validIp;
+        this.lookup = lookup;
+        this.column = column;
+        this.separator = (byte) separator;
+        this.format = format;
+        this.chunkBytes = Math.max(1, chunkBytes);
+        this.threads = Math.max(1, threads);
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Enriches every line of a file and writes the results to the output. Empty lines are skipped.
+     *
+     * @param input {@link Path} of the log file
+     * @param output {@link OutputStream} to which the enriched lines are written. It is flushed, but not closed, at
+     *               the end
+     * @throws IOException in case the file can't be read or mapped, or the output can't be written
+     */
+    public void run(Path input, OutputStream output) throws IOException {
+        lines.reset();
+        invalid.reset();
+        failed.reset();
+        lookups.reset();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ForkJoinPool parsers = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ippi-enrich-parser-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        ExecutorService lookupPool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "ippi-enrich-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int window = threads * 2;
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>(window);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                // Write everything that is already done, and wait for the oldest chunk if the window is full
+                while (!pending.isEmpty() && (pending.size() >= window || pending.peekFirst().isDone())) {
+                    write(output, pending.pollFirst());
+                }
+                MappedByteBuffer data = nextChunk(channel, position, size);
+                position += data.limit();
+                pending.addLast(CompletableFuture.supplyAsync(() -> parse(data, lookupPool), parsers)
+                        .thenCompose(chunk -> CompletableFuture.allOf(chunk.lookups.values()
+                                .toArray(new CompletableFuture<?>[0]))
+                                .thenApplyAsync(done -> format(chunk), parsers)));
+            }
+            while (!pending.isEmpty()) {
+                write(output, pending.pollFirst());
+            }
+        } finally {
+            parsers.shutdownNow();
+            lookupPool.shutdownNow();
+            output.flush();
+        }
+    }
+
+    /**
+     * @return {@code long} number of non-empty lines read in the last run
+     */
+    public long getLines() {
+        return lines.sum();
+    }
+
+    /**
+     * @return {@code long} number of lines without a valid IP in the last run
+     */
+    public long getInvalid() {
+        return invalid.sum();
+    }
+
+    /**
+     * @return {@code long} number of lines with a valid IP we couldn't get any info on in the last run
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * @return {@code long} number of lookups made in the last run, one per distinct IP of each chunk
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * Maps the next chunk of the file, ending it at the last line break within the chunk size. Lines longer than the
+     * chunk size get a chunk of their own.
+     */
+    private MappedByteBuffer nextChunk(FileChannel channel, long position, long size) throws IOException {
+        long length = Math.min(chunkBytes, size - position);
+        while (true) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (position + length == size) {
+                return data;
+            }
+            for (int i = (int) length - 1; i >= 0; i--) {
+                if (data.get(i) == '\n') {
+                    data.limit(i + 1);
+                    return data;
+                }
+            }
+            if (length == Integer.MAX_VALUE) {
+                throw new IOException("Line too long at byte " + position);
+            }
+            length = Math.min(Math.min(length * 2, size - position), Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Splits a chunk into lines, extracts their IPs and starts one lookup per distinct valid IP
+     */
+    private Chunk parse(ByteBuffer data, ExecutorService lookupPool) {
+        Chunk chunk = new Chunk(data);
+        int limit = data.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && data.get(end) != '\n') {
+                end++;
+            }
+            int next = end + 1;
+            if (end > start && data.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > start) {
+                chunk.add(start, end, ip(chunk, start, end, lookupPool));
+            }
+            start = next;
+        }
+        lines.add(chunk.lines);
+        return chunk;
+    }
+
+    /**
+     * @return {@code String} with the IP of the line, or {@code null} if the line has no valid IP
+     */
+    private String ip(Chunk chunk, int start, int end, ExecutorService lookupPool) {
+        ByteBuffer data = chunk.data;
+        int from = start;
+        for (int i = 0; i < column && from <= end; i++) {
+            while (from < end && data.get(from) != separator) {
+                from++;
+            }
+            from++;
+        }
+        if (from > end) {
+            invalid.increment();
+            return null;
+        }
+        int to = from;
+        while (to < end && data.get(to) != separator) {
+            to++;
+        }
+        if (to - from >= 2 && data.get(from) == '"' && data.get(to - 1) == '"') {
+            from++;
+            to--;
+        }
+
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = data.get(from + i);
+        }
+        String ip = new String(bytes, StandardCharsets.ISO_8859_1);
+        if (chunk.lookups.containsKey(ip)) {
+            return ip;
+        }
+        if (!validIp.test(ip)) {
+            invalid.increment();
+            return null;
+        }
+        lookups.increment();
+        chunk.lookups.put(ip, CompletableFuture.supplyAsync(() -> lookup.apply(ip), lookupPool));
+        return ip;
+    }
+
+    /**
+     * Writes the enriched lines of a chunk whose lookups are done
+     */
+    private byte[] format(Chunk chunk) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(chunk.data.limit() + chunk.lines * 64);
+        byte[] line = new byte[256];
+        StringBuilder sb = new StringBuilder(512);
+        for (int i = 0; i < chunk.lines; i++) {
+            int length = chunk.ends[i] - chunk.starts[i];
+            if (line.length < length) {
+                line = new byte[Math.max(length, line.length * 2)];
+            }
+            ByteBuffer data = chunk.data.duplicate();
+            data.position(chunk.starts[i]);
+            data.get(line, 0, length);
+
+            String ip = chunk.ips[i];
+            IpReport report = ip == null ? null : chunk.lookups.get(ip).join();
+            if (ip != null && report == null) {
+                failed.increment();
+            }
+
+            sb.setLength(0);
+            if (format == Format.CSV) {
+                out.write(line, 0, length);
+                appendCsv(report, sb);
+            } else {
+                appendJson(ip, report, new String(line, 0, length, StandardCharsets.UTF_8), sb);
+            }
+            sb.append('\n');
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private void appendCsv(IpReport report, StringBuilder sb) {
+        char separator = (char) this.separator;
+        if (report == null) {
+            sb.append(separator).append(separator).append(separator).append(separator);
+            return;
+        }
+        sb.append(separator);
+        appendCsvField(report.getCountryCode(), sb);
+        sb.append(separator);
+        appendCsvField(report.getCountryName(), sb);
+        sb.append(separator);
+        if (report.hasCountryInfo()) {
+            appendCsvField(report.getCurrencyCode(), sb);
+            sb.append(separator).append(Math.round(report.getDistance()));
+        } else {
+            sb.append(separator);
+        }
+    }
+
+    /**
+     * Appends a field, quoting it if it holds the separator, quotes or line breaks
+     */
+    private void appendCsvField(String value, StringBuilder sb) {
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == separator || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    private static void appendJson(String ip, IpReport report, String line, StringBuilder sb) {
+        if (report != null) {
+            try {
+                report.writeJson(sb);
+            } catch (IOException e) {
+                // StringBuilder never fails
+                throw new IllegalStateException(e);
+            }
+            // Add the line as the last field of the object
+            sb.setLength(sb.length() - 1);
+            sb.append(',');
+        } else {
+            sb.append('{');
+            if (ip != null) {
+                sb.append("\"ip\":").append(JSONObject.quote(ip)).append(",\"error\":")
+                        .append(JSONObject.quote("Couldn't get any information on the IP")).append(',');
+            } else {
+                sb.append("\"error\":").append(JSONObject.quote("Invalid IP")).append(',');
+            }
+        }
+        sb.append("\"line\":").append(JSONObject.quote(line)).append('}');
+    }
+
+    private static void write(OutputStream output, CompletableFuture<byte[]> chunk) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = chunk.join();
+        } catch (CompletionException e) {
+            throw new IOException("Lookup failed unexpectedly", e.getCause());
+        }
+        output.write(bytes);
+    }
+}
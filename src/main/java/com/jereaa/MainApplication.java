@@ -1,115 +1,266 @@
 package com.jereaa;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import javax.management.JMException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
 
 public class MainApplication {
 
     public static void main(String... args) {
 
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("enrich")) {
+            enrich(args);
+            return;
+        }
+
         if (args.length != 1) {
-            System.err.println("Incorrect arguments. Please provide the IP address to investigate as the only argument.");
+            System.err.println("Incorrect arguments. Please provide the IP address to investigate as the only argument, \"serve [port]\" to start the HTTP server, \"batch [file] [--unordered] [--stats]\" to investigate a list of IPs or \"enrich <file> [--column n] [--separator c] [--format csv|ndjson]\" to add the country to every line of a log.");
             return;
         }
 
         String ip = args[0];
-        Ippi ippi = new Ippi();
 
-        if (!ippi.isValidIp(ip)) {
+        // Checked before anything is set up, so an invalid IP doesn't load the countries or start any thread
+        if (!IpAddresses.isValid(ip)) {
             System.err.println(String.format("Invalid IP. The IP %s is not a valid IP address. Please provide a valid IP address.", ip));
             return;
         }
 
-        System.out.println("Investigating IP, please wait a moment...");
-        JSONObject result = ippi.investigateIp(ip);
-        if (result != null) {
-            printResult(result);
+        try (Ippi ippi = new Ippi()) {
+            System.out.println("Investigating IP, please wait a moment...");
+            IpReport report = ippi.report(ip);
+            if (report != null) {
+                printResult(report);
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't close the HTTP client. " + e.getMessage());
         }
     }
 
     /**
-     * Prints JSON obtained from IP investigation into the console.
+     * Starts the HTTP server and keeps running until the process is stopped.
      *
-     * @param result JSON obtained from our IP investigation.
+     * @param args command line arguments: {@code serve [port]}
      */
-    private static void printResult(JSONObject result) {
-        if (result == null) {
+    private static void serve(String... args) {
+        int port = Config.getInt("ippi.server.port", 8080);
+        if (args.length > 2) {
+            System.err.println("Incorrect arguments. Usage: serve [port]");
             return;
         }
+        if (args.length == 2) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                System.err.println(String.format("Invalid port. %s is not a valid port number.", args[1]));
+                return;
+            }
+        }
 
-        StringBuilder sb = new StringBuilder();
+        int workers = Config.getInt("ippi.server.workers", Runtime.getRuntime().availableProcessors() * 2);
+        Ippi ippi = new Ippi();
+        try {
+            registerMBeans(ippi);
+            IppiServer server = new IppiServer(ippi, port, workers);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                close(ippi);
+            }));
+            System.out.println(String.format("Listening on port %d. Try GET http://localhost:%d/ip/[IP Address]", server.getPort(), server.getPort()));
+        } catch (IOException e) {
+            System.err.println("Couldn't start the server. " + e.getMessage());
+            close(ippi);
+        }
+    }
 
-        // IP to investigate
-        sb.append("IP to investigate: ");
-        sb.append(result.getString("ip"));
+    /**
+     * Closes an instance, stopping its threads and flushing its caches. Failing to do so is only reported.
+     *
+     * @param ippi {@link Ippi} to close
+     */
+    private static void close(Ippi ippi) {
+        try {
+            ippi.close();
+        } catch (IOException e) {
+            System.err.println("Couldn't close the lookups cleanly. " + e.getMessage());
+        }
+    }
 
-        // Current time
-        sb.append("\nCurrent local time: ");
-        sb.append(LocalTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss")));
+    /**
+     * Investigates the IPs in a file, or in the standard input, and prints one JSON per line.
+     *
+     * @param args command line arguments: {@code batch [file|-] [--unordered] [--stats]}
+     */
+    private static void batch(String... args) {
+        String file = "-";
+        boolean ordered = true;
+        boolean printStats = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--unordered")) {
+                ordered = false;
+            } else if (args[i].equals("--stats")) {
+                printStats = true;
+            } else if (i == 1) {
+                file = args[i];
+            } else {
+                System.err.println("Incorrect arguments. Usage: batch [file|-] [--unordered] [--stats]");
+                return;
+            }
+        }
 
-        // IP's Country info
-        sb.append("\nCountry: ");
-        sb.append(result.getString("countryName"));
-        sb.append("\nISO Code: ");
-        sb.append(result.getString("countryCode"));
+        int workers = Config.getInt("ippi.batch.workers", Runtime.getRuntime().availableProcessors() * 8);
+        Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        long start = System.nanoTime();
+        BatchRunner runner;
 
-        if (result.has("languages")) {
+        try (Ippi ippi = new Ippi();
+             BufferedReader input = file.equals("-")
+                     ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                     : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            registerMBeans(ippi);
+            runner = new BatchRunner(ippi, workers, ordered);
+            runner.run(input, output);
+            if (printStats) {
+                System.err.println(ippi.getStats().snapshot());
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't investigate the IPs. " + e.getMessage());
+            return;
+        }
 
-            // Languages
-            sb.append("\nLanguages: ");
-            JSONArray languages = result.getJSONArray("languages");
+        System.err.println(String.format("Investigated %d IPs (%d invalid, %d without info) in %.1f seconds.",
+                runner.getTotal(), runner.getInvalid(), runner.getFailed(), (System.nanoTime() - start) / 1e9));
+    }
 
-            for (int i = 0; i < languages.length(); i++) {
-                if (i > 0) {
-                    sb.append(", ");
+    /**
+     * Adds the country of the client to every line of a log file and prints the enriched lines.
+     *
+     * @param args command line arguments: {@code enrich <file> [--column n] [--separator c] [--format csv|ndjson]
+     *             [--stats]}
+     */
+    private static void enrich(String... args) {
+        String usage = "Incorrect arguments. Usage: enrich <file> [--column n] [--separator c] [--format csv|ndjson] [--stats]";
+        String file = null;
+        int column = 0;
+        char separator = ' ';
+        LogEnricher.Format format = LogEnricher.Format.CSV;
+        boolean printStats = false;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("--stats")) {
+                    printStats = true;
+                } else if (args[i].equals("--column") && i + 1 < args.length) {
+                    column = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--separator") && i + 1 < args.length) {
+                    String value = args[++i];
+                    if (value.equals("\\t")) {
+                        value = "\t";
+                    }
+                    if (value.length() != 1) {
+                        throw new IllegalArgumentException("The separator must be a single character");
+                    }
+                    separator = value.charAt(0);
+                } else if (args[i].equals("--format") && i + 1 < args.length) {
+                    format = LogEnricher.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                } else if (i == 1) {
+                    file = args[i];
+                } else {
+                    throw new IllegalArgumentException(usage);
                 }
-                JSONObject lang = languages.getJSONObject(i);
-                sb.append(lang.getString("name"));
-                sb.append(" (");
-                sb.append(lang.getString("code"));
-                sb.append(')');
             }
+            if (file == null || file.equals("-")) {
+                throw new IllegalArgumentException("The log must be a file, the standard input can't be mapped");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage().equals(usage) ? usage : usage + ". " + e.getMessage() + ".");
+            return;
+        }
 
-            // Local times
-            sb.append("\nLocal times: ");
-            JSONArray times = result.getJSONArray("times");
+        int threads = Config.getInt("ippi.enrich.threads", Runtime.getRuntime().availableProcessors());
+        int chunkBytes = Config.getInt("ippi.enrich.chunkBytes", 1 << 20);
+        int workers = Config.getInt("ippi.batch.workers", Runtime.getRuntime().availableProcessors() * 8);
+        OutputStream output = new BufferedOutputStream(System.out, 1 << 16);
+        long start = System.nanoTime();
+        LogEnricher enricher;
 
-            for (int i = 0; i < times.length(); i++) {
-                if (i > 0) {
-                    sb.append(", ");
-                }
-                sb.append(times.getString(i));
+        try (Ippi ippi = new Ippi()) {
+            registerMBeans(ippi);
+            enricher = new LogEnricher(ippi, column, separator, format, chunkBytes, threads, workers);
+            enricher.run(Paths.get(file), output);
+            if (printStats) {
+                System.err.println(ippi.getStats().snapshot());
             }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Couldn't enrich the log. " + e.getMessage());
+            return;
+        }
 
-            // Estimated distance from Argentina
-            sb.append("\nEstimated distance from Argentina: ");
-            sb.append(result.getDouble("distance"));
-            sb.append(" km");
-
-            // Currency
-            String currencyCode = result.getString("currencyCode");
-            sb.append("\nCurrency: ");
-            sb.append(currencyCode);
-
-            String fromUSD = "USD_" + currencyCode;
-            String toUSD = currencyCode + "_USD";
-            if (result.has(fromUSD)) {
-                sb.append(" (1 ");
-                sb.append(currencyCode);
-                sb.append(" = ");
-                sb.append(result.getDouble(toUSD));
-                sb.append(" --- 1 USD = ");
-                sb.append(result.getDouble(fromUSD));
-                sb.append(' ');
-                sb.append(currencyCode);
-                sb.append(')');
-            }
+        System.err.println(String.format("Enriched %d lines with %d lookups (%d without IP, %d without info) in %.1f seconds.",
+                enricher.getLines(), enricher.getLookups(), enricher.getInvalid(), enricher.getFailed(),
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Exposes the metrics of an instance through JMX. Failing to do so doesn't stop the lookups.
+     *
+     * @param ippi {@link Ippi} whose metrics are exposed
+     */
+    private static void registerMBeans(Ippi ippi) {
+        try {
+            ippi.getMetrics().registerMBeans();
+        } catch (JMException e) {
+            System.err.println("Couldn't register the JMX metrics. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the report obtained from IP investigation into the console.
+     *
+     * @param report report obtained from our IP investigation.
+     */
+    private static void printResult(IpReport report) {
+        if (report == null) {
+            return;
         }
 
-        sb.append('\n');
-        System.out.println(sb.toString());
+        System.out.println(formatResult(report));
+    }
+
+    /**
+     * Formats the report obtained from IP investigation as the text printed into the console.
+     *
+     * @param report report obtained from our IP investigation.
+     * @return {@code String} with the text to print
+     */
+    static String formatResult(IpReport report) {
+        StringBuilder sb = new StringBuilder(256);
+        try {
+            report.writeText(sb);
+        } catch (IOException e) {
+            // StringBuilder never fails
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
     }
 }
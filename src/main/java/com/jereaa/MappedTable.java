@@ -0,0 +1,339 @@
+package com.jereaa;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Hash table of {@code String} keys to byte values with expiration times, stored in a memory-mapped file so it is
+ * shared by every process using the same file.
+ * <p>
+ * The file has a fixed number of slots of a fixed size, so it never grows or needs compacting. Each key is stored
+ * in one of {@value #PROBES} slots after the one its hash points to; when all of them are taken, the one expiring
+ * first is overwritten. Entries too big for a slot are not stored.
+ * <p>
+ * Every slot holds a CRC32 of its contents. Writers hold an exclusive lock on the file while they write, but readers
+ * take no lock at all: a slot read while another process writes it fails its checksum and is treated as missing.
+ * <p>
+ * A file is never truncated or resized once created, since other processes may have it mapped: tables with another
+ * version or size are stored in another file, and an invalid file is replaced by renaming a new one over it.
+ */
+final class MappedTable implements Closeable {
+
+    private static final int MAGIC = 0x49505049;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 64;
+
+    /**
+     * Slot layout: CRC32 of the rest of the slot, expiration time in epoch milliseconds, key length, value length,
+     * key and value
+     */
+    private static final int CRC = 0;
+    private static final int EXPIRES_AT = 4;
+    private static final int KEY_LENGTH = 12;
+    private static final int VALUE_LENGTH = 14;
+    private static final int SLOT_HEADER = 16;
+
+    private static final int PROBES = 8;
+
+    /**
+     * File locks are held by the whole JVM, and trying to take one already held by another thread fails instead of
+     * waiting, so writers in this process take turns before locking the file
+     */
+    private static final Object PROCESS_LOCK = new Object();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int slotSize;
+
+    private MappedTable(FileChannel channel, MappedByteBuffer buffer, int slots, int slotSize) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.slots = slots;
+        this.slotSize = slotSize;
+    }
+
+    /**
+     * Opens a table, creating its file if it doesn't exist. The file is named after the table's version and size, e.g.
+     * {@code ip-countries.cache.v1-65536x128} for {@code ip-countries.cache}, so processes opening the table with
+     * another size use their own file.
+     *
+     * @param file {@link Path} of the file, before adding the version and size
+     * @param slots {@code int} number of slots
+     * @param slotSize {@code int} bytes per slot, up to 64KB. Entries bigger than it minus 16 bytes are not stored
+     * @return {@link MappedTable} opened
+     * @throws IOException in case the file can't be created, read or mapped
+     */
+    static MappedTable open(Path file, int slots, int slotSize) throws IOException {
+        if (slots <= 0 || slotSize <= SLOT_HEADER || slotSize > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid table size: " + slots + " slots of " + slotSize + " bytes");
+        }
+        long size = FILE_HEADER + (long) slots * slotSize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table too big: " + size + " bytes");
+        }
+
+        Path path = path(file, slots, slotSize);
+        Path lock = file.resolveSibling(file.getFileName() + ".lock");
+        synchronized (PROCESS_LOCK) {
+            // Processes opening the table take turns, so only one of them creates the file
+            try (FileChannel lockChannel = FileChannel.open(lock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                FileChannel channel = openValid(path, slots, slotSize, size);
+                if (channel == null) {
+                    create(path, slots, slotSize, size);
+                    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                try {
+                    return new MappedTable(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), slots,
+                            slotSize);
+                } catch (IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file {@link Path} of the file, before adding the version and size
+     * @param slots {@code int} number of slots
+     * @param slotSize {@code int} bytes per slot
+     * @return {@link Path} of the file holding the table
+     */
+    static Path path(Path file, int slots, int slotSize) {
+        return file.resolveSibling(String.format("%s.v%d-%dx%d", file.getFileName(), VERSION, slots, slotSize));
+    }
+
+    /**
+     * @return {@link FileChannel} of the file, or {@code null} if it doesn't exist or it isn't a table of this size
+     */
+    private static FileChannel openValid(Path path, int slots, int slotSize, long size) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            channel.read(header, 0);
+            header.flip();
+            if (channel.size() == size && header.remaining() == 16 && header.getInt() == MAGIC
+                    && header.getInt() == VERSION && header.getInt() == slots && header.getInt() == slotSize) {
+                return channel;
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Writes an empty table to a temporary file and renames it to the path of the table, so processes that have an
+     * invalid file at that path mapped keep using it until they reopen the table
+     */
+    private static void create(Path path, int slots, int slotSize, long size) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                // Every slot reads as empty, since the file is extended with zeros
+                ByteBuffer header = ByteBuffer.allocate(16);
+                header.putInt(MAGIC).putInt(VERSION).putInt(slots).putInt(slotSize).flip();
+                channel.write(header, 0);
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @param key {@code String} key of the entry
+     * @return {@code byte[]} value of the entry, or {@code null} if there is none, it expired or it is being written
+     */
+    byte[] get(String key) {
+        return get(key, false);
+    }
+
+    /**
+     * @param key {@code String} key of the entry
+     * @param expired {@code true} to also return the entry if it expired
+     * @return {@code byte[]} value of the entry, or {@code null} if there is none, it expired and expired entries
+     * weren't asked for, or it is being written
+     */
+    byte[] get(String key, boolean expired) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer view = buffer.duplicate();
+        long now = System.currentTimeMillis();
+
+        int start = slot(keyBytes);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int offset = offset((start + probe) % slots);
+            int keyLength = view.getShort(offset + KEY_LENGTH) & 0xFFFF;
+            if (keyLength == 0) {
+                // Slots are never emptied, so the key can't be in any of the following ones
+                return null;
+            }
+            if (keyLength != keyBytes.length) {
+                continue;
+            }
+
+            byte[] slot = read(view, offset);
+            if (slot == null || !matches(slot, keyBytes)) {
+                continue;
+            }
+            if (!expired && ByteBuffer.wrap(slot).getLong(EXPIRES_AT) < now) {
+                return null;
+            }
+            return Arrays.copyOfRange(slot, SLOT_HEADER + keyLength, slot.length);
+        }
+        return null;
+    }
+
+    /**
+     * Stores an entry, replacing the previous value of the key
+     *
+     * @param key {@code String} key of the entry
+     * @param value {@code byte[]} value of the entry
+     * @param ttlMillis {@code long} milliseconds after which the entry expires
+     * @return {@code true} if the entry was stored, {@code false} if it is too big for a slot
+     * @throws IOException in case the file can't be locked
+     */
+    boolean put(String key, byte[] value, long ttlMillis) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = SLOT_HEADER + keyBytes.length + value.length;
+        if (keyBytes.length == 0 || length > slotSize) {
+            return false;
+        }
+
+        ByteBuffer slot = ByteBuffer.allocate(length);
+        slot.putLong(EXPIRES_AT, System.currentTimeMillis() + ttlMillis);
+        slot.putShort(KEY_LENGTH, (short) keyBytes.length);
+        slot.putShort(VALUE_LENGTH, (short) value.length);
+        slot.position(SLOT_HEADER);
+        slot.put(keyBytes).put(value);
+        slot.putInt(CRC, checksum(slot.array(), length));
+
+        synchronized (PROCESS_LOCK) {
+            try (FileLock ignored = channel.lock()) {
+                ByteBuffer view = buffer.duplicate();
+                view.position(offset(target(view, keyBytes)));
+                view.put(slot.array());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once the table is garbage collected.
+     *
+     * @throws IOException in case the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Chooses the slot an entry is written to: the one already holding the key, the first empty one, or the one
+     * expiring first
+     */
+    private int target(ByteBuffer view, byte[] keyBytes) {
+        int start = slot(keyBytes);
+        int oldest = start;
+        long oldestExpiresAt = Long.MAX_VALUE;
+
+        for (int probe = 0; probe < PROBES; probe++) {
+            int index = (start + probe) % slots;
+            int offset = offset(index);
+            if (view.getShort(offset + KEY_LENGTH) == 0) {
+                return index;
+            }
+            byte[] slot = read(view, offset);
+            if (slot == null) {
+                // Corrupt, e.g. a process died while writing it
+                return index;
+            }
+            if (matches(slot, keyBytes)) {
+                return index;
+            }
+            long expiresAt = ByteBuffer.wrap(slot).getLong(EXPIRES_AT);
+            if (expiresAt < oldestExpiresAt) {
+                oldest = index;
+                oldestExpiresAt = expiresAt;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Copies the contents of a slot
+     *
+     * @return {@code byte[]} with the slot, or {@code null} if its lengths are invalid or it fails its checksum
+     */
+    private byte[] read(ByteBuffer view, int offset) {
+        int length = SLOT_HEADER + (view.getShort(offset + KEY_LENGTH) & 0xFFFF)
+                + (view.getShort(offset + VALUE_LENGTH) & 0xFFFF);
+        if (length > slotSize) {
+            return null;
+        }
+        byte[] slot = new byte[length];
+        view.position(offset);
+        view.get(slot);
+
+        ByteBuffer copy = ByteBuffer.wrap(slot);
+        int copiedLength = SLOT_HEADER + (copy.getShort(KEY_LENGTH) & 0xFFFF) + (copy.getShort(VALUE_LENGTH) & 0xFFFF);
+        if (copiedLength != length || copy.getInt(CRC) != checksum(slot, length)) {
+            return null;
+        }
+        return slot;
+    }
+
+    private static boolean matches(byte[] slot, byte[] keyBytes) {
+        int keyLength = ByteBuffer.wrap(slot).getShort(KEY_LENGTH) & 0xFFFF;
+        if (keyLength != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (slot[SLOT_HEADER + i] != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int checksum(byte[] slot, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slot, EXPIRES_AT, length - EXPIRES_AT);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * FNV-1a hash of the key bytes, so every process finds a key in the same slots
+     */
+    private int slot(byte[] keyBytes) {
+        int hash = 0x811C9DC5;
+        for (byte b : keyBytes) {
+            hash = (hash ^ b) * 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % slots;
+    }
+
+    private int offset(int index) {
+        return FILE_HEADER + index * slotSize;
+    }
+}
@@ -0,0 +1,65 @@
+package com.jereaa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts events and their rate per second over the last minute, as an exponentially weighted moving average updated
+ * every 5 seconds.
+ * <p>
+ * There is no timer thread: the average is brought up to date by whichever call first notices that 5 seconds went
+ * by, so marking an event only adds to a {@link LongAdder} and reads a timestamp, without locks or allocations.
+ */
+final class Meter {
+
+    private static final long TICK_SECONDS = 5;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+    private static final double ALPHA = 1 - Math.exp(-TICK_SECONDS / 60.0);
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder uncounted = new LongAdder();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile double rate = Double.NaN;
+
+    /**
+     * Records an event
+     */
+    void mark() {
+        tickIfNecessary();
+        count.increment();
+        uncounted.increment();
+    }
+
+    /**
+     * @return {@code long} number of events recorded
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return {@code double} events per second over the last minute
+     */
+    double getRate() {
+        tickIfNecessary();
+        double rate = this.rate;
+        return Double.isNaN(rate) ? 0 : rate;
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long age = System.nanoTime() - oldTick;
+        if (age < TICK_NANOS) {
+            return;
+        }
+        // Only the thread that moves the tick forward updates the average, so it has a single writer
+        if (lastTick.compareAndSet(oldTick, oldTick + age - age % TICK_NANOS)) {
+            for (long ticks = age / TICK_NANOS; ticks > 0; ticks--) {
+                double instantRate = uncounted.sumThenReset() / (double) TICK_SECONDS;
+                double rate = this.rate;
+                this.rate = Double.isNaN(rate) ? instantRate : rate + ALPHA * (instantRate - rate);
+            }
+        }
+    }
+}
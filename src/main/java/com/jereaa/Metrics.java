@@ -0,0 +1,468 @@
+package com.jereaa;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Instrumentation of the lookups and of the requests to each upstream provider: latency histograms, outcome counters,
+ * cache hit ratios and lookups per second.
+ * <p>
+ * Recording only touches {@link LongAdder}s and fixed histogram buckets, so it takes no locks and allocates nothing.
+ * Metrics are exported as Prometheus text, see {@link #writePrometheus(Appendable)}, and through JMX once
+ * {@link #registerMBeans()} is called.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"P50", "P99", "P999"};
+    private static final LatencyHistogram NO_WAITS = new LatencyHistogram();
+
+    private static final class UpstreamMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder success = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder hedges = new LongAdder();
+        private final LongAdder shortCircuits = new LongAdder();
+        private CircuitBreaker breaker;
+        private UpstreamScheduler scheduler;
+
+        private long circuitOpen() {
+            return breaker != null && breaker.isOpen() ? 1 : 0;
+        }
+
+        private LatencyHistogram.Snapshot queueWaits() {
+            return scheduler == null ? NO_WAITS.snapshot() : scheduler.getWaits();
+        }
+
+        private long queued() {
+            return scheduler == null ? 0 : scheduler.getQueued();
+        }
+
+        private long throttled() {
+            return scheduler == null ? 0 : scheduler.getRejected();
+        }
+    }
+
+    private static final class CacheMetrics {
+        private final String name;
+        private final LongSupplier hits;
+        private final LongSupplier misses;
+
+        private CacheMetrics(String name, LongSupplier hits, LongSupplier misses) {
+            this.name = name;
+            this.hits = hits;
+            this.misses = misses;
+        }
+
+        private double hitRatio() {
+            long hits = this.hits.getAsLong();
+            long total = hits + misses.getAsLong();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private final Map<Upstream, UpstreamMetrics> upstreams = new EnumMap<>(Upstream.class);
+    private final LatencyHistogram lookupLatency = new LatencyHistogram();
+    private final Meter lookups = new Meter();
+    private final LongAdder partialLookups = new LongAdder();
+    private final LongAdder failedLookups = new LongAdder();
+    private final LongAdder staleLookups = new LongAdder();
+    private final List<CacheMetrics> caches = new CopyOnWriteArrayList<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    Metrics() {
+        for (Upstream upstream : Upstream.values()) {
+            upstreams.put(upstream, new UpstreamMetrics());
+        }
+    }
+
+    /**
+     * Adds a cache whose hit ratio is exported
+     *
+     * @param name {@code String} name of the cache in the metrics
+     * @param hits {@link LongSupplier} of the number of lookups answered from the cache
+     * @param misses {@link LongSupplier} of the number of lookups not answered from the cache
+     */
+    void addCache(String name, LongSupplier hits, LongSupplier misses) {
+        caches.add(new CacheMetrics(name, hits, misses));
+    }
+
+    /**
+     * Adds the circuit breaker of an upstream provider, whose state is exported
+     *
+     * @param upstream {@link Upstream} the circuit breaker belongs to
+     * @param breaker {@link CircuitBreaker} of the provider
+     */
+    void addCircuitBreaker(Upstream upstream, CircuitBreaker breaker) {
+        upstreams.get(upstream).breaker = breaker;
+    }
+
+    /**
+     * Adds the scheduler of an upstream provider, whose queue is exported
+     *
+     * @param upstream {@link Upstream} the scheduler belongs to
+     * @param scheduler {@link UpstreamScheduler} of the provider
+     */
+    void addScheduler(Upstream upstream, UpstreamScheduler scheduler) {
+        upstreams.get(upstream).scheduler = scheduler;
+    }
+
+    /**
+     * Records a hedged request, sent because the first one to the same URL was taking too long
+     *
+     * @param upstream {@link Upstream} the request was made to
+     */
+    void recordHedge(Upstream upstream) {
+        upstreams.get(upstream).hedges.increment();
+    }
+
+    /**
+     * Records a request skipped because the circuit of the provider was open
+     *
+     * @param upstream {@link Upstream} the request would have been made to
+     */
+    void recordShortCircuit(Upstream upstream) {
+        upstreams.get(upstream).shortCircuits.increment();
+    }
+
+    /**
+     * Records a request to an upstream provider that got a response
+     *
+     * @param upstream {@link Upstream} the request was made to
+     * @param nanos {@code long} nanoseconds the request took
+     * @param status {@code int} status code of the response
+     */
+    void recordResponse(Upstream upstream, long nanos, int status) {
+        UpstreamMetrics metrics = upstreams.get(upstream);
+        metrics.latency.record(nanos);
+        if (status >= 500) {
+            metrics.serverErrors.increment();
+        } else if (status >= 400) {
+            metrics.clientErrors.increment();
+        } else {
+            metrics.success.increment();
+        }
+    }
+
+    /**
+     * Records a request to an upstream provider that failed without a usable response
+     *
+     * @param upstream {@link Upstream} the request was made to
+     * @param nanos {@code long} nanoseconds the request took
+     * @param e {@link Throwable} the request failed with
+     */
+    void recordFailure(Upstream upstream, long nanos, Throwable e) {
+        UpstreamMetrics metrics = upstreams.get(upstream);
+        metrics.latency.record(nanos);
+        // Both connect and read timeouts are interrupted I/O
+        if (e instanceof InterruptedIOException) {
+            metrics.timeouts.increment();
+        } else {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * Records a lookup
+     *
+     * @param nanos {@code long} nanoseconds the lookup took
+     * @param report {@link IpReport} the lookup returned, or {@code null} if we couldn't get any info on the IP
+     */
+    void recordLookup(long nanos, IpReport report) {
+        lookups.mark();
+        lookupLatency.record(nanos);
+        if (report == null) {
+            failedLookups.increment();
+        } else if (!report.hasRates()) {
+            partialLookups.increment();
+        }
+        if (report != null && report.isStale()) {
+            staleLookups.increment();
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format. Latencies are in seconds.
+     *
+     * @param out {@link Appendable} to which the metrics are written
+     * @throws IOException in case the output can't be written
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        long lookupCount = lookups.getCount();
+        long partial = partialLookups.sum();
+        long failed = failedLookups.sum();
+
+        header(out, "ippi_lookups_total", "counter", "Lookups made, by result");
+        sample(out, "ippi_lookups_total{result=\"complete\"}", lookupCount - partial - failed);
+        sample(out, "ippi_lookups_total{result=\"partial\"}", partial);
+        sample(out, "ippi_lookups_total{result=\"failed\"}", failed);
+
+        header(out, "ippi_lookups_stale_total", "counter", "Lookups that used information kept from earlier lookups");
+        sample(out, "ippi_lookups_stale_total", staleLookups.sum());
+
+        header(out, "ippi_lookups_per_second", "gauge", "Lookups per second over the last minute");
+        sample(out, "ippi_lookups_per_second", lookups.getRate());
+
+        header(out, "ippi_lookup_duration_seconds", "summary", "Duration of the lookups");
+        summary(out, "ippi_lookup_duration_seconds", "", lookupLatency.snapshot());
+
+        header(out, "ippi_upstream_request_duration_seconds", "summary", "Duration of the requests to each upstream provider");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            summary(out, "ippi_upstream_request_duration_seconds", "upstream=\"" + entry.getKey().getKey() + "\",",
+                    entry.getValue().latency.snapshot());
+        }
+
+        header(out, "ippi_upstream_requests_total", "counter", "Requests to each upstream provider, by outcome");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            String prefix = "ippi_upstream_requests_total{upstream=\"" + entry.getKey().getKey() + "\",outcome=\"";
+            UpstreamMetrics metrics = entry.getValue();
+            sample(out, prefix + "success\"}", metrics.success.sum());
+            sample(out, prefix + "timeout\"}", metrics.timeouts.sum());
+            sample(out, prefix + "client_error\"}", metrics.clientErrors.sum());
+            sample(out, prefix + "server_error\"}", metrics.serverErrors.sum());
+            sample(out, prefix + "error\"}", metrics.errors.sum());
+        }
+
+        header(out, "ippi_upstream_hedged_requests_total", "counter",
+                "Second requests sent because the first one was taking too long");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            sample(out, "ippi_upstream_hedged_requests_total{upstream=\"" + entry.getKey().getKey() + "\"}",
+                    entry.getValue().hedges.sum());
+        }
+
+        header(out, "ippi_upstream_short_circuited_total", "counter", "Requests skipped because the circuit was open");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            sample(out, "ippi_upstream_short_circuited_total{upstream=\"" + entry.getKey().getKey() + "\"}",
+                    entry.getValue().shortCircuits.sum());
+        }
+
+        header(out, "ippi_upstream_circuit_open", "gauge", "1 while the circuit of the provider is open, 0 otherwise");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            sample(out, "ippi_upstream_circuit_open{upstream=\"" + entry.getKey().getKey() + "\"}",
+                    entry.getValue().circuitOpen());
+        }
+
+        header(out, "ippi_upstream_queue_wait_seconds", "summary",
+                "Time the requests to each upstream provider waited for its quota");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            summary(out, "ippi_upstream_queue_wait_seconds", "upstream=\"" + entry.getKey().getKey() + "\",",
+                    entry.getValue().queueWaits());
+        }
+
+        header(out, "ippi_upstream_queued", "gauge", "Requests waiting for the quota of the provider");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            sample(out, "ippi_upstream_queued{upstream=\"" + entry.getKey().getKey() + "\"}", entry.getValue().queued());
+        }
+
+        header(out, "ippi_upstream_throttled_total", "counter",
+                "Requests that failed because they waited too long for the quota of the provider, or its queue was full");
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            sample(out, "ippi_upstream_throttled_total{upstream=\"" + entry.getKey().getKey() + "\"}",
+                    entry.getValue().throttled());
+        }
+
+        header(out, "ippi_cache_requests_total", "counter", "Lookups in each cache, by result");
+        for (CacheMetrics cache : caches) {
+            sample(out, "ippi_cache_requests_total{cache=\"" + cache.name + "\",result=\"hit\"}", cache.hits.getAsLong());
+            sample(out, "ippi_cache_requests_total{cache=\"" + cache.name + "\",result=\"miss\"}", cache.misses.getAsLong());
+        }
+
+        header(out, "ippi_cache_hit_ratio", "gauge", "Fraction of the lookups in each cache answered from it");
+        for (CacheMetrics cache : caches) {
+            sample(out, "ippi_cache_hit_ratio{cache=\"" + cache.name + "\"}", cache.hitRatio());
+        }
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, under the {@code com.jereaa} domain: one MBean for the
+     * lookups, one per upstream provider and one per cache
+     *
+     * @throws JMException in case the MBeans can't be registered, e.g. because another instance already did
+     */
+    public synchronized void registerMBeans() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Map<ObjectName, MetricsMBean> beans = new LinkedHashMap<>();
+
+        beans.put(new ObjectName("com.jereaa:type=Lookups"), latencyAttributes(new MetricsMBean("Lookups")
+                .add("Count", "Lookups made", Long.class, lookups::getCount)
+                .add("Partial", "Lookups that only got part of the information", Long.class, partialLookups::sum)
+                .add("Failed", "Lookups that didn't get any information", Long.class, failedLookups::sum)
+                .add("Stale", "Lookups that used information kept from earlier lookups", Long.class, staleLookups::sum)
+                .add("PerSecond", "Lookups per second over the last minute", Double.class, lookups::getRate),
+                lookupLatency));
+
+        for (Map.Entry<Upstream, UpstreamMetrics> entry : upstreams.entrySet()) {
+            UpstreamMetrics metrics = entry.getValue();
+            beans.put(new ObjectName("com.jereaa:type=Upstream,name=" + entry.getKey().getKey()),
+                    latencyAttributes(new MetricsMBean("Requests to the " + entry.getKey().getKey() + " provider")
+                            .add("Success", "Requests answered with a successful status", Long.class, metrics.success::sum)
+                            .add("Timeouts", "Requests that timed out connecting or reading", Long.class, metrics.timeouts::sum)
+                            .add("ClientErrors", "Requests answered with a 4xx status", Long.class, metrics.clientErrors::sum)
+                            .add("ServerErrors", "Requests answered with a 5xx status", Long.class, metrics.serverErrors::sum)
+                            .add("Errors", "Requests that failed for any other reason", Long.class, metrics.errors::sum)
+                            .add("Hedges", "Second requests sent because the first one was taking too long", Long.class,
+                                    metrics.hedges::sum)
+                            .add("ShortCircuits", "Requests skipped because the circuit was open", Long.class,
+                                    metrics.shortCircuits::sum)
+                            .add("CircuitOpen", "Whether the circuit is open", Boolean.class,
+                                    () -> metrics.circuitOpen() == 1)
+                            .add("Queued", "Requests waiting for the quota of the provider", Long.class,
+                                    metrics::queued)
+                            .add("Throttled", "Requests that waited too long for the quota of the provider, or didn't fit in its queue", Long.class,
+                                    metrics::throttled)
+                            .add("QueueWaitP99Millis", "P99 of the time waited for the quota, in milliseconds",
+                                    Double.class, () -> metrics.queueWaits().getValueAt(0.99) / 1000.0),
+                            metrics.latency));
+        }
+
+        for (CacheMetrics cache : caches) {
+            beans.put(new ObjectName("com.jereaa:type=Cache,name=" + cache.name), new MetricsMBean("The " + cache.name + " cache")
+                    .add("Hits", "Lookups answered from the cache", Long.class, cache.hits::getAsLong)
+                    .add("Misses", "Lookups not answered from the cache", Long.class, cache.misses::getAsLong)
+                    .add("HitRatio", "Fraction of the lookups answered from the cache", Double.class, cache::hitRatio));
+        }
+
+        for (Map.Entry<ObjectName, MetricsMBean> bean : beans.entrySet()) {
+            server.registerMBean(bean.getValue(), bean.getKey());
+            registered.add(bean.getKey());
+        }
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #registerMBeans()}
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // Already gone
+            }
+        }
+        registered.clear();
+    }
+
+    private static MetricsMBean latencyAttributes(MetricsMBean bean, LatencyHistogram histogram) {
+        for (int i = 0; i < QUANTILES.length; i++) {
+            double quantile = QUANTILES[i];
+            bean.add(PERCENTILE_NAMES[i] + "Millis", PERCENTILE_NAMES[i] + " of the latency, in milliseconds",
+                    Double.class, () -> histogram.snapshot().getValueAt(quantile) / 1000.0);
+        }
+        return bean
+                .add("MeanMillis", "Average latency, in milliseconds", Double.class, () -> histogram.snapshot().getMean() / 1000)
+                .add("MaxMillis", "Highest latency, in milliseconds", Double.class, () -> histogram.snapshot().getMax() / 1000.0);
+    }
+
+    private static void header(Appendable out, String name, String type, String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, long value) throws IOException {
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static void sample(Appendable out, String name, double value) throws IOException {
+        out.append(name).append(' ').append(Double.toString(value)).append('\n');
+    }
+
+    /**
+     * Writes the quantiles, sum and count of a histogram, converted to seconds
+     *
+     * @param labels {@code String} with the labels shared by every sample, each one followed by a comma
+     */
+    private static void summary(Appendable out, String name, String labels, LatencyHistogram.Snapshot snapshot)
+            throws IOException {
+        for (double quantile : QUANTILES) {
+            sample(out, name + "{" + labels + "quantile=\"" + quantile + "\"}", snapshot.getValueAt(quantile) / 1e6);
+        }
+        String suffixLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        sample(out, name + "_sum" + suffixLabels, snapshot.getSum() / 1e6);
+        sample(out, name + "_count" + suffixLabels, snapshot.getCount());
+    }
+
+    /**
+     * Read-only MBean whose attributes are read from suppliers
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private final String description;
+        private final Map<String, Supplier<?>> values = new LinkedHashMap<>();
+        private final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+
+        private MetricsMBean(String description) {
+            this.description = description;
+        }
+
+        private MetricsMBean add(String name, String description, Class<?> type, Supplier<?> value) {
+            values.put(name, value);
+            attributes.add(new MBeanAttributeInfo(name, type.getName(), description, true, false, false));
+            return this;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Supplier<?> value = values.get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value.get();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Supplier<?> value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value.get()));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return new MBeanInfo(Metrics.class.getName(), description,
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.jereaa;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} with a pool of persistent connections per upstream provider, so consecutive requests to the
+ * same provider reuse connections instead of opening a new one, with its TLS handshake, every time.
+ * <p>
+ * Each provider gets its own client, configured from these system properties:
+ * <ul>
+ *     <li>{@code ippi.upstream.<name>.maxConnections}: connections kept open to the provider (20 by default)</li>
+ *     <li>{@code ippi.upstream.<name>.connectTimeoutMs}: maximum time to connect, or to wait for a connection from
+ *     the pool (5 seconds by default)</li>
+ *     <li>{@code ippi.upstream.<name>.readTimeoutMs}: maximum time without receiving data once connected
+ *     (10 seconds by default)</li>
+ *     <li>{@code ippi.upstream.<name>.ioThreads}: threads handling the provider's connections (1 by default)</li>
+ * </ul>
+ * Responses are requested compressed, and read whole before they are handed over.
+ * <p>
+ * A provider's client, with its I/O threads, is only created and started by its first request, so runs that never
+ * reach a provider, e.g. invalid IPs or lookups answered from the caches, don't pay for starting it.
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    // Written holding the lock, read without it once created
+    private final AtomicReferenceArray<CloseableHttpAsyncClient> clients =
+            new AtomicReferenceArray<>(Upstream.values().length);
+    private volatile boolean closed;
+
+    /**
+     * Creates a transport whose clients are configured from the system properties when they are first used
+     */
+    public PooledHttpTransport() {
+    }
+
+    @Override
+    public CompletableFuture<Response> get(Upstream upstream, String url) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        HttpGet request;
+        try {
+            request = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            response.completeExceptionally(new IOException("Invalid URL: " + url, e));
+            return response;
+        }
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+        CloseableHttpAsyncClient client = client(upstream);
+        if (client == null) {
+            response.completeExceptionally(new IOException("The transport is closed. URL: " + url));
+            return response;
+        }
+        client.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse result) {
+                try {
+                    response.complete(new Response(result.getStatusLine().getStatusCode(), body(result)));
+                } catch (IOException e) {
+                    response.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                response.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                response.completeExceptionally(new IOException("Request cancelled. URL: " + url));
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Closes every client and its connections
+     *
+     * @throws IOException in case a client couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        IOException failure = null;
+        for (int i = 0; i < clients.length(); i++) {
+            CloseableHttpAsyncClient client = clients.get(i);
+            if (client == null) {
+                continue;
+            }
+            try {
+                client.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return {@link CloseableHttpAsyncClient} of the provider, created and started if this is its first request, or
+     * {@code null} if the transport is closed
+     */
+    private CloseableHttpAsyncClient client(Upstream upstream) {
+        CloseableHttpAsyncClient client = clients.get(upstream.ordinal());
+        if (client != null && !closed) {
+            return client;
+        }
+        synchronized (this) {
+            if (closed) {
+                return null;
+            }
+            client = clients.get(upstream.ordinal());
+            if (client != null) {
+                return client;
+            }
+            client = start(upstream);
+            clients.set(upstream.ordinal(), client);
+            return client;
+        }
+    }
+
+    /**
+     * Creates and starts the client of a provider, configured from the system properties
+     */
+    private static CloseableHttpAsyncClient start(Upstream upstream) {
+        int connectTimeout = Config.getInt(upstream.property("connectTimeoutMs"), 5000);
+        int maxConnections = Config.getInt(upstream.property("maxConnections"), 20);
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setConnectionRequestTimeout(connectTimeout)
+                        .setSocketTimeout(Config.getInt(upstream.property("readTimeoutMs"), 10000))
+                        .build())
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(Config.getInt(upstream.property("ioThreads"), 1))
+                        .build())
+                .build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * The whole body is already in memory once the response completes, so reading it doesn't block
+     */
+    private static InputStream body(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        InputStream body = new ByteArrayInputStream(EntityUtils.toByteArray(entity));
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null && encoding.getValue().equalsIgnoreCase("gzip")) {
+            body = new GZIPInputStream(body);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,236 @@
+package com.jereaa;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the countries of IP networks, so addresses next to one already looked up, e.g. from the same ISP
+ * or data center, are resolved without a request.
+ * <p>
+ * Addresses are keyed by their network prefix, e.g. the first 24 bits of IPv4 addresses and the first 48 bits of
+ * IPv6 ones, packed in a {@code long} together with the IP version. Keys and values live in two
+ * {@link AtomicLongArray}s used as an open addressing table, each value holding the country and the time it was
+ * stored. Lookups take no lock and allocate nothing. When the slots a prefix can use are all taken, the oldest one
+ * is replaced.
+ */
+final class PrefixCache {
+
+    private static final long V4 = 4L << 60;
+    private static final long V6 = 6L << 60;
+    private static final int PROBES = 8;
+    private static final int MAX_COUNTRIES = 0xFFFF;
+
+    private final int v4PrefixLength;
+    private final int v6PrefixLength;
+    private final long ttlMillis;
+    private final int mask;
+    private final AtomicLongArray keys;
+
+    /**
+     * Time the entry was stored, in epoch milliseconds, in the upper 48 bits, and country index plus one in the lower
+     * 16 bits. Zero while the slot is empty or being written.
+     */
+    private final AtomicLongArray values;
+
+    private final Map<String, Integer> countries = new HashMap<>();
+    private volatile String[] countryCodes = new String[16];
+    private volatile String[] countryNames = new String[16];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param v4PrefixLength {@code int} bits of the IPv4 addresses that make up their prefix, from 1 to 32
+     * @param v6PrefixLength {@code int} bits of the IPv6 addresses that make up their prefix, from 1 to 60
+     * @param maxSize {@code int} maximum number of prefixes kept, rounded up to a power of two
+     * @param ttlMillis {@code long} milliseconds after which the country of a prefix is requested again
+     */
+    PrefixCache(int v4PrefixLength, int v6PrefixLength, int maxSize, long ttlMillis) {
+        if (v4PrefixLength < 1 || v4PrefixLength > 32) {
+            throw new IllegalArgumentException("Invalid IPv4 prefix length: " + v4PrefixLength);
+        }
+        if (v6PrefixLength < 1 || v6PrefixLength > 60) {
+            throw new IllegalArgumentException("Invalid IPv6 prefix length: " + v6PrefixLength);
+        }
+        if (maxSize < 1 || maxSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid size: " + maxSize);
+        }
+        int capacity = Math.max(PROBES, Integer.highestOneBit(maxSize - 1) << 1);
+
+        this.v4PrefixLength = v4PrefixLength;
+        this.v6PrefixLength = v6PrefixLength;
+        this.ttlMillis = ttlMillis;
+        this.mask = capacity - 1;
+        this.keys = new AtomicLongArray(capacity);
+        this.values = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Finds the country of the network of an IP address
+     *
+     * @param address {@code long[]} with the address, as parsed by {@link IpAddresses#parse(CharSequence, long[])}
+     * @return country index to use with {@link #countryCode(int)} and {@link #countryName(int)}, or {@code -1} if the
+     * network isn't cached or it expired
+     */
+    int lookup(long[] address) {
+        int country = find(address, false);
+        if (country >= 0) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return country;
+    }
+
+    /**
+     * Same as {@link #lookup(long[])}, but also finds networks that expired, to fall back to when the country can't
+     * be requested. It isn't counted as a hit or miss.
+     *
+     * @param address {@code long[]} with the address, as parsed by {@link IpAddresses#parse(CharSequence, long[])}
+     * @return country index, or {@code -1} if the network isn't cached
+     */
+    int lookupExpired(long[] address) {
+        return find(address, true);
+    }
+
+    private int find(long[] address, boolean expired) {
+        long key = key(address);
+        int start = slot(key);
+        for (int probe = 0; probe < PROBES; probe++) {
+            int i = (start + probe) & mask;
+            long found = keys.get(i);
+            if (found == 0) {
+                // Slots are never emptied, so the key can't be in any of the following ones
+                break;
+            }
+            if (found != key) {
+                continue;
+            }
+
+            long value = values.get(i);
+            // The key is read again in case the slot was taken by another prefix in the meantime
+            if (value == 0 || keys.get(i) != key
+                    || !expired && (value >>> 16) + ttlMillis < System.currentTimeMillis()) {
+                break;
+            }
+            return (int) (value & 0xFFFF) - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the country of the network of an IP address
+     *
+     * @param address {@code long[]} with the address, as parsed by {@link IpAddresses#parse(CharSequence, long[])}
+     * @param countryCode {@code String} containing the country's code
+     * @param countryName {@code String} containing the country's name
+     */
+    synchronized void put(long[] address, String countryCode, String countryName) {
+        int country = country(countryCode, countryName);
+        if (country < 0) {
+            return;
+        }
+        long key = key(address);
+        int i = target(key);
+
+        // Readers ignore the slot until its value is written again
+        values.set(i, 0);
+        keys.set(i, key);
+        values.set(i, System.currentTimeMillis() << 16 | (country + 1));
+    }
+
+    /**
+     * @param country country index returned by {@link #lookup(long[])}
+     * @return {@code String} containing the country's code
+     */
+    String countryCode(int country) {
+        return countryCodes[country];
+    }
+
+    /**
+     * @param country country index returned by {@link #lookup(long[])}
+     * @return {@code String} containing the country's name
+     */
+    String countryName(int country) {
+        return countryNames[country];
+    }
+
+    /**
+     * @return {@code long} number of lookups answered from the cache
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return {@code long} number of lookups not found in the cache, or expired
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Chooses the slot a prefix is written to: the one already holding it, the first empty one, or the oldest one
+     */
+    private int target(long key) {
+        int start = slot(key);
+        int oldest = start;
+        long oldestValue = Long.MAX_VALUE;
+        for (int probe = 0; probe < PROBES; probe++) {
+            int i = (start + probe) & mask;
+            long found = keys.get(i);
+            if (found == 0 || found == key) {
+                return i;
+            }
+            long value = values.get(i);
+            if (value < oldestValue) {
+                oldest = i;
+                oldestValue = value;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @return {@code int} index of the country, added if it is new, or {@code -1} if there are too many countries
+     */
+    private int country(String countryCode, String countryName) {
+        Integer country = countries.get(countryCode);
+        if (country != null) {
+            return country;
+        }
+        int index = countries.size();
+        if (index >= MAX_COUNTRIES) {
+            return -1;
+        }
+        if (index == countryCodes.length) {
+            countryNames = Arrays.copyOf(countryNames, index * 2);
+            countryCodes = Arrays.copyOf(countryCodes, index * 2);
+        }
+        // Stored before the index is written to any slot, so readers always find them
+        countryNames[index] = countryName;
+        countryCodes[index] = countryCode;
+        countries.put(countryCode, index);
+        return index;
+    }
+
+    /**
+     * Packs the prefix of an address in a {@code long}, tagged with its IP version so it is never 0
+     */
+    private long key(long[] address) {
+        if (IpAddresses.isV4(address)) {
+            return V4 | (address[1] & 0xFFFFFFFFL) >>> (32 - v4PrefixLength);
+        }
+        return V6 | address[0] >>> (64 - v6PrefixLength);
+    }
+
+    /**
+     * Fibonacci hashing, so consecutive prefixes are spread over the table
+     */
+    private int slot(long key) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+    }
+}
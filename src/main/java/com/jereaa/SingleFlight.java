@@ -0,0 +1,62 @@
+package com.jereaa;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Coalesces concurrent calls for the same key: while a call is in flight, callers asking for the same key get the
+ * pending result instead of starting a new call. Once the call completes the key is forgotten, so later callers
+ * start a fresh one.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the results
+ */
+final class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the call in flight for the key, or starts a new one
+     *
+     * @param key key identifying the call
+     * @param call {@link Function} starting the call for the key
+     * @return {@link CompletableFuture} with the result of the call. It is shared by every caller of the same key,
+     * so neither the future nor its result must be modified
+     */
+    CompletableFuture<V> run(K key, Function<K, CompletableFuture<V>> call) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<V> result;
+        try {
+            result = call.apply(key);
+        } catch (Throwable e) {
+            // Even an Error must fail the flight and forget the key, or later callers would join a call that never ends
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+
+        result.whenComplete((value, e) -> {
+            // Forget the key before completing, so callers that see the result done start a new call next time
+            inFlight.remove(key, flight);
+            if (e != null) {
+                flight.completeExceptionally(Futures.unwrap(e));
+            } else {
+                flight.complete(value);
+            }
+        });
+        return flight;
+    }
+
+    /**
+     * @return {@code int} number of calls in flight
+     */
+    int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,17 @@
+package com.jereaa;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a lookup is rejected because too many lookups are already in progress. Nothing went wrong with the
+ * lookup itself, so it may succeed if it is retried a bit later.
+ */
+class TooManyLookupsException extends IOException {
+
+    /**
+     * @param message {@code String} describing the rejection
+     */
+    TooManyLookupsException(String message) {
+        super(message);
+    }
+}
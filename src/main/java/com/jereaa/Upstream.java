@@ -0,0 +1,55 @@
+package com.jereaa;
+
+/**
+ * Remote providers the lookups request information from. Each one has its own settings, read from the system
+ * properties {@code ippi.upstream.<name>.*}, e.g. {@code -Dippi.upstream.countries.url=http://localhost:8081/rest/v2}.
+ */
+public enum Upstream {
+
+    /**
+     * Country of an IP address, https://ip2country.info
+     */
+    IP_COUNTRY("ipCountry", "https://api.ip2country.info"),
+
+    /**
+     * Information of a country, https://restcountries.eu
+     */
+    COUNTRIES("countries", "https://restcountries.eu/rest/v2"),
+
+    /**
+     * Currency rates, https://www.currencyconverterapi.com
+     */
+    CURRENCY_RATES("rates", "https://free.currencyconverterapi.com/api/v6");
+
+    private final String key;
+    private final String defaultUrl;
+
+    Upstream(String key, String defaultUrl) {
+        this.key = key;
+        this.defaultUrl = defaultUrl;
+    }
+
+    /**
+     * @return {@code String} short name of the provider, used in its settings and metrics, e.g. {@code "countries"}
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return {@code String} base URL of the provider, from {@code ippi.upstream.<name>.url} or the public one.
+     * It never ends with a slash
+     */
+    public String getBaseUrl() {
+        String url = Config.getString(property("url"), defaultUrl);
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * @param setting {@code String} name of the setting, e.g. {@code "readTimeoutMs"}
+     * @return {@code String} name of the system property holding the setting for this provider
+     */
+    String property(String setting) {
+        return "ippi.upstream." + key + "." + setting;
+    }
+}
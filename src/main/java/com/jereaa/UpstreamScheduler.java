@@ -0,0 +1,247 @@
+package com.jereaa;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the requests to an upstream provider within its quota, using a token bucket: tokens are added at a fixed
+ * rate up to a burst size, and each request takes one.
+ * <p>
+ * Requests without a token available wait in a queue per {@link Ippi.Priority}, and interactive ones are always
+ * started before batch ones. No thread is blocked while they wait: the shared timer starts them as tokens are added.
+ * Requests that would wait longer than the maximum wait, or don't fit in the queue, fail with an
+ * {@link UpstreamUnavailableException}.
+ */
+final class UpstreamScheduler {
+
+    private static final class Pending {
+        private final Runnable start;
+        private final CompletableFuture<?> result;
+        private final long queuedAt;
+
+        private Pending(Runnable start, CompletableFuture<?> result, long queuedAt) {
+            this.start = start;
+            this.result = result;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final String name;
+    private final double tokensPerNano;
+    private final double burst;
+    private final long maxWaitMillis;
+    private final int maxQueued;
+    private final List<Queue<Pending>> queues = new ArrayList<>();
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+
+    // Guarded by this
+    private double tokens;
+    private long refilledAt;
+    private int queued;
+    private ScheduledFuture<?> wakeUp;
+
+    /**
+     * @param name {@code String} name of the provider, used in error messages
+     * @param ratePerSecond {@code double} requests per second allowed, or {@code 0} to allow any number of them
+     * @param burst {@code int} requests that can be made at once after a quiet period
+     * @param maxWaitMillis {@code long} maximum milliseconds a request waits for its turn
+     * @param maxQueued {@code int} maximum number of requests waiting for their turn
+     */
+    UpstreamScheduler(String name, double ratePerSecond, int burst, long maxWaitMillis, int maxQueued) {
+        this.name = name;
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.maxWaitMillis = maxWaitMillis;
+        this.maxQueued = maxQueued;
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+        for (int i = 0; i < Ippi.Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Starts a request now if there is a token for it, or queues it until there is
+     *
+     * @param priority {@link Ippi.Priority} of the request
+     * @param request {@link Supplier} starting the request and returning the future of its result
+     * @return {@link CompletableFuture} completed with the result of the request. It fails with an
+     * {@link UpstreamUnavailableException} if the request waited too long or the queue is full
+     */
+    <T> CompletableFuture<T> submit(Ippi.Priority priority, Supplier<CompletableFuture<T>> request) {
+        if (tokensPerNano <= 0) {
+            return request.get();
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((value, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(value);
+                }
+            });
+        };
+
+        boolean waiting;
+        Pending pending = null;
+        synchronized (this) {
+            refill();
+            waiting = queued > 0 || tokens < 1;
+            if (!waiting) {
+                tokens--;
+            } else if (queued >= maxQueued) {
+                rejected.increment();
+                result.completeExceptionally(new UpstreamUnavailableException(String.format(
+                        "Too many requests waiting for the quota of the %s provider, try again later.", name)));
+                return result;
+            } else {
+                pending = new Pending(start, result, System.nanoTime());
+                queues.get(priority.ordinal()).add(pending);
+                queued++;
+                scheduleWakeUp();
+            }
+        }
+        if (waiting) {
+            expire(queues.get(priority.ordinal()), pending);
+        } else {
+            waits.record(0);
+            start.run();
+        }
+        return result;
+    }
+
+    /**
+     * Takes a token only if there is one available right away and no request is waiting for it, e.g. for requests
+     * that are only worth making if they don't wait
+     *
+     * @return {@code true} if the token was taken
+     */
+    synchronized boolean tryAcquire() {
+        if (tokensPerNano <= 0) {
+            return true;
+        }
+        refill();
+        if (queued == 0 && tokens >= 1) {
+            tokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@link LatencyHistogram.Snapshot} of how long requests waited for their turn
+     */
+    LatencyHistogram.Snapshot getWaits() {
+        return waits.snapshot();
+    }
+
+    /**
+     * @return {@code long} number of requests that failed because they waited too long or the queue was full
+     */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return {@code int} number of requests waiting for their turn
+     */
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Fails a queued request once it has waited the maximum time, and takes it out of the queue
+     */
+    private void expire(Queue<Pending> queue, Pending pending) {
+        if (maxWaitMillis <= 0) {
+            return;
+        }
+        Futures.schedule(() -> {
+            synchronized (this) {
+                if (!queue.remove(pending)) {
+                    // Already started
+                    return;
+                }
+                queued--;
+            }
+            // Counted before failing it, so whoever waits for the request sees it counted
+            rejected.increment();
+            pending.result.completeExceptionally(new UpstreamUnavailableException(String.format(
+                    "Waited more than %d ms for the quota of the %s provider.", maxWaitMillis, name)));
+        }, maxWaitMillis);
+    }
+
+    /**
+     * Starts queued requests, highest priority first, while there are tokens for them
+     */
+    private void drain() {
+        List<Pending> ready = new ArrayList<>();
+        synchronized (this) {
+            wakeUp = null;
+            refill();
+            for (Queue<Pending> queue : queues) {
+                Pending next;
+                while ((next = queue.peek()) != null) {
+                    if (next.result.isDone()) {
+                        queue.poll();
+                        queued--;
+                        continue;
+                    }
+                    if (tokens < 1) {
+                        break;
+                    }
+                    queue.poll();
+                    queued--;
+                    tokens--;
+                    ready.add(next);
+                }
+            }
+            if (queued > 0) {
+                scheduleWakeUp();
+            }
+        }
+
+        long now = System.nanoTime();
+        for (Pending pending : ready) {
+            waits.record(now - pending.queuedAt);
+            pending.start.run();
+        }
+    }
+
+    /**
+     * Schedules a drain for when the next token is added. Must be called holding the lock.
+     */
+    private void scheduleWakeUp() {
+        if (wakeUp != null) {
+            return;
+        }
+        long nanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+        wakeUp = Futures.schedule(this::drain, Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos)));
+    }
+
+    /**
+     * Adds the tokens for the time passed since the last refill. Must be called holding the lock.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
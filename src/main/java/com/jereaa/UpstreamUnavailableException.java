@@ -0,0 +1,17 @@
+package com.jereaa;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upstream provider fails on its side, with a 5xx status, its circuit is open or its quota is used up.
+ * Unlike a bad request, the same request may succeed later, so lookups can fall back to information obtained before.
+ */
+class UpstreamUnavailableException extends IOException {
+
+    /**
+     * @param message {@code String} describing the failure
+     */
+    UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,79 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@DisplayName("com.jereaa.AsyncLimiter class Tests")
+class AsyncLimiterTest {
+
+    @Test
+    @DisplayName("Concurrency cap Test")
+    void capTest() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(2, 10);
+        List<CompletableFuture<Integer>> tasks = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        AtomicInteger started = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> task = new CompletableFuture<>();
+            tasks.add(task);
+            results.add(limiter.submit(() -> {
+                started.incrementAndGet();
+                return task;
+            }));
+        }
+        Assertions.assertEquals(2, started.get());
+        Assertions.assertEquals(2, limiter.running());
+
+        // Each completed task lets a queued one start, in the order they were submitted
+        tasks.get(1).complete(1);
+        Assertions.assertEquals(1, (int) results.get(1).get());
+        Assertions.assertEquals(3, started.get());
+        Assertions.assertEquals(2, limiter.running());
+
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).complete(i);
+        }
+        for (int i = 0; i < results.size(); i++) {
+            Assertions.assertEquals(i, (int) results.get(i).get());
+        }
+        Assertions.assertEquals(5, started.get());
+        Assertions.assertEquals(0, limiter.running());
+    }
+
+    @Test
+    @DisplayName("Full queue Test")
+    void fullQueueTest() {
+        AsyncLimiter limiter = new AsyncLimiter(1, 2);
+        CompletableFuture<String> never = new CompletableFuture<>();
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertFalse(limiter.submit(() -> never).isDone());
+        }
+
+        CompletableFuture<String> rejected = limiter.submit(() -> never);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, rejected::get);
+        Assertions.assertTrue(e.getCause() instanceof TooManyLookupsException);
+    }
+
+    @Test
+    @DisplayName("Failed tasks Test")
+    void failedTasksTest() {
+        AsyncLimiter limiter = new AsyncLimiter(1, 10);
+        CompletableFuture<String> thrown = limiter.submit(() -> {
+            throw new IllegalStateException("Broken");
+        });
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, thrown::get);
+        Assertions.assertTrue(e.getCause() instanceof IllegalStateException);
+
+        // The slot of the failed task is given back
+        Assertions.assertEquals(0, limiter.running());
+        Assertions.assertTrue(limiter.submit(() -> CompletableFuture.completedFuture("ok")).isDone());
+    }
+}
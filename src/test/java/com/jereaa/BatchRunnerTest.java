@@ -0,0 +1,183 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+@DisplayName("com.jereaa.BatchRunner class Tests")
+class BatchRunnerTest {
+
+    private static final String[] SETTINGS = {
+            "ippi.upstream.ipCountry.hedgeDelayMs", "0",
+            "ippi.upstream.ipCountry.ratePerSecond", "1000",
+            "ippi.prefixCache.maxSize", "0"
+    };
+
+    /**
+     * Answer of the first IP, which is the slowest one
+     */
+    private final CompletableFuture<Void> slow = new CompletableFuture<>();
+    private Ippi ippi;
+    private FakeTransport transport;
+
+    @BeforeEach
+    void createIppi() {
+        for (int i = 0; i < SETTINGS.length; i += 2) {
+            System.setProperty(SETTINGS[i], SETTINGS[i + 1]);
+        }
+        transport = new FakeTransport((upstream, url) -> upstream == Upstream.IP_COUNTRY && url.contains("200.1.1.1")
+                ? slow.thenCompose(ignored -> FakeTransport.answer(upstream, url))
+                : FakeTransport.answer(upstream, url));
+        ippi = new Ippi(null, true, transport);
+    }
+
+    @AfterEach
+    void closeIppi() throws IOException {
+        slow.complete(null);
+        ippi.close();
+        for (int i = 0; i < SETTINGS.length; i += 2) {
+            System.clearProperty(SETTINGS[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("Ordered results Test")
+    void orderedTest() throws Exception {
+        StringWriter output = new StringWriter();
+        // Answers the first IP once every other one is answered
+        CompletableFuture.runAsync(() -> {
+            waitUntil(() -> transport.getCalls() >= 3);
+            sleep(100);
+            slow.complete(null);
+        });
+
+        BatchRunner runner = new BatchRunner(ippi, 4, true);
+        runner.run(input("200.1.1.1", "", "invalid", "200.1.1.2", "200.1.1.3"), output);
+
+        Assertions.assertEquals(Arrays.asList("200.1.1.1", "invalid", "200.1.1.2", "200.1.1.3"), ips(output));
+        Assertions.assertEquals("Invalid IP", lines(output).get(1).getString("error"));
+        Assertions.assertEquals("ARG", lines(output).get(0).getString("countryCode"));
+        Assertions.assertEquals(4, runner.getTotal());
+        Assertions.assertEquals(1, runner.getInvalid());
+        Assertions.assertEquals(0, runner.getFailed());
+    }
+
+    @Test
+    @DisplayName("Unordered results Test")
+    void unorderedTest() throws Exception {
+        StringWriter output = new StringWriter();
+        // Answers the first IP once every other one is written
+        CompletableFuture.runAsync(() -> {
+            waitUntil(() -> output.toString().split("\n").length >= 3);
+            slow.complete(null);
+        });
+
+        BatchRunner runner = new BatchRunner(ippi, 4, false);
+        runner.run(input("200.1.1.1", "invalid", "200.1.1.2", "200.1.1.3"), output);
+
+        List<String> ips = ips(output);
+        Assertions.assertEquals(4, ips.size());
+        Assertions.assertEquals("200.1.1.1", ips.get(3));
+        Assertions.assertTrue(ips.containsAll(Arrays.asList("invalid", "200.1.1.2", "200.1.1.3")));
+        Assertions.assertEquals(4, runner.getTotal());
+        Assertions.assertEquals(1, runner.getInvalid());
+    }
+
+    @Test
+    @DisplayName("Bounded lookups in progress Test")
+    void windowTest() throws Exception {
+        for (boolean ordered : new boolean[]{true, false}) {
+            CompletableFuture<Void> release = new CompletableFuture<>();
+            FakeTransport blocked = new FakeTransport((upstream, url) -> upstream == Upstream.IP_COUNTRY
+                    ? release.thenCompose(ignored -> FakeTransport.answer(upstream, url))
+                    : FakeTransport.answer(upstream, url));
+            AtomicInteger read = new AtomicInteger();
+            String[] ips = new String[50];
+            for (int i = 0; i < ips.length; i++) {
+                ips[i] = "200.1.2." + i;
+            }
+            BufferedReader input = new BufferedReader(new StringReader(String.join("\n", ips))) {
+                @Override
+                public String readLine() throws IOException {
+                    read.incrementAndGet();
+                    return super.readLine();
+                }
+            };
+            StringWriter output = new StringWriter();
+
+            try (Ippi blockedIppi = new Ippi(null, true, blocked)) {
+                BatchRunner runner = new BatchRunner(blockedIppi, 2, ordered);
+                CompletableFuture<Void> run = CompletableFuture.runAsync(() -> {
+                    try {
+                        runner.run(input, output);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                waitUntil(() -> blocked.getCalls() >= 2);
+                sleep(100);
+                // Two workers, and a window of 4 lookups: the 5th IP read waits for the window to have room
+                Assertions.assertEquals(2, blocked.getCalls());
+                Assertions.assertEquals(5, read.get());
+                Assertions.assertTrue(output.toString().isEmpty());
+
+                release.complete(null);
+                run.get();
+                Assertions.assertEquals(50, ips(output).size());
+                Assertions.assertEquals(50, runner.getTotal());
+                if (ordered) {
+                    Assertions.assertEquals(Arrays.asList(ips), ips(output));
+                }
+            }
+        }
+    }
+
+    private static BufferedReader input(String... lines) {
+        return new BufferedReader(new StringReader(String.join("\n", lines)));
+    }
+
+    private static List<JSONObject> lines(StringWriter output) {
+        List<JSONObject> lines = new ArrayList<>();
+        for (String line : output.toString().split("\n")) {
+            lines.add(new JSONObject(line));
+        }
+        return lines;
+    }
+
+    private static List<String> ips(StringWriter output) {
+        List<String> ips = new ArrayList<>();
+        for (JSONObject line : lines(output)) {
+            ips.add(line.getString("ip"));
+        }
+        return ips;
+    }
+
+    private static void waitUntil(BooleanSupplier condition) {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("com.jereaa.CircuitBreaker class Tests")
+class CircuitBreakerTest {
+
+    @Test
+    @DisplayName("Opens after consecutive failures Test")
+    void opensTest() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        Assertions.assertFalse(breaker.isOpen());
+        Assertions.assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        Assertions.assertTrue(breaker.isOpen());
+        Assertions.assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    @DisplayName("Trial request Test")
+    void trialTest() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.recordFailure();
+        Assertions.assertFalse(breaker.allowRequest());
+
+        Thread.sleep(30);
+        Assertions.assertTrue(breaker.allowRequest());
+        // Only a single trial is let through
+        Assertions.assertFalse(breaker.allowRequest());
+
+        // A failed trial keeps it open for another period
+        breaker.recordFailure();
+        Assertions.assertTrue(breaker.isOpen());
+        Assertions.assertFalse(breaker.allowRequest());
+
+        Thread.sleep(30);
+        Assertions.assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        Assertions.assertFalse(breaker.isOpen());
+        Assertions.assertTrue(breaker.allowRequest());
+        Assertions.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    @DisplayName("Released trial request Test")
+    void releaseTrialTest() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20);
+        breaker.recordFailure();
+        Assertions.assertTrue(breaker.isRejecting());
+
+        Thread.sleep(30);
+        // Checking doesn't take the trial
+        Assertions.assertFalse(breaker.isRejecting());
+        Assertions.assertTrue(breaker.allowRequest());
+        Assertions.assertFalse(breaker.allowRequest());
+
+        // A trial that was never made lets another request be the trial
+        breaker.releaseTrial();
+        Assertions.assertTrue(breaker.isOpen());
+        Assertions.assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        Assertions.assertFalse(breaker.isRejecting());
+        breaker.releaseTrial();
+        Assertions.assertTrue(breaker.allowRequest());
+    }
+}
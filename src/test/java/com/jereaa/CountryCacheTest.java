@@ -0,0 +1,98 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@DisplayName("com.jereaa.CountryCache class Tests")
+class CountryCacheTest {
+
+    private static JSONObject country(String alpha2, String alpha3, int version) {
+        JSONObject country = new JSONObject();
+        country.put("alpha2Code", alpha2);
+        country.put("alpha3Code", alpha3);
+        country.put("version", version);
+        return country;
+    }
+
+    @Test
+    @DisplayName("Cached country Test")
+    void cachedCountryTest() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountryCache cache = new CountryCache(code -> {
+            requests.incrementAndGet();
+            CompletableFuture<JSONObject> future = new CompletableFuture<>();
+            if (code.equalsIgnoreCase("xx")) {
+                future.completeExceptionally(new IOException("Invalid country"));
+            } else {
+                future.complete(country("AR", "ARG", 1));
+            }
+            return future;
+        }, 60000, 10);
+
+        Assertions.assertEquals("AR", cache.get("arg").getString("alpha2Code"));
+        Assertions.assertEquals("AR", cache.get("ARG").getString("alpha2Code"));
+        Assertions.assertEquals("AR", cache.get("ar").getString("alpha2Code"));
+        Assertions.assertEquals(1, requests.get());
+
+        Assertions.assertThrows(IOException.class, () -> cache.get("xx"));
+        Assertions.assertThrows(IOException.class, () -> cache.get("xx"));
+        Assertions.assertEquals(3, requests.get());
+    }
+
+    @Test
+    @DisplayName("Stale country Test")
+    void staleCountryTest() throws Exception {
+        AtomicInteger version = new AtomicInteger();
+        CountryCache cache = new CountryCache(
+                code -> CompletableFuture.supplyAsync(() -> country("UY", "URY", version.incrementAndGet())), 0, 10);
+
+        Assertions.assertEquals(1, cache.get("URY").getInt("version"));
+
+        // The stale entry is served while it gets refreshed in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        int seen = cache.get("URY").getInt("version");
+        while (seen == 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            seen = cache.get("URY").getInt("version");
+        }
+        Assertions.assertTrue(seen > 1);
+    }
+
+    @Test
+    @DisplayName("Snapshot and eviction Test")
+    void snapshotTest() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger loads = new AtomicInteger();
+        CountryCache cache = new CountryCache(code -> {
+            loads.incrementAndGet();
+            CompletableFuture<JSONObject> future = new CompletableFuture<>();
+            if (code.equalsIgnoreCase("JP")) {
+                requests.incrementAndGet();
+                future.complete(country("JP", "JPN", 2));
+            } else {
+                future.completeExceptionally(new IOException("Upstream unavailable"));
+            }
+            return future;
+        }, 60000, 4);
+
+        String snapshot = "[" + country("AR", "ARG", 1) + "," + country("UY", "URY", 1) + "]";
+        Assertions.assertEquals(2, cache.warm(new ByteArrayInputStream(snapshot.getBytes(StandardCharsets.UTF_8))));
+        Assertions.assertEquals(1, cache.get("ury").getInt("version"));
+        Assertions.assertEquals(4, cache.size());
+        // Countries of the snapshot are fresh, so hits on them don't refresh them
+        Assertions.assertEquals(0, loads.get());
+
+        Assertions.assertEquals(2, cache.get("jp").getInt("version"));
+        Assertions.assertTrue(cache.size() <= 4);
+        Assertions.assertEquals(2, cache.get("JPN").getInt("version"));
+        Assertions.assertEquals(1, requests.get());
+    }
+}
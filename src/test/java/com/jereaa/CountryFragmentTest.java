@@ -0,0 +1,72 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+@DisplayName("com.jereaa.CountryFragment class Tests")
+class CountryFragmentTest {
+
+    private static JSONObject argentina() throws IOException {
+        try (InputStream in = CountryFragmentTest.class.getResourceAsStream("/restcountries-arg.json")) {
+            return new JSONObject(new JSONTokener(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+    }
+
+    @Test
+    @DisplayName("Compiled country Test")
+    void compileTest() throws IOException {
+        JSONObject country = argentina();
+        DistanceCalculator origin = new DistanceCalculator(CountryFragment.DEFAULT_ORIGIN_LAT,
+                CountryFragment.DEFAULT_ORIGIN_LNG, DistanceCalculator.Unit.KILOMETERS);
+        CountryFragment fragment = CountryFragment.compile(country, origin, "Argentina");
+
+        Assertions.assertSame(country, fragment.getCountry());
+        Assertions.assertEquals("ARS", fragment.getCurrencyCode());
+        Assertions.assertEquals(0, fragment.getDistance());
+        Assertions.assertEquals("Spanish", fragment.getLanguages().get(0).getName());
+        Assertions.assertEquals(fragment.getLanguages().size(), new JSONArray(fragment.getLanguagesJson()).length());
+
+        IpReport report = new IpReport("200.1.1.1", "ARG", "Argentina")
+                .withCountryInfo(fragment, Instant.parse("2026-10-18T01:02:03Z"));
+        Assertions.assertEquals(Collections.singletonList("22:02:03(UTC-03:00)"), report.getTimes());
+        // The distance is written as an integer, which similar() tells apart from the double of toJSON()
+        JSONObject parsed = new JSONObject(report.toString());
+        Assertions.assertEquals(report.toJSON().keySet(), parsed.keySet());
+        Assertions.assertTrue(parsed.getJSONArray("languages").similar(report.toJSON().getJSONArray("languages")));
+    }
+
+    @Test
+    @DisplayName("Configurable origin Test")
+    void originTest() throws IOException {
+        DistanceCalculator madrid = new DistanceCalculator(40.4, -3.7, DistanceCalculator.Unit.KILOMETERS);
+        CountryFragment fragment = CountryFragment.compile(argentina(), madrid, "Madrid");
+
+        Assertions.assertEquals(Math.round(madrid.distanceTo(-34, -64) * 100) / (double) 100, fragment.getDistance());
+        IpReport report = new IpReport("200.1.1.1", "ARG", "Argentina").withCountryInfo(fragment, Instant.now());
+        Assertions.assertTrue(MainApplication.formatResult(report).contains("Estimated distance from Madrid: "));
+    }
+
+    @Test
+    @DisplayName("Local times Test")
+    void timesTest() {
+        CountryFragment fragment = new CountryFragment(null, Collections.emptyList(),
+                Arrays.asList("UTC", "UTC+05:45", "UTC-10:00", "UTC+14:00", "GMT", "UTC+99"), 0, "XXX", "Argentina");
+
+        Assertions.assertEquals(Arrays.asList("01:02:03(UTC)", "06:47:03(UTC+05:45)", "15:02:03(UTC-10:00)",
+                "15:02:03(UTC+14:00)"), fragment.times(Instant.parse("2026-10-18T01:02:03Z")));
+        Assertions.assertEquals(0, CountryFragment.offsetSeconds("UTC"));
+        Assertions.assertEquals(-3 * 3600, CountryFragment.offsetSeconds("UTC-03:00"));
+    }
+}
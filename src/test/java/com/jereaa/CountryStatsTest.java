@@ -0,0 +1,76 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("com.jereaa.CountryStats class Tests")
+class CountryStatsTest {
+
+    @Test
+    @DisplayName("Empty stats Test")
+    void emptyStatsTest() {
+        CountryStats.Snapshot snapshot = new CountryStats().snapshot();
+        Assertions.assertEquals(0, snapshot.getLookups());
+        Assertions.assertNull(snapshot.getNearest());
+        Assertions.assertNull(snapshot.getFarthest());
+        Assertions.assertEquals(0, snapshot.getAverageDistance());
+        Assertions.assertTrue(snapshot.getCountries().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Aggregates Test")
+    void aggregatesTest() {
+        CountryStats stats = new CountryStats();
+        stats.record("ARG", "Argentina", 0);
+        stats.record("ESP", "Spain", 10000);
+        stats.record("ESP", "Spain", 10000);
+        stats.record("BRA", "Brazil", 2500);
+
+        CountryStats.Snapshot snapshot = stats.snapshot();
+        Assertions.assertEquals(4, snapshot.getLookups());
+        Assertions.assertEquals("ARG", snapshot.getNearest().getCode());
+        Assertions.assertEquals("ESP", snapshot.getFarthest().getCode());
+        Assertions.assertEquals(5625, snapshot.getAverageDistance());
+        Assertions.assertEquals("ESP", snapshot.getCountries().get(0).getCode());
+        Assertions.assertEquals(2, snapshot.getCountries().get(0).getLookups());
+    }
+
+    @Test
+    @DisplayName("Concurrent lookups Test")
+    void concurrentLookupsTest() throws InterruptedException {
+        CountryStats stats = new CountryStats();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    stats.record(j % 2 == 0 ? "ARG" : "BRA", j % 2 == 0 ? "Argentina" : "Brazil", 100);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        CountryStats.Snapshot snapshot = stats.snapshot();
+        Assertions.assertEquals(80000, snapshot.getLookups());
+        Assertions.assertEquals(40000, snapshot.getCountries().get(0).getLookups());
+        Assertions.assertEquals(40000, snapshot.getCountries().get(1).getLookups());
+    }
+
+    @Test
+    @DisplayName("Changed country details Test")
+    void changedDetailsTest() {
+        CountryStats stats = new CountryStats();
+        stats.record("ARG", "Argentina", 0);
+        Assertions.assertEquals("Argentina", stats.snapshot().getCountries().get(0).getName());
+
+        // E.g. after measuring distances from another origin
+        stats.record("ARG", "Argentine Republic", 10000);
+        CountryStats.CountrySnapshot country = stats.snapshot().getCountries().get(0);
+        Assertions.assertEquals("Argentine Republic", country.getName());
+        Assertions.assertEquals(10000, country.getDistance());
+        Assertions.assertEquals(2, country.getLookups());
+    }
+}
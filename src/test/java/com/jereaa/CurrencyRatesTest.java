@@ -0,0 +1,222 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@DisplayName("com.jereaa.CurrencyRates class Tests")
+class CurrencyRatesTest {
+
+    private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<Void> release = new CompletableFuture<>();
+    private volatile boolean blocking;
+    private volatile boolean stale;
+    private CurrencyRates rates;
+
+    @AfterEach
+    void close() {
+        release.complete(null);
+        if (rates != null) {
+            rates.close();
+        }
+    }
+
+    /**
+     * Answers every currency but {@code "XXX"} with {@code 40} from USD and {@code 0.025} to USD, once released if
+     * it is blocking, and marked as stale if it is stale
+     */
+    private CompletableFuture<JSONObject> fetch(List<String> pairs) {
+        requests.add(new ArrayList<>(pairs));
+        JSONObject response = new JSONObject();
+        for (String pair : pairs) {
+            if (!pair.contains("XXX")) {
+                response.put(pair, pair.startsWith("USD_") ? 40 : 0.025);
+            }
+        }
+        if (stale) {
+            response.put("stale", true);
+        }
+        return blocking ? release.thenApply(ignored -> response) : CompletableFuture.completedFuture(response);
+    }
+
+    @Test
+    @DisplayName("Batched currencies Test")
+    void batchTest() throws Exception {
+        rates = new CurrencyRates(this::fetch, 60000, 60000, 200, 5000, 6);
+
+        CompletableFuture<CurrencyRates.Rate> ars = rates.getAsync("ars");
+        CompletableFuture<CurrencyRates.Rate> eur = rates.getAsync("EUR");
+        CompletableFuture<CurrencyRates.Rate> unknown = rates.getAsync("XXX");
+
+        Assertions.assertEquals(40, ars.get().getFromUsd());
+        Assertions.assertEquals(0.025, eur.get().getToUsd());
+        Assertions.assertFalse(unknown.get().isKnown());
+        // The three currencies arrived within the batch window, so they were requested together
+        Assertions.assertEquals(1, requests.size());
+        Assertions.assertEquals(6, requests.get(0).size());
+        Assertions.assertTrue(requests.get(0).contains("USD_ARS"));
+        Assertions.assertTrue(requests.get(0).contains("ARS_USD"));
+        Assertions.assertEquals(3, rates.getMisses());
+    }
+
+    @Test
+    @DisplayName("Pending requests shared Test")
+    void pendingTest() throws Exception {
+        blocking = true;
+        rates = new CurrencyRates(this::fetch, 60000, 60000, 0, 5000, 2);
+
+        CompletableFuture<CurrencyRates.Rate> first = rates.getAsync("ARS");
+        CompletableFuture<CurrencyRates.Rate> second = rates.getAsync("ars");
+        Assertions.assertNotSame(first, second);
+        release.complete(null);
+
+        Assertions.assertSame(first.get(), second.get());
+        Assertions.assertEquals(1, requests.size());
+    }
+
+    @Test
+    @DisplayName("Fresh and stale rates Test")
+    void freshnessTest() throws Exception {
+        rates = new CurrencyRates(this::fetch, 100, 60000, 0, 5000, 2);
+
+        CurrencyRates.Rate fetched = rates.get("ARS");
+        Assertions.assertFalse(fetched.isStale());
+        // Fresh rates are served without a request
+        Assertions.assertSame(fetched, rates.get("ARS"));
+        Assertions.assertEquals(1, requests.size());
+        Assertions.assertEquals(1, rates.getHits());
+
+        // Expired rates are served right away, marked as stale, while they are requested again
+        Thread.sleep(150);
+        CurrencyRates.Rate expired = rates.get("ARS");
+        Assertions.assertTrue(expired.isStale());
+        Assertions.assertEquals(fetched.getFromUsd(), expired.getFromUsd());
+        waitForRequests(2);
+        for (int i = 0; i < 200 && rates.get("ARS").isStale(); i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(rates.get("ARS").isStale());
+        Assertions.assertNotSame(fetched, rates.get("ARS"));
+    }
+
+    @Test
+    @DisplayName("Background refresh Test")
+    void refreshTest() throws Exception {
+        rates = new CurrencyRates(this::fetch, 60000, 100, 0, 5000, 2);
+
+        rates.get("ARS");
+        rates.get("XXX");
+        waitForRequests(2);
+        // Known rates are refreshed without any lookup asking for them, unknown currencies aren't
+        waitForRequests(3);
+        Assertions.assertEquals("[USD_ARS, ARS_USD]", requests.get(2).toString());
+        Assertions.assertEquals(2, rates.getMisses());
+    }
+
+    @Test
+    @DisplayName("Closed rates Test")
+    void closeTest() throws Exception {
+        blocking = true;
+        rates = new CurrencyRates(this::fetch, 60000, 50, 0, 5000, 2);
+        CompletableFuture<CurrencyRates.Rate> waiting = rates.getAsync("ARS");
+        waitForRequests(1);
+
+        rates.close();
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, waiting::get);
+        Assertions.assertTrue(e.getCause() instanceof IOException);
+        Assertions.assertThrows(IOException.class, () -> rates.get("EUR"));
+
+        // Neither the dispatcher nor the background refresh make any more requests
+        Thread.sleep(200);
+        Assertions.assertEquals(1, requests.size());
+    }
+
+    @Test
+    @DisplayName("Requests not waiting for each other Test")
+    void concurrentRequestsTest() throws Exception {
+        blocking = true;
+        rates = new CurrencyRates(this::fetch, 60000, 60000, 0, 5000, 2);
+
+        // Every request is in flight at once, instead of each one waiting for the one before it
+        List<CompletableFuture<CurrencyRates.Rate>> waiting = new ArrayList<>();
+        for (String currency : new String[]{"ARS", "EUR", "BRL", "JPY"}) {
+            waiting.add(rates.getAsync(currency));
+        }
+        waitForRequests(4);
+        Assertions.assertFalse(waiting.get(0).isDone());
+
+        release.complete(null);
+        for (CompletableFuture<CurrencyRates.Rate> rate : waiting) {
+            Assertions.assertEquals(40, rate.get().getFromUsd());
+        }
+        Assertions.assertEquals(4, requests.size());
+    }
+
+    @Test
+    @DisplayName("Stale rates requested again Test")
+    void staleFallbackTest() throws Exception {
+        stale = true;
+        rates = new CurrencyRates(this::fetch, 60000, 60000, 0, 5000, 2);
+
+        // Old rates the fetcher fell back to are served, but not kept as fresh
+        CurrencyRates.Rate fallback = rates.get("ARS");
+        Assertions.assertTrue(fallback.isStale());
+        Assertions.assertEquals(40, fallback.getFromUsd());
+        Assertions.assertTrue(rates.get("ARS").isStale());
+        waitForRequests(2);
+
+        // Once the provider answers again, the fresh rates replace them
+        stale = false;
+        for (int i = 0; i < 200 && rates.get("ARS").isStale(); i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(rates.get("ARS").isStale());
+        int count = requests.size();
+        rates.get("ARS");
+        Assertions.assertEquals(count, requests.size());
+    }
+
+    @Test
+    @DisplayName("Lookups racing with close Test")
+    void closeRaceTest() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            blocking = true;
+            CurrencyRates racing = new CurrencyRates(this::fetch, 60000, 60000, 0, 5000, 2);
+            CountDownLatch start = new CountDownLatch(1);
+            CompletableFuture<CompletableFuture<CurrencyRates.Rate>> lookup = CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return racing.getAsync("ARS");
+            });
+            start.countDown();
+            racing.close();
+
+            // Whichever wins, the lookup never waits forever
+            CompletableFuture<CurrencyRates.Rate> rate = lookup.get();
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> rate.get(1, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        for (int i = 0; i < 200 && requests.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(requests.size() >= count, "Expected " + count + " requests: " + requests);
+    }
+}
@@ -0,0 +1,146 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+@DisplayName("com.jereaa.DiskCache class Tests")
+class DiskCacheTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("ippi-cache");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private DiskCache open() throws IOException {
+        return DiskCache.open(directory, 1024, 60000, 60000, 60000);
+    }
+
+    @Test
+    @DisplayName("Shared between instances Test")
+    void sharedTest() throws IOException {
+        JSONObject argentina;
+        try (InputStream in = DiskCacheTest.class.getResourceAsStream("/restcountries-arg.json")) {
+            argentina = JsonFieldReader.read(in, "name", "alpha2Code", "alpha3Code", "latlng", "timezones",
+                    "currencies", "languages");
+        }
+        JSONObject ipCountry = new JSONObject("{\"countryCode3\":\"ARG\",\"countryName\":\"Argentina\"}");
+
+        try (DiskCache writer = open(); DiskCache reader = open()) {
+            Assertions.assertNull(reader.getCountry("ARG"));
+            Assertions.assertTrue(Double.isNaN(reader.getRate("USD_ARS")));
+
+            writer.putCountry("arg", argentina);
+            writer.putIpCountry("200.45.1.1", ipCountry);
+            writer.putRate("USD_ARS", 37.65);
+
+            Assertions.assertTrue(argentina.similar(reader.getCountry("ARG")));
+            Assertions.assertTrue(ipCountry.similar(reader.getIpCountry("200.45.1.1")));
+            Assertions.assertEquals(37.65, reader.getRate("USD_ARS"));
+            Assertions.assertNull(reader.getIpCountry("200.45.1.2"));
+            Assertions.assertEquals(3, reader.getHits());
+            Assertions.assertEquals(3, reader.getMisses());
+        }
+
+        // Still there once every instance was closed
+        try (DiskCache cache = open()) {
+            Assertions.assertEquals(37.65, cache.getRate("USD_ARS"));
+        }
+    }
+
+    @Test
+    @DisplayName("Expiration and eviction Test")
+    void expirationTest() throws IOException {
+        try (MappedTable table = MappedTable.open(directory.resolve("table"), 4, 64)) {
+            Assertions.assertTrue(table.put("expired", new byte[]{1}, -1));
+            Assertions.assertNull(table.get("expired"));
+            Assertions.assertArrayEquals(new byte[]{1}, table.get("expired", true));
+
+            Assertions.assertFalse(table.put("too big", new byte[64], 60000));
+
+            // Each key replaces the one expiring first when every slot is taken
+            for (int i = 0; i < 5; i++) {
+                Assertions.assertTrue(table.put("key" + i, new byte[]{(byte) i}, 60000 + i));
+            }
+            Assertions.assertNull(table.get("key0"));
+            for (int i = 1; i < 5; i++) {
+                Assertions.assertArrayEquals(new byte[]{(byte) i}, table.get("key" + i));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Corrupt slots Test")
+    void corruptTest() throws IOException {
+        Path file = directory.resolve("table");
+        try (MappedTable table = MappedTable.open(file, 1, 64)) {
+            table.put("key", new byte[]{1, 2, 3}, 60000);
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3}, table.get("key"));
+
+            // Last byte of the value, as if a process was still writing it
+            try (RandomAccessFile raf = new RandomAccessFile(MappedTable.path(file, 1, 64).toFile(), "rw")) {
+                raf.seek(64 + 16 + 3 + 2);
+                raf.write(9);
+            }
+            Assertions.assertNull(table.get("key"));
+        }
+
+        // A table with another layout doesn't have the entries of this one
+        try (MappedTable table = MappedTable.open(file, 2, 64)) {
+            Assertions.assertNull(table.get("key"));
+        }
+    }
+
+    @Test
+    @DisplayName("Tables of other sizes Test")
+    void otherSizeTest() throws IOException {
+        Path file = directory.resolve("table");
+        try (MappedTable small = MappedTable.open(file, 4, 64)) {
+            small.put("key", new byte[]{1}, 60000);
+
+            // A process opening the table with another size uses another file, so the mapped one is left alone
+            try (MappedTable big = MappedTable.open(file, 8, 64)) {
+                Assertions.assertNull(big.get("key"));
+                big.put("key", new byte[]{2}, 60000);
+                Assertions.assertArrayEquals(new byte[]{1}, small.get("key"));
+                Assertions.assertArrayEquals(new byte[]{2}, big.get("key"));
+            }
+            Assertions.assertEquals(64 + 4 * 64, Files.size(MappedTable.path(file, 4, 64)));
+        }
+
+        // An invalid file is replaced by a new one, while whoever has the old one mapped keeps using it
+        Path path = MappedTable.path(file, 4, 64);
+        try (MappedTable old = MappedTable.open(file, 4, 64)) {
+            try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+                raf.writeInt(0);
+            }
+            try (MappedTable replaced = MappedTable.open(file, 4, 64)) {
+                Assertions.assertNull(replaced.get("key"));
+            }
+            Assertions.assertArrayEquals(new byte[]{1}, old.get("key"));
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Assertions.assertEquals(3, files.count());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("com.jereaa.DistanceCalculator class Tests")
+class DistanceCalculatorTest {
+
+    @Test
+    @DisplayName("Distance from origin Test")
+    void distanceFromOriginTest() {
+        DistanceCalculator calculator = new DistanceCalculator(-34, -64, DistanceCalculator.Unit.KILOMETERS);
+
+        Assertions.assertEquals(0, calculator.distanceTo(-34, -64));
+        Assertions.assertEquals(8700.71, calculator.distanceTo(38, -97), 0.01);
+        Assertions.assertEquals(10274.09, calculator.distanceTo(40, -4), 0.01);
+        Assertions.assertEquals(749.84, calculator.distanceTo(-33, -56), 0.01);
+        // Close points, where the law of cosines loses precision
+        Assertions.assertEquals(0.0092, calculator.distanceTo(-34, -64.0001), 0.0001);
+    }
+
+    @Test
+    @DisplayName("Units Test")
+    void unitsTest() {
+        double km = DistanceCalculator.distance(-34, -64, 38, -97, DistanceCalculator.Unit.KILOMETERS);
+        double miles = DistanceCalculator.distance(-34, -64, 38, -97, DistanceCalculator.Unit.MILES);
+        double nauticalMiles = DistanceCalculator.distance(-34, -64, 38, -97, DistanceCalculator.Unit.NAUTICAL_MILES);
+
+        Assertions.assertEquals(km, miles * 1.609344, 1e-6);
+        Assertions.assertEquals(nauticalMiles, miles * 0.8684, 1e-6);
+        Assertions.assertEquals(km, DistanceCalculator.distance(-34, -64, 38, -97, new String("K")));
+        Assertions.assertEquals(nauticalMiles, DistanceCalculator.distance(-34, -64, 38, -97, "N"));
+        Assertions.assertEquals(miles, DistanceCalculator.distance(-34, -64, 38, -97, "M"));
+    }
+
+    @Test
+    @DisplayName("Bulk distances Test")
+    void bulkDistancesTest() {
+        DistanceCalculator calculator = new DistanceCalculator(-34, -64, DistanceCalculator.Unit.KILOMETERS);
+        double[] lats = {38, 40, -33, -34};
+        double[] lngs = {-97, -4, -56, -64};
+        double[] distances = new double[lats.length];
+
+        calculator.distancesTo(lats, lngs, distances);
+        for (int i = 0; i < lats.length; i++) {
+            Assertions.assertEquals(calculator.distanceTo(lats[i], lngs[i]), distances[i]);
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> calculator.distancesTo(lats, lngs, new double[1]));
+    }
+}
@@ -0,0 +1,112 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+
+/**
+ * {@link HttpTransport} answering the requests of the tests without any network, by default with the canned answers
+ * of {@link #answer(Upstream, String)}. It records the URLs requested.
+ */
+final class FakeTransport implements HttpTransport {
+
+    private final BiFunction<Upstream, String, CompletableFuture<Response>> handler;
+    private final List<String> urls = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    FakeTransport() {
+        this(FakeTransport::answer);
+    }
+
+    /**
+     * @param handler {@link BiFunction} answering each request, from its upstream and URL
+     */
+    FakeTransport(BiFunction<Upstream, String, CompletableFuture<Response>> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public CompletableFuture<Response> get(Upstream upstream, String url) {
+        urls.add(url);
+        if (closed) {
+            return failed(new IOException("The transport is closed. URL: " + url));
+        }
+        return handler.apply(upstream, url);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * @return {@link List} of the URLs requested, in order
+     */
+    List<String> getUrls() {
+        return urls;
+    }
+
+    /**
+     * @return {@code int} number of requests made
+     */
+    int getCalls() {
+        return urls.size();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Answers every IP as Argentina, every country with the one of Argentina, and every currency pair from USD with
+     * {@code 40} and to USD with {@code 0.025}
+     */
+    static CompletableFuture<Response> answer(Upstream upstream, String url) {
+        switch (upstream) {
+            case IP_COUNTRY:
+                return respond(200, "{\"countryCode\":\"AR\",\"countryCode3\":\"ARG\",\"countryName\":\"Argentina\"}");
+            case COUNTRIES:
+                return respond(200, resource("/restcountries-arg.json"));
+            default:
+                String query = url.substring(url.indexOf("q=") + 2, url.indexOf('&'));
+                JSONObject rates = new JSONObject();
+                for (String pair : query.split(",")) {
+                    rates.put(pair, pair.startsWith("USD_") ? 40 : 0.025);
+                }
+                return respond(200, rates.toString());
+        }
+    }
+
+    static CompletableFuture<Response> respond(int status, String body) {
+        return CompletableFuture.completedFuture(
+                new Response(status, new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    static CompletableFuture<Response> failed(Throwable e) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        response.completeExceptionally(e);
+        return response;
+    }
+
+    private static String resource(String name) {
+        try (InputStream in = FakeTransport.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.jereaa;
+
+import com.mashape.unirest.http.exceptions.UnirestException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+@DisplayName("com.jereaa.Futures class Tests")
+class FuturesTest {
+
+    @Test
+    @DisplayName("Timeouts Test")
+    void withTimeoutTest() throws Exception {
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        CompletableFuture<String> timed = Futures.withTimeout(slow, 50, "something slow");
+
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, timed::get);
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+        Assertions.assertEquals("Timed out waiting for something slow", e.getCause().getMessage());
+        // The future waited for is left untouched, since other callers may share it
+        Assertions.assertFalse(slow.isDone());
+
+        CompletableFuture<String> fast = new CompletableFuture<>();
+        CompletableFuture<String> answered = Futures.withTimeout(fast, 5000, "something fast");
+        fast.complete("done");
+        Assertions.assertEquals("done", answered.get());
+
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        CompletableFuture<String> failed = Futures.withTimeout(failing, 5000, "something failing");
+        failing.completeExceptionally(new CompletionException(new IOException("Broken")));
+        e = Assertions.assertThrows(ExecutionException.class, failed::get);
+        Assertions.assertTrue(e.getCause() instanceof IOException);
+
+        Assertions.assertSame(fast, Futures.withTimeout(fast, 50, "something done"));
+        Assertions.assertSame(slow, Futures.withTimeout(slow, 0, "something without timeout"));
+    }
+
+    @Test
+    @DisplayName("Rethrown errors Test")
+    void awaitTest() {
+        CompletableFuture<String> timedOut = new CompletableFuture<>();
+        timedOut.completeExceptionally(new TimeoutException("Timed out"));
+        IOException e = Assertions.assertThrows(IOException.class, () -> Futures.await(timedOut));
+        Assertions.assertEquals("Timed out", e.getMessage());
+
+        CompletableFuture<String> badRequest = new CompletableFuture<>();
+        badRequest.completeExceptionally(new IOException("Bad request"));
+        Assertions.assertEquals("Bad request",
+                Assertions.assertThrows(IOException.class, () -> Futures.await(badRequest)).getMessage());
+
+        CompletableFuture<String> unreachable = new CompletableFuture<>();
+        unreachable.completeExceptionally(new UnirestException("No internet"));
+        Assertions.assertThrows(UnirestException.class, () -> Futures.await(unreachable));
+    }
+}
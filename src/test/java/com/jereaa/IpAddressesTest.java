@@ -0,0 +1,91 @@
+package com.jereaa;
+
+import com.google.common.net.InetAddresses;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@DisplayName("com.jereaa.IpAddresses class Tests")
+class IpAddressesTest {
+
+    private static final String[] EDGE_CASES = {
+            "", ".", ":", "::", ":::", "1::", "::1", "1:", ":1", "1::2::3", "1:::2",
+            "0.0.0.0", "255.255.255.255", "256.1.1.1", "1.2.3", "1.2.3.4.", ".1.2.3.4", "1..2.3", "1.2.3.04",
+            "000.000.000.000", "1.2.3.4 ", " 1.2.3.4", "+1.2.3.4", "1.2.3.-4", "1234.1.1.1",
+            "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7::", "::2:3:4:5:6:7:8", "1:2:3:4::5:6:7:8",
+            "1:2:3:4:5:6:7", "FFFF:ffff:AbCd::0", "12345::", "g::", "::ffff:1.2.3.4", "::FFFF:1.2.3.4",
+            "::1.2.3.4", "::ffff:01.2.3.4", "1:2:3:4:5:6:1.2.3.4", "1:2:3:4:5:6:7:1.2.3.4", "1::1.2.3.4",
+            "1.2.3.4::", "::1.2.3.4:1", "::1.2.3", "::%eth0", "[::1]", "fe80::1%1", "::ffff:0:0",
+            "2001:db8::ff00:42:8329", "2001:0db8:0000:0000:0000:ff00:0042:8329"
+    };
+
+    private static List<String> cases() {
+        List<String> cases = new ArrayList<>(Arrays.asList(EDGE_CASES));
+        IppiTest ippiTest = new IppiTest();
+        cases.addAll(Arrays.asList(ippiTest.testIpsLong));
+        cases.addAll(Arrays.asList(ippiTest.testIpsShort));
+        return cases;
+    }
+
+    /**
+     * @return {@code long[]} with the address as parsed by Guava, or {@code null} if it rejects it
+     */
+    private static long[] guava(String ip) {
+        InetAddress address;
+        try {
+            address = InetAddresses.forString(ip);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(16);
+        if (address instanceof Inet4Address) {
+            bytes.putLong(0).putInt(0xFFFF);
+        }
+        bytes.put(address.getAddress()).flip();
+        return new long[]{bytes.getLong(), bytes.getLong()};
+    }
+
+    @Test
+    @DisplayName("Same addresses as Guava Test")
+    void guavaTest() {
+        for (String ip : cases()) {
+            long[] expected = guava(ip);
+            long[] address = new long[2];
+            Assertions.assertEquals(expected != null, IpAddresses.isValid(ip), ip);
+            Assertions.assertEquals(expected != null, IpAddresses.parse(ip, address), ip);
+            if (expected != null) {
+                Assertions.assertArrayEquals(expected, address, ip);
+                Assertions.assertEquals(InetAddresses.forString(ip) instanceof Inet4Address,
+                        IpAddresses.isV4(address), ip);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("IPv4 parsing Test")
+    void parseV4Test() {
+        Assertions.assertEquals(0xC8_2D_01_FEL, IpAddresses.parseV4("200.45.1.254"));
+        Assertions.assertEquals(0xFFFFFFFFL, IpAddresses.parseV4("255.255.255.255"));
+        Assertions.assertEquals(0, IpAddresses.parseV4("0.0.0.0"));
+        Assertions.assertEquals(-1, IpAddresses.parseV4("::ffff:1.2.3.4"));
+        Assertions.assertEquals(-1, IpAddresses.parseV4("1.2.3.256"));
+        Assertions.assertEquals(-1, IpAddresses.parseV4(new StringBuilder("1.2.3.4").append('5').append('6')));
+    }
+
+    @Test
+    @DisplayName("Stricter than Guava Test")
+    void strictTest() {
+        // Guava accepts hextets of any length while their value fits, and digits of any script
+        Assertions.assertTrue(InetAddresses.isInetAddress("::00000001"));
+        Assertions.assertFalse(IpAddresses.isValid("::00000001"));
+        Assertions.assertFalse(IpAddresses.isValid("\u0661.2.3.4"));
+        Assertions.assertFalse(IpAddresses.isValid("::\uff11"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+@DisplayName("com.jereaa.IpRangeIndex class Tests")
+class IpRangeIndexTest {
+
+    private static final String DATABASE = String.join("\n",
+            "ip_from,ip_to,country_code,country_name",
+            "# Ranges don't need to be sorted",
+            "\"200.0.0.0\",\"200.255.255.255\",\"ARG\",\"Argentina\"",
+            "16777216,16777471,AUS,Australia",
+            "128.0.0.0,128.0.0.255,NLD,Netherlands",
+            "",
+            "2001:db8::,2001:db8:ffff:ffff:ffff:ffff:ffff:ffff,URY,Uruguay",
+            "2001::,2001::ffff,JPN",
+            "::ffff:10.0.0.0,::ffff:10.0.0.255,ESP,Spain",
+            "255.255.255.0,255.255.255.255,USA,United States");
+
+    private static String countryOf(IpRangeIndex index, String ip) {
+        int country = index.lookup(ip);
+        return country < 0 ? null : index.countryCode(country);
+    }
+
+    @Test
+    @DisplayName("IPv4 lookup Test")
+    void lookupV4Test() throws IOException {
+        IpRangeIndex index = IpRangeIndex.load(new StringReader(DATABASE));
+
+        Assertions.assertEquals(7, index.size());
+        Assertions.assertEquals("ARG", countryOf(index, "200.0.0.0"));
+        Assertions.assertEquals("ARG", countryOf(index, "200.45.12.1"));
+        Assertions.assertEquals("ARG", countryOf(index, "200.255.255.255"));
+        Assertions.assertEquals("AUS", countryOf(index, "1.0.0.7"));
+        Assertions.assertEquals("NLD", countryOf(index, "128.0.0.1"));
+        Assertions.assertEquals("ESP", countryOf(index, "10.0.0.200"));
+        Assertions.assertEquals("USA", countryOf(index, "255.255.255.255"));
+        Assertions.assertNull(countryOf(index, "0.0.0.0"));
+        Assertions.assertNull(countryOf(index, "127.255.255.255"));
+        Assertions.assertNull(countryOf(index, "201.0.0.0"));
+        Assertions.assertNull(countryOf(index, "bogus"));
+        Assertions.assertNull(countryOf(index, "257.0.0.0"));
+
+        int country = index.lookup("200.1.2.3");
+        Assertions.assertEquals("Argentina", index.countryName(country));
+    }
+
+    @Test
+    @DisplayName("IPv6 lookup Test")
+    void lookupV6Test() throws IOException {
+        IpRangeIndex index = IpRangeIndex.load(new StringReader(DATABASE));
+
+        Assertions.assertEquals("URY", countryOf(index, "2001:db8::1"));
+        Assertions.assertEquals("URY", countryOf(index, "2001:db8:ffff::"));
+        Assertions.assertEquals("JPN", countryOf(index, "2001::ff"));
+        Assertions.assertEquals("JPN", index.countryName(index.lookup("2001::ff")));
+        Assertions.assertNull(countryOf(index, "2001::1:0"));
+        Assertions.assertNull(countryOf(index, "::1"));
+        Assertions.assertNull(countryOf(index, "ffff::1"));
+    }
+
+    @Test
+    @DisplayName("Invalid database Test")
+    void invalidDatabaseTest() {
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n1.0.1.0,bogus,AUS")));
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n1.0.1.0,2001::1,AUS")));
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255")));
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n1.0.1.0,1.0.1.255,\"AUS")));
+
+        // Ranges ending before they start are reported with their line
+        IOException e = Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n1.0.1.255,1.0.1.0,AUS")));
+        Assertions.assertTrue(e.getMessage().contains("line 2"));
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n2001::ff,2001::1,JPN")));
+        Assertions.assertThrows(IOException.class,
+                () -> IpRangeIndex.load(new StringReader("1.0.0.0,1.0.0.255,AUS\n16777471,16777216,AUS")));
+    }
+
+    @Test
+    @DisplayName("Quoted fields Test")
+    void quotedFieldsTest() throws IOException {
+        IpRangeIndex index = IpRangeIndex.load(new StringReader(String.join("\n",
+                "\"16777216\",\"16777471\",\"BQ\",\"Bonaire, Sint Eustatius and Saba\"",
+                "\"16777472\",\"16777727\",\"PS\",\"Palestine, State of\"",
+                "\"16777728\", \"16777983\" ,\"XX\",\"The \"\"Quoted\"\" Land\"")));
+
+        Assertions.assertEquals("Bonaire, Sint Eustatius and Saba", index.countryName(index.lookup("1.0.0.1")));
+        Assertions.assertEquals("Palestine, State of", index.countryName(index.lookup("1.0.1.1")));
+        Assertions.assertEquals("The \"Quoted\" Land", index.countryName(index.lookup("1.0.2.1")));
+    }
+
+    @Test
+    @DisplayName("3-letter country codes Test")
+    void alpha3Test() throws IOException {
+        IpRangeIndex index = IpRangeIndex.load(new StringReader(String.join("\n",
+                "1.0.0.0,1.0.0.255,AR,Argentina",
+                "1.0.1.0,1.0.1.255,uy",
+                "1.0.2.0,1.0.2.255,ARG,Argentina",
+                "1.0.3.0,1.0.3.255,EU,Europe")));
+
+        // Databases with 2-letter codes answer like the remote provider does
+        Assertions.assertEquals("ARG", countryOf(index, "1.0.0.1"));
+        Assertions.assertEquals("URY", countryOf(index, "1.0.1.1"));
+        Assertions.assertEquals("URY", index.countryName(index.lookup("1.0.1.1")));
+        Assertions.assertEquals("ARG", countryOf(index, "1.0.2.1"));
+        // Codes that aren't countries have no 3-letter code, so they are kept as they are
+        Assertions.assertEquals("EU", countryOf(index, "1.0.3.1"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.jereaa;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+@DisplayName("com.jereaa.IpReport class Tests")
+class IpReportTest {
+
+    private static final DistanceCalculator ORIGIN = new DistanceCalculator(CountryFragment.DEFAULT_ORIGIN_LAT,
+            CountryFragment.DEFAULT_ORIGIN_LNG, DistanceCalculator.Unit.KILOMETERS);
+
+    /**
+     * Compiles a country with a single timezone, in the format of the countries provider
+     */
+    private static CountryFragment country(double lat, double lng, String timezone, String currencyCode,
+                                           String... languages) {
+        JSONArray languagesJson = new JSONArray();
+        for (int i = 0; i < languages.length; i += 2) {
+            languagesJson.put(new JSONObject().put("name", languages[i]).put("iso639_1", languages[i + 1]));
+        }
+        JSONObject country = new JSONObject()
+                .put("languages", languagesJson)
+                .put("timezones", new JSONArray().put(timezone))
+                .put("latlng", new JSONArray().put(lat).put(lng))
+                .put("currencies", new JSONArray().put(new JSONObject().put("code", currencyCode)));
+        return CountryFragment.compile(country, ORIGIN, CountryFragment.DEFAULT_ORIGIN_NAME);
+    }
+
+    private static IpReport fullReport() {
+        return new IpReport("200.1.1.1", "ARG", "Argentina")
+                .withCountryInfo(country(-27.5, -58.7, "UTC-03:00", "ARS", "Spanish", "es", "Guaran\u00ed", "gn"),
+                        Instant.parse("2026-10-18T13:00:00Z"))
+                .withRates(37.6002, 0.026595);
+    }
+
+    @Test
+    @DisplayName("JSON matches toJSON Test")
+    void jsonMatchesToJSONTest() {
+        IpReport report = fullReport();
+        JSONObject parsed = new JSONObject(report.toString());
+
+        Assertions.assertTrue(parsed.similar(report.toJSON()));
+        Assertions.assertEquals(37.6002, parsed.getDouble("USD_ARS"));
+        Assertions.assertEquals(0.026595, parsed.getDouble("ARS_USD"));
+        Assertions.assertEquals("Guaran\u00ed", parsed.getJSONArray("languages").getJSONObject(1).getString("name"));
+        Assertions.assertEquals("10:00:00(UTC-03:00)", parsed.getJSONArray("times").getString(0));
+    }
+
+    @Test
+    @DisplayName("Partial report Test")
+    void partialReportTest() {
+        IpReport report = new IpReport("200.1.1.1", "ARG", "Argentina");
+        JSONObject parsed = new JSONObject(report.toString());
+
+        Assertions.assertFalse(report.hasCountryInfo());
+        Assertions.assertFalse(report.hasRates());
+        Assertions.assertEquals(3, parsed.length());
+        Assertions.assertTrue(parsed.similar(report.toJSON()));
+        Assertions.assertFalse(MainApplication.formatResult(report).contains("Languages"));
+
+        IpReport withoutRates = report.withCountryInfo(country(-34, -64, "UTC-03:00", "ARS", "Spanish", "es"),
+                Instant.now());
+        Assertions.assertFalse(new JSONObject(withoutRates.toString()).has("USD_ARS"));
+        Assertions.assertTrue(MainApplication.formatResult(withoutRates).contains("Currency: ARS\n"));
+    }
+
+    @Test
+    @DisplayName("Dollar rates Test")
+    void dollarRatesTest() {
+        IpReport report = new IpReport("8.8.8.8", "USA", "United States of America")
+                .withCountryInfo(country(38, -97, "UTC-05:00", "USD", "English", "en"), Instant.now())
+                .withRates(1, 1);
+        JSONObject parsed = new JSONObject(report.toString());
+
+        Assertions.assertEquals(1, parsed.getDouble("USD_USD"));
+        Assertions.assertEquals(report.toJSON().keySet(), parsed.keySet());
+    }
+
+    @Test
+    @DisplayName("JSON escaping Test")
+    void jsonEscapingTest() {
+        String name = "Quote \" backslash \\ newline \n control \u0001 separator \u2028";
+        IpReport report = new IpReport("::1", "XXX", name);
+
+        Assertions.assertEquals(name, new JSONObject(report.toString()).getString("countryName"));
+        Assertions.assertFalse(report.toString().contains("\n"));
+
+        // Currency codes are part of the keys of the rates
+        String currencyCode = "A\"B\\C";
+        IpReport rates = new IpReport("200.1.1.1", "ARG", "Argentina")
+                .withCountryInfo(country(-27.5, -58.7, "UTC-03:00", currencyCode, "Spanish", "es"), Instant.now())
+                .withRates(40.5, 0.025);
+        JSONObject json = new JSONObject(rates.toString());
+        Assertions.assertEquals(40.5, json.getDouble("USD_" + currencyCode));
+        Assertions.assertEquals(0.025, json.getDouble(currencyCode + "_USD"));
+        Assertions.assertTrue(json.similar(rates.toJSON()));
+    }
+
+    @Test
+    @DisplayName("Stale report Test")
+    void staleReportTest() {
+        IpReport report = fullReport();
+        Assertions.assertFalse(report.isStale());
+        Assertions.assertFalse(new JSONObject(report.toString()).has("stale"));
+
+        IpReport stale = report.asStale();
+        JSONObject parsed = new JSONObject(stale.toString());
+        Assertions.assertTrue(stale.isStale());
+        Assertions.assertTrue(parsed.getBoolean("stale"));
+        Assertions.assertTrue(parsed.similar(stale.toJSON()));
+        Assertions.assertTrue(MainApplication.formatResult(stale).contains("outdated"));
+
+        // Kept when more information is added
+        Assertions.assertTrue(new IpReport("200.1.1.1", "ARG", "Argentina").asStale().withRates(1, 1).isStale());
+    }
+}
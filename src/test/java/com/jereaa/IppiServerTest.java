@@ -0,0 +1,171 @@
+package com.jereaa;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+@DisplayName("com.jereaa.IppiServer class Tests")
+class IppiServerTest {
+
+    private Ippi ippi;
+    private IppiServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        // Every IP is Argentina, but the ones of 200.9.9.0/24 which the provider can't answer
+        ippi = new Ippi(null, true, new FakeTransport((upstream, url) -> url.contains("200.9.9.")
+                ? FakeTransport.respond(404, "") : FakeTransport.answer(upstream, url)));
+        server = new IppiServer(ippi, 0, 2);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        server.stop(0);
+        ippi.close();
+    }
+
+    @Test
+    @DisplayName("IP lookup Test")
+    void ipTest() throws IOException {
+        HttpURLConnection connection = open("/ip/200.1.1.1");
+        Assertions.assertEquals(200, connection.getResponseCode());
+        Assertions.assertEquals("application/json; charset=utf-8", connection.getContentType());
+        JSONObject report = new JSONObject(read(connection));
+        Assertions.assertEquals("200.1.1.1", report.getString("ip"));
+        Assertions.assertEquals("ARG", report.getString("countryCode"));
+        Assertions.assertEquals(40, report.getDouble("USD_ARS"));
+
+        // Encoded IPv6 addresses are decoded
+        connection = open("/ip/2001%3Adb8%3A%3A1");
+        Assertions.assertEquals(200, connection.getResponseCode());
+        Assertions.assertEquals("2001:db8::1", new JSONObject(read(connection)).getString("ip"));
+
+        connection = open("/ip/200.9.9.9");
+        Assertions.assertEquals(502, connection.getResponseCode());
+        Assertions.assertTrue(new JSONObject(read(connection)).has("error"));
+
+        // The workers don't keep the process alive once the server stops
+        Assertions.assertTrue(Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("ippi-worker-"))
+                .allMatch(Thread::isDaemon));
+    }
+
+    @Test
+    @DisplayName("Invalid requests Test")
+    void invalidTest() throws IOException {
+        HttpURLConnection connection = open("/ip/1.2.3");
+        Assertions.assertEquals(400, connection.getResponseCode());
+        Assertions.assertEquals("Invalid IP. The IP 1.2.3 is not a valid IP address.",
+                new JSONObject(read(connection)).getString("error"));
+
+        Assertions.assertEquals(400, open("/ip/%zz").getResponseCode());
+        Assertions.assertEquals(404, open("/unknown").getResponseCode());
+
+        connection = open("/ip/200.1.1.1");
+        connection.setRequestMethod("DELETE");
+        Assertions.assertEquals(405, connection.getResponseCode());
+        Assertions.assertEquals("GET", connection.getHeaderField("Allow"));
+    }
+
+    @Test
+    @DisplayName("Statistics and metrics Test")
+    void statsTest() throws IOException {
+        Assertions.assertEquals(0, new JSONObject(read(open("/stats"))).getLong("lookups"));
+        for (int i = 1; i <= 3; i++) {
+            Assertions.assertEquals(200, open("/ip/200.1.1." + i).getResponseCode());
+        }
+
+        HttpURLConnection connection = open("/stats");
+        Assertions.assertEquals(200, connection.getResponseCode());
+        JSONObject stats = new JSONObject(read(connection));
+        Assertions.assertEquals(3, stats.getLong("lookups"));
+        Assertions.assertEquals("ARG", stats.getJSONObject("nearest").getString("code"));
+        Assertions.assertEquals(3, stats.getJSONArray("countries").getJSONObject(0).getLong("lookups"));
+
+        connection = open("/metrics");
+        Assertions.assertEquals(200, connection.getResponseCode());
+        Assertions.assertTrue(connection.getContentType().startsWith("text/plain"));
+        Assertions.assertTrue(read(connection).contains("ippi_"));
+    }
+
+    @Test
+    @DisplayName("Overloaded server Test")
+    void overloadTest() throws Exception {
+        String[] settings = {"ippi.async.maxConcurrency", "1", "ippi.async.maxQueued", "1",
+                "ippi.timeout.ipCountryMs", "500", "ippi.prefixCache.maxSize", "0", "ippi.server.retryAfterSeconds", "2"};
+        for (int i = 0; i < settings.length; i += 2) {
+            System.setProperty(settings[i], settings[i + 1]);
+        }
+        // The provider never answers, so lookups hold their slot until they time out
+        FakeTransport transport = new FakeTransport((upstream, url) -> new CompletableFuture<>());
+        Ippi overloaded = new Ippi(null, true, transport);
+        IppiServer busy = new IppiServer(overloaded, 0, 4);
+        busy.start();
+
+        try {
+            // One lookup in progress and one queued
+            CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> status(busy, "/ip/200.1.1.1"));
+            for (int i = 0; i < 200 && transport.getCalls() == 0; i++) {
+                Thread.sleep(5);
+            }
+            CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(() -> status(busy, "/ip/200.1.2.1"));
+            Thread.sleep(100);
+
+            HttpURLConnection connection = open(busy, "/ip/200.1.3.1");
+            Assertions.assertEquals(503, connection.getResponseCode());
+            Assertions.assertEquals("2", connection.getHeaderField("Retry-After"));
+            Assertions.assertEquals("Too many lookups in progress, try again later.",
+                    new JSONObject(read(connection)).getString("error"));
+
+            // The lookups that got a slot still fail as usual once they time out
+            Assertions.assertEquals(502, (int) running.get());
+            Assertions.assertEquals(502, (int) queued.get());
+        } finally {
+            busy.stop(0);
+            overloaded.close();
+            for (int i = 0; i < settings.length; i += 2) {
+                System.clearProperty(settings[i]);
+            }
+        }
+    }
+
+    private static int status(IppiServer server, String path) {
+        try {
+            return open(server, path).getResponseCode();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return open(server, path);
+    }
+
+    private static HttpURLConnection open(IppiServer server, String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
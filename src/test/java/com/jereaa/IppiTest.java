@@ -2,15 +2,38 @@ package com.jereaa;
 
 import com.google.common.net.InetAddresses;
 import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
 
 @DisplayName("com.jereaa.Ippi class Tests")
 class IppiTest {
 
+    private final List<String> settings = new ArrayList<>();
+
+    /**
+     * Sets a setting for the instances created by the test, cleared once it finishes
+     */
+    private void set(String key, Object value) {
+        System.setProperty(key, String.valueOf(value));
+        settings.add(key);
+    }
+
+    @AfterEach
+    void clearSettings() {
+        settings.forEach(System::clearProperty);
+        settings.clear();
+    }
+
     String[] testIpsLong = {
             "",
             "016.016.016.016",
@@ -231,4 +254,212 @@ class IppiTest {
             }
         }
     }
+
+    @Test
+    @DisplayName("Trial request rejected by the quota Test")
+    void breakerTrialQuotaTest() throws Exception {
+        set("ippi.upstream.ipCountry.ratePerSecond", 1);
+        set("ippi.upstream.ipCountry.maxQueueWaitMs", 200);
+        set("ippi.upstream.ipCountry.breakerFailures", 1);
+        set("ippi.upstream.ipCountry.breakerOpenMs", 300);
+        set("ippi.upstream.ipCountry.hedgeDelayMs", 0);
+        set("ippi.prefixCache.maxSize", 0);
+        AtomicBoolean healthy = new AtomicBoolean();
+        FakeTransport transport = new FakeTransport((upstream, url) -> healthy.get()
+                ? FakeTransport.answer(upstream, url) : FakeTransport.respond(503, ""));
+
+        try (Ippi ippi = new Ippi(null, true, transport)) {
+            Assertions.assertThrows(UpstreamUnavailableException.class, () -> ippi.getCountryFromIP("200.1.1.1", null));
+            healthy.set(true);
+
+            // The circuit lets a trial through, but there is no token for it until a second after the first request
+            Thread.sleep(350);
+            Assertions.assertThrows(UpstreamUnavailableException.class, () -> ippi.getCountryFromIP("200.1.1.2", null));
+            Assertions.assertEquals(1, transport.getCalls());
+
+            // The request that expired in the queue didn't keep the trial
+            Thread.sleep(700);
+            Assertions.assertEquals("ARG", ippi.getCountryFromIP("200.1.1.3", null).getString("countryCode3"));
+            Assertions.assertEquals(2, transport.getCalls());
+        }
+    }
+
+    @Test
+    @DisplayName("Closed instances stop their threads Test")
+    void closeTest() throws Exception {
+        long before = currencyThreads();
+        for (int i = 0; i < 20; i++) {
+            FakeTransport transport = new FakeTransport();
+            new Ippi(null, true, transport).close();
+            Assertions.assertTrue(transport.isClosed());
+        }
+
+        for (int i = 0; i < 100 && currencyThreads() > before; i++) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(currencyThreads() <= before);
+    }
+
+    private static long currencyThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("ippi-currency-"))
+                .count();
+    }
+
+    private static String metrics(Ippi ippi) throws IOException {
+        StringBuilder out = new StringBuilder();
+        ippi.getMetrics().writePrometheus(out);
+        return out.toString();
+    }
+
+    @Test
+    @DisplayName("Hedged request Test")
+    void hedgeTest() throws Exception {
+        set("ippi.upstream.ipCountry.hedgeDelayMs", 50);
+        set("ippi.prefixCache.maxSize", 0);
+        CompletableFuture<HttpTransport.Response> slow = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        FakeTransport transport = new FakeTransport((upstream, url) -> calls.getAndIncrement() == 0 ? slow
+                : FakeTransport.respond(200, "{\"countryCode3\":\"URY\",\"countryName\":\"Uruguay\"}"));
+
+        try (Ippi ippi = new Ippi(null, true, transport)) {
+            // The first attempt never answers in time, so the hedged one is used
+            Assertions.assertEquals("URY", ippi.getCountryFromIP("200.1.1.1", null).getString("countryCode3"));
+            Assertions.assertEquals(2, transport.getCalls());
+            Assertions.assertEquals(transport.getUrls().get(0), transport.getUrls().get(1));
+            Assertions.assertTrue(metrics(ippi).contains("ippi_upstream_hedged_requests_total{upstream=\"ipCountry\"} 1\n"));
+
+            // The late answer of the first attempt doesn't change anything
+            slow.complete(FakeTransport.answer(Upstream.IP_COUNTRY, "").get());
+            Assertions.assertEquals(2, transport.getCalls());
+        }
+    }
+
+    @Test
+    @DisplayName("Stale fallback Test")
+    void staleTest() throws Exception {
+        set("ippi.upstream.ipCountry.hedgeDelayMs", 0);
+        set("ippi.upstream.ipCountry.staleAfterMs", 100);
+        set("ippi.prefixCache.ttlMs", 1);
+        AtomicInteger status = new AtomicInteger(200);
+        FakeTransport transport = new FakeTransport((upstream, url) -> {
+            switch (status.get()) {
+                case 200:
+                    return FakeTransport.answer(upstream, url);
+                case 0:
+                    // Never answers
+                    return new CompletableFuture<>();
+                default:
+                    return FakeTransport.respond(status.get(), "");
+            }
+        });
+
+        try (Ippi ippi = new Ippi(null, true, transport)) {
+            JSONObject fresh = ippi.getCountryFromIP("200.1.1.1", null);
+            Assertions.assertFalse(fresh.has("stale"));
+            Thread.sleep(10);
+
+            // The provider fails, so the expired country of the network is used
+            status.set(503);
+            JSONObject stale = ippi.getCountryFromIP("200.1.1.2", null);
+            Assertions.assertEquals("ARG", stale.getString("countryCode3"));
+            Assertions.assertTrue(stale.getBoolean("stale"));
+
+            // Same if it doesn't answer within its stale budget
+            status.set(0);
+            Assertions.assertTrue(ippi.getCountryFromIP("200.1.1.3", null).getBoolean("stale"));
+
+            // A bad request would fail the same way every time, so it isn't answered with old information
+            status.set(404);
+            IOException e = Assertions.assertThrows(IOException.class, () -> ippi.getCountryFromIP("200.1.1.4", null));
+            Assertions.assertFalse(e instanceof UpstreamUnavailableException);
+            Assertions.assertEquals(4, transport.getCalls());
+        }
+    }
+
+    @Test
+    @DisplayName("Queued requests skipped once the circuit opens Test")
+    void breakerQueueTest() throws Exception {
+        set("ippi.upstream.ipCountry.ratePerSecond", 5);
+        set("ippi.upstream.ipCountry.burst", 1);
+        set("ippi.upstream.ipCountry.breakerFailures", 1);
+        set("ippi.upstream.ipCountry.hedgeDelayMs", 0);
+        set("ippi.prefixCache.maxSize", 0);
+        CompletableFuture<HttpTransport.Response> failing = new CompletableFuture<>();
+        FakeTransport transport = new FakeTransport((upstream, url) -> failing);
+
+        try (Ippi ippi = new Ippi(null, true, transport)) {
+            CompletableFuture<JSONObject> first = CompletableFuture.supplyAsync(() -> country(ippi, "200.1.1.1"));
+            while (transport.getCalls() == 0) {
+                Thread.sleep(5);
+            }
+            // Waits for a token while the first request is in flight
+            CompletableFuture<JSONObject> queued = CompletableFuture.supplyAsync(() -> country(ippi, "200.1.1.2"));
+            Thread.sleep(50);
+            failing.complete(new HttpTransport.Response(503, null));
+
+            Assertions.assertNull(first.get());
+            Assertions.assertNull(queued.get());
+            // The queued request started after the circuit opened, so it never reached the provider
+            Assertions.assertEquals(1, transport.getCalls());
+            Assertions.assertTrue(metrics(ippi).contains("ippi_upstream_short_circuited_total{upstream=\"ipCountry\"} 1\n"));
+        }
+    }
+
+    @Test
+    @DisplayName("Same result synchronously and asynchronously Test")
+    void asyncParityTest() throws Exception {
+        JSONObject sync = lookup(false, FakeTransport::answer);
+        JSONObject async = lookup(true, FakeTransport::answer);
+        Assertions.assertEquals(40, sync.getDouble("USD_ARS"));
+        assertSameReport(sync, async);
+
+        // The info of the country can't be found, so only the country of the IP is returned
+        BiFunction<Upstream, String, CompletableFuture<HttpTransport.Response>> unknownCountry =
+                (upstream, url) -> upstream == Upstream.IP_COUNTRY
+                        ? FakeTransport.respond(200, "{\"countryCode3\":\"XXX\",\"countryName\":\"Nowhere\"}")
+                        : FakeTransport.respond(404, "");
+        sync = lookup(false, unknownCountry);
+        async = lookup(true, unknownCountry);
+        Assertions.assertEquals(3, sync.length());
+        Assertions.assertEquals("XXX", sync.getString("countryCode"));
+        assertSameReport(sync, async);
+    }
+
+    /**
+     * Investigates an IP with a new instance answered by {@code handler}
+     */
+    private static JSONObject lookup(boolean async,
+            BiFunction<Upstream, String, CompletableFuture<HttpTransport.Response>> handler)
+            throws Exception {
+        try (Ippi ippi = new Ippi(null, true, new FakeTransport(handler))) {
+            return async ? ippi.investigateIpAsync("200.1.1.1").get() : ippi.investigateIp("200.1.1.1");
+        }
+    }
+
+    /**
+     * Asserts both reports have the same values, but for the times that may be a second apart
+     */
+    private static void assertSameReport(JSONObject expected, JSONObject actual) {
+        Assertions.assertEquals(expected.keySet(), actual.keySet());
+        if (expected.has("times")) {
+            Assertions.assertEquals(expected.getJSONArray("times").length(), actual.getJSONArray("times").length());
+            expected = new JSONObject(expected.toString());
+            actual = new JSONObject(actual.toString());
+            expected.remove("times");
+            actual.remove("times");
+        }
+        Assertions.assertTrue(expected.similar(actual), expected + " " + actual);
+    }
+
+    /**
+     * @return {@link JSONObject} with the country of the IP, or {@code null} if the request failed
+     */
+    private static JSONObject country(Ippi ippi, String ip) {
+        try {
+            return ippi.getCountryFromIP(ip, null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
 }
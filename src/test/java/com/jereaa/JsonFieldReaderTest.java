@@ -0,0 +1,93 @@
+package com.jereaa;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+@DisplayName("com.jereaa.JsonFieldReader class Tests")
+class JsonFieldReaderTest {
+
+    private static InputStream country() {
+        return JsonFieldReaderTest.class.getResourceAsStream("/restcountries-arg.json");
+    }
+
+    private static InputStream bytes(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Selected fields Test")
+    void selectedFieldsTest() throws IOException {
+        JSONObject full = new JSONObject(new JSONTokener(new InputStreamReader(country(), StandardCharsets.UTF_8)));
+        JSONObject selected = JsonFieldReader.read(country(), "alpha3Code", "latlng", "languages", "currencies", "missing");
+
+        Assertions.assertEquals(4, selected.length());
+        Assertions.assertEquals("ARG", selected.getString("alpha3Code"));
+        Assertions.assertTrue(selected.getJSONArray("latlng").similar(full.getJSONArray("latlng")));
+        Assertions.assertTrue(selected.getJSONArray("languages").similar(full.getJSONArray("languages")));
+        Assertions.assertTrue(selected.getJSONArray("currencies").similar(full.getJSONArray("currencies")));
+        Assertions.assertFalse(selected.has("translations"));
+    }
+
+    @Test
+    @DisplayName("All fields Test")
+    void allFieldsTest() throws IOException {
+        JSONObject full = new JSONObject(new JSONTokener(new InputStreamReader(country(), StandardCharsets.UTF_8)));
+
+        Assertions.assertTrue(JsonFieldReader.read(country()).similar(full));
+        Assertions.assertEquals(0.026595, JsonFieldReader.read(bytes("{\"ARS_USD\":0.026595}")).getDouble("ARS_USD"));
+    }
+
+    @Test
+    @DisplayName("Skipped values Test")
+    void skippedValuesTest() throws IOException {
+        String json = "{\"skip\":{\"a\":[1,\"}]\\\"{[\",{\"b\":null}],\"c\":\"\\\\\"}, \"n\" : -1.5e3 ,\"t\":true,"
+                + "\"keep\":\"caf\\u00e9 \\\"quoted\\\"\\n\",\"last\":false}";
+        JSONObject selected = JsonFieldReader.read(bytes(json), "keep", "n", "last");
+
+        Assertions.assertEquals(3, selected.length());
+        Assertions.assertEquals("caf\u00e9 \"quoted\"\n", selected.getString("keep"));
+        Assertions.assertEquals(-1500, selected.getDouble("n"));
+        Assertions.assertFalse(selected.getBoolean("last"));
+    }
+
+    @Test
+    @DisplayName("UTF-8 Test")
+    void utf8Test() throws IOException {
+        String value = "Guaran\u00ed Ava\u00f1e'\u1ebd \u30a2\u30eb\u30bc\u30f3\u30c1\u30f3 \ud83c\udde6\ud83c\uddf7";
+        JSONObject selected = JsonFieldReader.read(bytes("{\"skip\":\"" + value + "\",\"keep\":\"" + value + "\"}"), "keep");
+
+        Assertions.assertEquals(value, selected.getString("keep"));
+        Assertions.assertThrows(JSONException.class,
+                () -> JsonFieldReader.read(new ByteArrayInputStream(new byte[]{'{', '"', 'a', '"', ':', '"', (byte) 0xC3, '"', '}'}), "a"));
+    }
+
+    @Test
+    @DisplayName("Invalid JSON Test")
+    void invalidJsonTest() {
+        String[] invalid = {
+                "",
+                "[]",
+                "{\"a\":1",
+                "{\"a\" 1}",
+                "{\"a\":1,}",
+                "{\"a\":bogus}",
+                "{\"a\":\"unterminated}",
+                "{\"a\":{\"b\":[1,2}",
+                "{\"a\":1} trailing",
+                "{\"a\":\"\\x\"}"
+        };
+        for (String json : invalid) {
+            Assertions.assertThrows(JSONException.class, () -> JsonFieldReader.read(bytes(json), "a"), json);
+        }
+    }
+}
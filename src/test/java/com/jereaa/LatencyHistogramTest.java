@@ -0,0 +1,42 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+@DisplayName("com.jereaa.LatencyHistogram class Tests")
+class LatencyHistogramTest {
+
+    @Test
+    @DisplayName("Buckets Test")
+    void bucketsTest() {
+        for (long micros : new long[]{0, 1, 15, 16, 17, 1000, 123456, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(micros);
+            Assertions.assertTrue(LatencyHistogram.highestValue(index) >= micros);
+            if (index > 0) {
+                Assertions.assertTrue(LatencyHistogram.highestValue(index - 1) < micros);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Percentiles Test")
+    void percentilesTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.snapshot().getValueAt(0.99));
+
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assertions.assertEquals(1000, snapshot.getCount());
+        Assertions.assertEquals(1000000, snapshot.getMax());
+        Assertions.assertEquals(500500, snapshot.getMean(), 0.001);
+        Assertions.assertEquals(500000, snapshot.getValueAt(0.5), 500000 / 16.0);
+        Assertions.assertEquals(990000, snapshot.getValueAt(0.99), 990000 / 16.0);
+        Assertions.assertEquals(1000000, snapshot.getValueAt(1));
+    }
+}
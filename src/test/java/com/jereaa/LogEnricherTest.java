@@ -0,0 +1,125 @@
+package com.jereaa;
+
+import com.google.common.net.InetAddresses;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@DisplayName("com.jereaa.LogEnricher class Tests")
+class LogEnricherTest {
+
+    private Path log;
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final Set<String> lookupThreads = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void createLog() throws IOException {
+        log = Files.createTempFile("ippi-log", ".log");
+    }
+
+    @AfterEach
+    void deleteLog() throws IOException {
+        Files.delete(log);
+    }
+
+    /**
+     * Answers every IP as Argentina, except the ones in {@code 10.0.0.0/8}
+     */
+    private IpReport lookup(String ip) {
+        lookups.incrementAndGet();
+        lookupThreads.add(Thread.currentThread().getName());
+        return ip.startsWith("10.") ? null : new IpReport(ip, "ARG", "Argentina");
+    }
+
+    private String enrich(LogEnricher.Format format, char separator, int column, int chunkBytes) throws IOException {
+        LogEnricher enricher = new LogEnricher(InetAddresses::isInetAddress, this::lookup, column, separator, format,
+                chunkBytes, 4, 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        enricher.run(log, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Lines in order Test")
+    void orderTest() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            String ip = "200.1." + (i % 7) + ".1";
+            input.append(ip).append(" - - \"GET /").append(i).append(" HTTP/1.1\" 200\n");
+            expected.append(ip).append(" - - \"GET /").append(i).append(" HTTP/1.1\" 200 ARG Argentina  \n");
+        }
+        Files.write(log, input.toString().getBytes(StandardCharsets.UTF_8));
+
+        // Small chunks, so the file is split into many of them
+        String output = enrich(LogEnricher.Format.CSV, ' ', 0, 4096);
+        Assertions.assertEquals(expected.toString(), output);
+        // Each chunk looks up each of its IPs once
+        Assertions.assertTrue(lookups.get() < 5000 / 10);
+        Assertions.assertTrue(lookupThreads.stream().allMatch(name -> name.startsWith("ippi-enrich-")));
+    }
+
+    @Test
+    @DisplayName("CSV columns Test")
+    void csvTest() throws IOException {
+        Files.write(log, Arrays.asList("1,\"200.1.1.1\",x", "2,10.0.0.1,y", "3,nope,z", "4"));
+
+        String output = enrich(LogEnricher.Format.CSV, ',', 1, 1 << 20);
+        Assertions.assertEquals("1,\"200.1.1.1\",x,ARG,Argentina,,\n2,10.0.0.1,y,,,,\n3,nope,z,,,,\n4,,,,\n", output);
+        Assertions.assertEquals(2, lookups.get());
+    }
+
+    @Test
+    @DisplayName("NDJSON output Test")
+    void ndjsonTest() throws IOException {
+        Files.write(log, "200.1.1.1 \"quoted\"\r\n\r\n10.0.0.1 b\nnope c".getBytes(StandardCharsets.UTF_8));
+
+        LogEnricher enricher = new LogEnricher(InetAddresses::isInetAddress, this::lookup, 0, ' ',
+                LogEnricher.Format.NDJSON, 1 << 20, 2, 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        enricher.run(log, out);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+
+        Assertions.assertEquals(3, lines.length);
+        JSONObject found = new JSONObject(lines[0]);
+        Assertions.assertEquals("200.1.1.1", found.getString("ip"));
+        Assertions.assertEquals("ARG", found.getString("countryCode"));
+        Assertions.assertEquals("200.1.1.1 \"quoted\"", found.getString("line"));
+        JSONObject failed = new JSONObject(lines[1]);
+        Assertions.assertEquals("10.0.0.1", failed.getString("ip"));
+        Assertions.assertTrue(failed.has("error"));
+        JSONObject invalid = new JSONObject(lines[2]);
+        Assertions.assertEquals("Invalid IP", invalid.getString("error"));
+        Assertions.assertEquals("nope c", invalid.getString("line"));
+
+        Assertions.assertEquals(3, enricher.getLines());
+        Assertions.assertEquals(1, enricher.getInvalid());
+        Assertions.assertEquals(1, enricher.getFailed());
+        Assertions.assertEquals(2, enricher.getLookups());
+    }
+
+    @Test
+    @DisplayName("Lines longer than a chunk Test")
+    void longLineTest() throws IOException {
+        char[] padding = new char[10000];
+        Arrays.fill(padding, 'x');
+        Files.write(log, Arrays.asList("200.1.1.1 " + new String(padding), "200.1.1.2 y"));
+
+        String output = enrich(LogEnricher.Format.CSV, ' ', 0, 100);
+        Assertions.assertEquals("200.1.1.1 " + new String(padding) + " ARG Argentina  \n200.1.1.2 y ARG Argentina  \n",
+                output);
+    }
+}
@@ -0,0 +1,70 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+@DisplayName("com.jereaa.Metrics class Tests")
+class MetricsTest {
+
+    private static Metrics sampleMetrics() {
+        Metrics metrics = new Metrics();
+        metrics.addCache("countries", () -> 3, () -> 1);
+        metrics.recordResponse(Upstream.COUNTRIES, TimeUnit.MILLISECONDS.toNanos(20), 200);
+        metrics.recordResponse(Upstream.COUNTRIES, TimeUnit.MILLISECONDS.toNanos(20), 404);
+        metrics.recordResponse(Upstream.COUNTRIES, TimeUnit.MILLISECONDS.toNanos(20), 503);
+        metrics.recordFailure(Upstream.COUNTRIES, TimeUnit.SECONDS.toNanos(5), new SocketTimeoutException());
+        metrics.recordFailure(Upstream.COUNTRIES, TimeUnit.MILLISECONDS.toNanos(1), new IOException());
+
+        IpReport report = new IpReport("1.1.1.1", "ARG", "Argentina");
+        metrics.recordLookup(TimeUnit.MILLISECONDS.toNanos(30), report.withRates(40, 0.025));
+        metrics.recordLookup(TimeUnit.MILLISECONDS.toNanos(30), report);
+        metrics.recordLookup(TimeUnit.MILLISECONDS.toNanos(30), null);
+        return metrics;
+    }
+
+    @Test
+    @DisplayName("Prometheus format Test")
+    void prometheusTest() throws IOException {
+        StringBuilder out = new StringBuilder();
+        sampleMetrics().writePrometheus(out);
+        String text = out.toString();
+
+        Assertions.assertTrue(text.contains("# TYPE ippi_lookups_total counter\n"));
+        Assertions.assertTrue(text.contains("ippi_lookups_total{result=\"complete\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_lookups_total{result=\"partial\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_lookups_total{result=\"failed\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_lookup_duration_seconds_count 3\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_requests_total{upstream=\"countries\",outcome=\"success\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_requests_total{upstream=\"countries\",outcome=\"client_error\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_requests_total{upstream=\"countries\",outcome=\"server_error\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_requests_total{upstream=\"countries\",outcome=\"timeout\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_requests_total{upstream=\"countries\",outcome=\"error\"} 1\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_request_duration_seconds_count{upstream=\"countries\"} 5\n"));
+        Assertions.assertTrue(text.contains("ippi_upstream_request_duration_seconds{upstream=\"countries\",quantile=\"0.999\"} 5.0\n"));
+        Assertions.assertTrue(text.contains("ippi_cache_hit_ratio{cache=\"countries\"} 0.75\n"));
+    }
+
+    @Test
+    @DisplayName("JMX Test")
+    void jmxTest() throws Exception {
+        Metrics metrics = sampleMetrics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        metrics.registerMBeans();
+        try {
+            Assertions.assertEquals(3L, server.getAttribute(new ObjectName("com.jereaa:type=Lookups"), "Count"));
+            Assertions.assertEquals(1L, server.getAttribute(new ObjectName("com.jereaa:type=Upstream,name=countries"), "Timeouts"));
+            Assertions.assertEquals(0.75, server.getAttribute(new ObjectName("com.jereaa:type=Cache,name=countries"), "HitRatio"));
+        } finally {
+            metrics.unregisterMBeans();
+        }
+        Assertions.assertFalse(server.isRegistered(new ObjectName("com.jereaa:type=Lookups")));
+    }
+}
@@ -0,0 +1,124 @@
+package com.jereaa;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+@DisplayName("com.jereaa.PooledHttpTransport class Tests")
+class PooledHttpTransportTest {
+
+    private HttpServer server;
+    private String baseUrl;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/plain", exchange -> {
+            byte[] body = "{\"plain\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write("{\"gzip\":true}".getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                compressed.writeTo(out);
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Responses Test")
+    void responsesTest() throws Exception {
+        try (PooledHttpTransport transport = new PooledHttpTransport()) {
+            for (int i = 0; i < 3; i++) {
+                HttpTransport.Response plain = transport.get(Upstream.COUNTRIES, baseUrl + "/plain").get();
+                Assertions.assertEquals(200, plain.getStatus());
+                Assertions.assertEquals("{\"plain\":true}", read(plain.getBody()));
+            }
+
+            HttpTransport.Response gzip = transport.get(Upstream.COUNTRIES, baseUrl + "/gzip").get();
+            Assertions.assertEquals("{\"gzip\":true}", read(gzip.getBody()));
+
+            HttpTransport.Response notFound = transport.get(Upstream.IP_COUNTRY, baseUrl + "/missing").get();
+            Assertions.assertEquals(404, notFound.getStatus());
+        }
+    }
+
+    @Test
+    @DisplayName("Read timeout Test")
+    void readTimeoutTest() throws IOException {
+        System.setProperty("ippi.upstream.rates.readTimeoutMs", "200");
+        try (PooledHttpTransport transport = new PooledHttpTransport()) {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> transport.get(Upstream.CURRENCY_RATES, baseUrl + "/slow").get());
+            Assertions.assertTrue(e.getCause() instanceof SocketTimeoutException);
+        } finally {
+            System.clearProperty("ippi.upstream.rates.readTimeoutMs");
+        }
+    }
+
+    @Test
+    @DisplayName("Closed transport Test")
+    void closedTest() throws Exception {
+        // Nothing was started, so there is nothing to close
+        new PooledHttpTransport().close();
+
+        PooledHttpTransport transport = new PooledHttpTransport();
+        Assertions.assertEquals(200, transport.get(Upstream.COUNTRIES, baseUrl + "/plain").get().getStatus());
+        transport.close();
+
+        for (Upstream upstream : Upstream.values()) {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                    () -> transport.get(upstream, baseUrl + "/plain").get());
+            Assertions.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("com.jereaa.PrefixCache class Tests")
+class PrefixCacheTest {
+
+    private static long[] address(String ip) {
+        long[] address = new long[2];
+        Assertions.assertTrue(IpAddresses.parse(ip, address));
+        return address;
+    }
+
+    @Test
+    @DisplayName("Neighbouring IPs Test")
+    void neighboursTest() {
+        PrefixCache cache = new PrefixCache(24, 48, 1024, 60000);
+        Assertions.assertEquals(-1, cache.lookup(address("200.45.1.1")));
+
+        cache.put(address("200.45.1.1"), "ARG", "Argentina");
+        cache.put(address("2001:db8:1::1"), "USA", "United States of America");
+
+        int country = cache.lookup(address("200.45.1.254"));
+        Assertions.assertEquals("ARG", cache.countryCode(country));
+        Assertions.assertEquals("Argentina", cache.countryName(country));
+        Assertions.assertEquals(-1, cache.lookup(address("200.45.2.1")));
+
+        country = cache.lookup(address("2001:db8:1:ffff::1"));
+        Assertions.assertEquals("USA", cache.countryCode(country));
+        Assertions.assertEquals(-1, cache.lookup(address("2001:db8:2::1")));
+
+        // IPv4 prefixes never match IPv6 ones with the same bits
+        Assertions.assertEquals(-1, cache.lookup(address("::c82d:101")));
+
+        Assertions.assertEquals(2, cache.getHits());
+        Assertions.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    @DisplayName("Prefix lengths Test")
+    void prefixLengthsTest() {
+        PrefixCache cache = new PrefixCache(32, 60, 1024, 60000);
+        cache.put(address("200.45.1.1"), "ARG", "Argentina");
+        Assertions.assertEquals(-1, cache.lookup(address("200.45.1.2")));
+        Assertions.assertNotEquals(-1, cache.lookup(address("200.45.1.1")));
+
+        cache = new PrefixCache(16, 32, 1024, 60000);
+        cache.put(address("200.45.1.1"), "ARG", "Argentina");
+        Assertions.assertNotEquals(-1, cache.lookup(address("200.45.200.1")));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PrefixCache(33, 48, 1024, 60000));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PrefixCache(24, 64, 1024, 60000));
+    }
+
+    @Test
+    @DisplayName("Expiration and eviction Test")
+    void evictionTest() {
+        PrefixCache expired = new PrefixCache(24, 48, 1024, -1);
+        expired.put(address("200.45.1.1"), "ARG", "Argentina");
+        Assertions.assertEquals(-1, expired.lookup(address("200.45.1.1")));
+        Assertions.assertEquals("ARG", expired.countryCode(expired.lookupExpired(address("200.45.1.1"))));
+
+        PrefixCache cache = new PrefixCache(24, 48, 16, 60000);
+        for (int i = 0; i < 256; i++) {
+            cache.put(address("10." + i + ".0.1"), "C" + (i % 3), "Country " + (i % 3));
+        }
+        int found = 0;
+        for (int i = 0; i < 256; i++) {
+            int country = cache.lookup(address("10." + i + ".0.2"));
+            if (country >= 0) {
+                Assertions.assertEquals("C" + (i % 3), cache.countryCode(country));
+                found++;
+            }
+        }
+        Assertions.assertTrue(found > 0 && found <= 16, "Found " + found + " prefixes");
+
+        // The latest prefix is always kept
+        Assertions.assertNotEquals(-1, cache.lookup(address("10.255.0.1")));
+    }
+}
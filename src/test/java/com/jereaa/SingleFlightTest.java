@@ -0,0 +1,118 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@DisplayName("com.jereaa.SingleFlight class Tests")
+class SingleFlightTest {
+
+    @Test
+    @DisplayName("Concurrent callers share one call Test")
+    void sharedCallTest() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> call = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<CompletableFuture<String>>> callers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                callers.add(pool.submit(() -> {
+                    start.await();
+                    return flights.run("key", key -> {
+                        calls.incrementAndGet();
+                        return call;
+                    });
+                }));
+            }
+            start.countDown();
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (Future<CompletableFuture<String>> caller : callers) {
+                results.add(caller.get());
+            }
+            Assertions.assertEquals(1, calls.get());
+            Assertions.assertEquals(1, flights.size());
+
+            call.complete("value");
+            for (CompletableFuture<String> result : results) {
+                Assertions.assertEquals("value", result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Key forgotten after success Test")
+    void successTest() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<String> first = flights.run("key", key -> CompletableFuture.completedFuture("1"));
+        Assertions.assertEquals("1", first.get());
+        Assertions.assertEquals(0, flights.size());
+
+        // The next call starts fresh, instead of getting the old result
+        CompletableFuture<String> second = flights.run("key", key -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("2");
+        });
+        Assertions.assertEquals("2", second.get());
+        Assertions.assertEquals(1, calls.get());
+
+        // Other keys never share a call
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> one = flights.run("one", key -> pending);
+        CompletableFuture<String> other = flights.run("other", key -> CompletableFuture.completedFuture("other"));
+        Assertions.assertFalse(one.isDone());
+        Assertions.assertEquals("other", other.get());
+    }
+
+    @Test
+    @DisplayName("Key forgotten after failure Test")
+    void failureTest() throws Exception {
+        SingleFlight<String, String> flights = new SingleFlight<>();
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        CompletableFuture<String> first = flights.run("key", key -> failing);
+        CompletableFuture<String> joined = flights.run("key", key -> CompletableFuture.completedFuture("unused"));
+
+        failing.completeExceptionally(new IOException("Broken"));
+        for (CompletableFuture<String> result : Arrays.asList(first, joined)) {
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, result::get);
+            Assertions.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assertions.assertEquals(0, flights.size());
+        Assertions.assertEquals("retried", flights.run("key", key -> CompletableFuture.completedFuture("retried")).get());
+
+        // Calls that throw instead of returning a future are forgotten too
+        CompletableFuture<String> thrown = flights.run("key", key -> {
+            throw new IllegalStateException("Broken");
+        });
+        Assertions.assertThrows(ExecutionException.class, thrown::get);
+        Assertions.assertEquals(0, flights.size());
+        Assertions.assertEquals("again", flights.run("key", key -> CompletableFuture.completedFuture("again")).get());
+
+        // Same for errors
+        CompletableFuture<String> error = flights.run("key", key -> {
+            throw new StackOverflowError();
+        });
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, error::get);
+        Assertions.assertTrue(e.getCause() instanceof StackOverflowError);
+        Assertions.assertEquals(0, flights.size());
+        Assertions.assertEquals("fresh", flights.run("key", key -> CompletableFuture.completedFuture("fresh")).get());
+    }
+}
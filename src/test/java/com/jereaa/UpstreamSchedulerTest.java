@@ -0,0 +1,94 @@
+package com.jereaa;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+@DisplayName("com.jereaa.UpstreamScheduler class Tests")
+class UpstreamSchedulerTest {
+
+    private static CompletableFuture<String> start(List<String> started, String name) {
+        started.add(name);
+        return CompletableFuture.completedFuture(name);
+    }
+
+    @Test
+    @DisplayName("Rate and burst Test")
+    void rateTest() {
+        UpstreamScheduler scheduler = new UpstreamScheduler("test", 50, 2, 5000, 100);
+        List<String> started = new CopyOnWriteArrayList<>();
+
+        long begin = System.nanoTime();
+        CompletableFuture<?>[] results = new CompletableFuture<?>[6];
+        for (int i = 0; i < results.length; i++) {
+            String name = "request" + i;
+            results[i] = scheduler.submit(Ippi.Priority.INTERACTIVE, () -> start(started, name));
+        }
+        // The burst starts right away, and the rest wait for their tokens
+        Assertions.assertEquals(2, started.size());
+        Assertions.assertEquals(4, scheduler.getQueued());
+
+        CompletableFuture.allOf(results).join();
+        long millis = (System.nanoTime() - begin) / 1000000;
+        Assertions.assertTrue(millis >= 70, "Took " + millis + " ms");
+        Assertions.assertEquals(6, started.size());
+        Assertions.assertEquals(0, scheduler.getQueued());
+        Assertions.assertEquals(6, scheduler.getWaits().getCount());
+        Assertions.assertTrue(scheduler.getWaits().getMax() > 0);
+        Assertions.assertFalse(scheduler.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("Priorities Test")
+    void prioritiesTest() {
+        UpstreamScheduler scheduler = new UpstreamScheduler("test", 20, 1, 5000, 100);
+        List<String> started = new CopyOnWriteArrayList<>();
+
+        scheduler.submit(Ippi.Priority.BATCH, () -> start(started, "first"));
+        CompletableFuture<String> batch = scheduler.submit(Ippi.Priority.BATCH, () -> start(started, "batch"));
+        CompletableFuture<String> interactive = scheduler.submit(Ippi.Priority.INTERACTIVE,
+                () -> start(started, "interactive"));
+
+        CompletableFuture.allOf(batch, interactive).join();
+        Assertions.assertEquals("first", started.get(0));
+        Assertions.assertEquals("interactive", started.get(1));
+        Assertions.assertEquals("batch", started.get(2));
+    }
+
+    @Test
+    @DisplayName("Bounded wait Test")
+    void boundedWaitTest() {
+        UpstreamScheduler scheduler = new UpstreamScheduler("test", 1, 1, 50, 1);
+        List<String> started = new CopyOnWriteArrayList<>();
+
+        Assertions.assertEquals("first", scheduler.submit(Ippi.Priority.INTERACTIVE, () -> start(started, "first")).join());
+        CompletableFuture<String> waiting = scheduler.submit(Ippi.Priority.INTERACTIVE, () -> start(started, "waiting"));
+        CompletableFuture<String> rejected = scheduler.submit(Ippi.Priority.INTERACTIVE, () -> start(started, "full"));
+
+        CompletionException e = Assertions.assertThrows(CompletionException.class, rejected::join);
+        Assertions.assertTrue(e.getCause() instanceof UpstreamUnavailableException);
+        e = Assertions.assertThrows(CompletionException.class, waiting::join);
+        Assertions.assertTrue(e.getCause() instanceof UpstreamUnavailableException);
+
+        Assertions.assertEquals(1, started.size());
+        Assertions.assertEquals(2, scheduler.getRejected());
+        Assertions.assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    @DisplayName("Unlimited rate Test")
+    void unlimitedTest() {
+        UpstreamScheduler scheduler = new UpstreamScheduler("test", 0, 1, 50, 0);
+        List<String> started = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            scheduler.submit(Ippi.Priority.BATCH, () -> start(started, "request"));
+        }
+        Assertions.assertEquals(100, started.size());
+        Assertions.assertTrue(scheduler.tryAcquire());
+    }
+}